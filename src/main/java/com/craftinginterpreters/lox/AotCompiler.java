@@ -0,0 +1,228 @@
+package com.craftinginterpreters.lox;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles a resolved program ahead of time into a jar that runs it with {@code java -jar}.
+ * <p>
+ * The program is translated to Java source by the {@link JavaGenerator}, which is compiled in
+ * process by the JDK's compiler. The jar holds the compiled classes together with the classes of
+ * this interpreter that they refer to, whose functions, classes and instances the compiled code
+ * runs on. Running the jar doesn't scan, parse or resolve anything: that was all done when it
+ * was compiled, and the classes that do it are left out of the jar.
+ */
+public class AotCompiler {
+
+    private static final String MAIN_CLASS = JavaGenerator.PACKAGE + "." + JavaGenerator.CLASS_NAME;
+    private static final String PACKAGE_PATH = JavaGenerator.PACKAGE.replace('.', '/') + "/";
+    // The internal name of a class of this package, in a class file's strings.
+    private static final Pattern CLASS_REFERENCE = Pattern.compile(Pattern.quote(PACKAGE_PATH) + "[\\w$/]+");
+
+    /**
+     * The classes the runtime refers to that a compiled script never loads, which keep the
+     * front end out of the jar: the runner, which reports the interpreter's errors, the
+     * Resolver, whose constants are compiled into the runtime, and the tiers and the JIT,
+     * which a compiled script doesn't turn on.
+     */
+    private static final Set<String> NOT_LOADED = Set.of("Lox", "Resolver", "TieredExecution", "JvmCompiler",
+            "CompiledFunction", "StmtNode");
+
+    // Thrown when there is no Java compiler to run or it rejects the generated source.
+    public static class CompileError extends RuntimeException {
+        CompileError(String message) {
+            super(message);
+        }
+    }
+
+    public void compile(List<Stmt> statements, Path jar) throws IOException {
+        String source = new JavaGenerator().generate(statements);
+        writeJar(jar, compileSource(source));
+    }
+
+    // Compiles the source in memory, returning the bytes of each class by its binary name.
+    private Map<String, byte[]> compileSource(String source) throws IOException {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new CompileError("Compiling a script needs a JDK, which has a Java compiler.");
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, ByteArrayOutputStream> classes = new LinkedHashMap<>();
+        try (StandardJavaFileManager files = javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            files.setLocationFromPaths(StandardLocation.CLASS_PATH, List.of(runtimeLocation()));
+            JavaFileManager memory = new ForwardingJavaFileManager<>(files) {
+                @Override
+                public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                           JavaFileObject.Kind kind, FileObject sibling) {
+                    return new SimpleJavaFileObject(URI.create("memory:///" + className.replace('.', '/')
+                            + kind.extension), kind) {
+                        @Override
+                        public OutputStream openOutputStream() {
+                            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                            classes.put(className, bytes);
+                            return bytes;
+                        }
+                    };
+                }
+            };
+
+            JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///"
+                    + MAIN_CLASS.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+
+            List<String> options = List.of("-proc:none", "-nowarn");
+            if (!javac.getTask(null, memory, diagnostics, options, null, List.of(file)).call()) {
+                StringBuilder message = new StringBuilder("The generated Java source didn't compile:");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    message.append('\n').append(diagnostic);
+                }
+                throw new CompileError(message.toString());
+            }
+        }
+
+        Map<String, byte[]> bytes = new LinkedHashMap<>();
+        classes.forEach((name, output) -> bytes.put(name, output.toByteArray()));
+        return bytes;
+    }
+
+    private void writeJar(Path jar, Map<String, byte[]> classes) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, MAIN_CLASS);
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            copyRuntime(out, classes);
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Copies the classes of the interpreter that the compiled classes refer to, and the ones
+     * those refer to in turn, from the directory or jar they were loaded from.
+     */
+    private void copyRuntime(JarOutputStream out, Map<String, byte[]> compiled) throws IOException {
+        Path location = runtimeLocation();
+        JarFile jar = Files.isDirectory(location) ? null : new JarFile(location.toFile());
+        try {
+            Deque<String> pending = new ArrayDeque<>();
+            Set<String> seen = new HashSet<>();
+            for (byte[] bytes : compiled.values()) {
+                pending.addAll(referencedClasses(bytes));
+            }
+
+            while (!pending.isEmpty()) {
+                String name = pending.pop();
+                if (!seen.add(name) || compiled.containsKey(name.replace('/', '.'))) continue;
+                if (NOT_LOADED.contains(name.substring(PACKAGE_PATH.length()))) continue;
+
+                byte[] bytes = readRuntimeClass(location, jar, name + ".class");
+                if (bytes == null) continue;
+
+                out.putNextEntry(new JarEntry(name + ".class"));
+                out.write(bytes);
+                out.closeEntry();
+                pending.addAll(referencedClasses(bytes));
+            }
+        } finally {
+            if (jar != null) jar.close();
+        }
+    }
+
+    private static byte[] readRuntimeClass(Path location, JarFile jar, String entryName) throws IOException {
+        if (jar == null) {
+            Path path = location.resolve(entryName);
+            return Files.isRegularFile(path) ? Files.readAllBytes(path) : null;
+        }
+
+        JarEntry entry = jar.getJarEntry(entryName);
+        if (entry == null) return null;
+        try (InputStream in = jar.getInputStream(entry)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * The classes of this package that a class file refers to, by their internal names. They
+     * are found in the strings of its constant pool, which hold the names of the classes it
+     * uses and the descriptors of the fields and methods it uses, along with its own text.
+     */
+    private static Set<String> referencedClasses(byte[] classFile) throws IOException {
+        Set<String> classes = new HashSet<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        in.skipBytes(8);
+        int count = in.readUnsignedShort();
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1 -> {
+                    Matcher matcher = CLASS_REFERENCE.matcher(in.readUTF());
+                    while (matcher.find()) {
+                        classes.add(matcher.group());
+                    }
+                }
+                case 7, 8, 16, 19, 20 -> in.skipBytes(2);
+                case 15 -> in.skipBytes(3);
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> in.skipBytes(4);
+                case 5, 6 -> {
+                    // Longs and doubles take two entries.
+                    in.skipBytes(8);
+                    i++;
+                }
+                default -> throw new IOException("Unknown constant pool tag " + tag + ".");
+            }
+        }
+        return classes;
+    }
+
+    private static Path runtimeLocation() {
+        try {
+            return Path.of(AotCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The operations that Java source generated by the {@link JavaGenerator} calls, for what
+ * doesn't fit in a Java expression of its own: the checks of operands, property access
+ * and calls. Each one behaves as the interpreter does, down to the order in which
+ * operands are evaluated and checked, so a compiled script fails as it would interpreted.
+ */
+final class AotRuntime {
+
+    static final Cell[] NO_UPVALUES = new Cell[0];
+
+    private AotRuntime() {
+    }
+
+    // Reports an error as the Lox runner does, which isn't in the jar of a compiled script.
+    static void runtimeError(RuntimeError error) {
+        System.err.println(error.getMessage() + "\n[line " + error.getLine() + "]");
+    }
+
+    /**
+     * Describes a compiled function to the LoxFunction that runs it. The body reads its
+     * parameters from the frame and keeps its other locals in Java locals, so the frame
+     * only needs room for the parameters, unless the body is split across methods.
+     */
+    static Stmt.Function declaration(String name, int line, int arity, int frameSize, int[] capturedParameters) {
+        Token token = new Token(TokenType.IDENTIFIER, name, null, line);
+        List<Token> params = Collections.nCopies(arity, token);
+        Stmt.Function declaration = new Stmt.Function(token, params, List.of());
+        declaration.frameSize = frameSize;
+        declaration.capturedParameters = capturedParameters;
+        return declaration;
+    }
+
+    static double number(Token operator, Object operand) {
+        if (operand instanceof Double number) return number;
+        throw new RuntimeError(operator, "Operands must be numbers");
+    }
+
+    static double negate(Token operator, Object operand) {
+        if (operand instanceof Double number) return -number;
+        throw new RuntimeError(operator, "Operand must be a number");
+    }
+
+    // Numbers are truthy, but an expression that is statically numeric still has to be evaluated.
+    static boolean truthy(double number) {
+        return true;
+    }
+
+    // Evaluates an expression statement whose value isn't used.
+    static void ignore(Object value) {
+    }
+
+    // The binary operators whose left operand isn't statically a number. Both operands
+    // are evaluated before either is checked, as in the interpreter.
+
+    static double subtract(Token operator, Object left, Object right) {
+        return number(operator, left) - number(operator, right);
+    }
+
+    static double subtract(Token operator, Object left, double right) {
+        return number(operator, left) - right;
+    }
+
+    static double multiply(Token operator, Object left, Object right) {
+        return number(operator, left) * number(operator, right);
+    }
+
+    static double multiply(Token operator, Object left, double right) {
+        return number(operator, left) * right;
+    }
+
+    static double divide(Token operator, Object left, Object right) {
+        return number(operator, left) / number(operator, right);
+    }
+
+    static double divide(Token operator, Object left, double right) {
+        return number(operator, left) / right;
+    }
+
+    static boolean less(Token operator, Object left, Object right) {
+        return number(operator, left) < number(operator, right);
+    }
+
+    static boolean less(Token operator, Object left, double right) {
+        return number(operator, left) < right;
+    }
+
+    static boolean lessEqual(Token operator, Object left, Object right) {
+        return number(operator, left) <= number(operator, right);
+    }
+
+    static boolean lessEqual(Token operator, Object left, double right) {
+        return number(operator, left) <= right;
+    }
+
+    static boolean greater(Token operator, Object left, Object right) {
+        return number(operator, left) > number(operator, right);
+    }
+
+    static boolean greater(Token operator, Object left, double right) {
+        return number(operator, left) > right;
+    }
+
+    static boolean greaterEqual(Token operator, Object left, Object right) {
+        return number(operator, left) >= number(operator, right);
+    }
+
+    static boolean greaterEqual(Token operator, Object left, double right) {
+        return number(operator, left) >= right;
+    }
+
+    static Object assign(Environment globals, Token name, int slot, Object value) {
+        globals.assign(name, slot, value);
+        return value;
+    }
+
+    // The instance whose property is read or whose method is called.
+    static LoxInstance propertiesOf(Token name, Object object) {
+        if (object instanceof LoxInstance instance) return instance;
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    // The instance a field is set on, checked before the value is evaluated.
+    static LoxInstance fieldsOf(Token name, Object object) {
+        if (object instanceof LoxInstance instance) return instance;
+        throw new RuntimeError(name, "Only instances have fields.");
+    }
+
+    static Object get(InlineCache cache, Token name, Object object) {
+        return cache.get(propertiesOf(name, object), name);
+    }
+
+    static Object set(InlineCache cache, Token name, LoxInstance instance, Object value) {
+        cache.set(instance, name, value);
+        return value;
+    }
+
+    // The callee is checked after the arguments are evaluated, as in the interpreter.
+
+    static Object call0(Interpreter interpreter, Token paren, Object callee) {
+        return Interpreter.checkCallable(paren, callee, 0).call0(interpreter);
+    }
+
+    static Object call1(Interpreter interpreter, Token paren, Object callee, Object a) {
+        return Interpreter.checkCallable(paren, callee, 1).call1(interpreter, a);
+    }
+
+    static Object call2(Interpreter interpreter, Token paren, Object callee, Object a, Object b) {
+        return Interpreter.checkCallable(paren, callee, 2).call2(interpreter, a, b);
+    }
+
+    static Object call3(Interpreter interpreter, Token paren, Object callee, Object a, Object b, Object c) {
+        return Interpreter.checkCallable(paren, callee, 3).call3(interpreter, a, b, c);
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object[] arguments) {
+        return switch (arguments.length) {
+            case 0 -> call0(interpreter, paren, callee);
+            case 1 -> call1(interpreter, paren, callee, arguments[0]);
+            case 2 -> call2(interpreter, paren, callee, arguments[0], arguments[1]);
+            case 3 -> call3(interpreter, paren, callee, arguments[0], arguments[1], arguments[2]);
+            default -> Interpreter.checkCallable(paren, callee, arguments.length).call(interpreter, arguments);
+        };
+    }
+
+    /**
+     * Calls a method on an instance, with the instance as 'this', without binding it. The
+     * method and, when the property isn't one, the property's value were looked up before
+     * the arguments were evaluated.
+     */
+    static Object invoke(Interpreter interpreter, Token paren, LoxInstance receiver, LoxFunction method,
+                         Object property, Object[] arguments) {
+        if (method == null) return call(interpreter, paren, property, arguments);
+        return method.execute(interpreter, frame(paren, method, receiver, arguments), receiver);
+    }
+
+    // A call in tail position to a Lox function leaves it to the calling LoxFunction to run in a loop.
+    static Completion tailCall(Interpreter interpreter, Token paren, Object callee, Object[] arguments) {
+        if (callee instanceof LoxFunction function) {
+            LoxInstance receiver = function.getReceiver();
+            return interpreter.prepareTailCall(function, frame(paren, function, receiver, arguments), receiver);
+        }
+        return interpreter.returnWith(call(interpreter, paren, callee, arguments));
+    }
+
+    static Completion tailInvoke(Interpreter interpreter, Token paren, LoxInstance receiver, LoxFunction method,
+                                 Object property, Object[] arguments) {
+        if (method == null) return interpreter.returnWith(call(interpreter, paren, property, arguments));
+        return interpreter.prepareTailCall(method, frame(paren, method, receiver, arguments), receiver);
+    }
+
+    private static Object[] frame(Token paren, LoxFunction function, LoxInstance receiver, Object[] arguments) {
+        Interpreter.checkArity(paren, function, arguments.length);
+        Object[] frame = function.newFrame(receiver);
+        System.arraycopy(arguments, 0, frame, function.parameterOffset(), arguments.length);
+        return frame;
+    }
+}
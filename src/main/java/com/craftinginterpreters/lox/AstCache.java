@@ -0,0 +1,149 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the resolved and optimized statements of a script in a {@code .loxc} file next to it,
+ * so running the script again skips scanning, parsing, inlining, hoisting, resolving and
+ * optimizing it.
+ * <p>
+ * The file starts with a header: the magic number, the format version, the SHA-256 hash of the
+ * script's source, the inline threshold the statements were inlined with, and the length and
+ * CRC-32 checksum of the rest. The rest is written by the {@link AstWriter}: a table of strings,
+ * a table of the tokens the tree refers to, and then the tree. A file whose header doesn't
+ * match the script is stale and one whose checksum doesn't match is corrupt; either way the
+ * script is compiled again and the file rewritten.
+ * <p>
+ * The file is mapped into memory to be read. It is replaced by renaming a new file over it,
+ * so a script started while the cache is written reads either the old file or the new one.
+ */
+public class AstCache {
+
+    static final String EXTENSION = ".loxc";
+
+    private static final int MAGIC = 0x4C4F5843;
+    // Changes whenever the format, or what the passes before it produce, changes.
+    private static final int VERSION = 1;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 4 + 4 + HASH_LENGTH + 4 + 4 + 4;
+
+    private final Environment globals;
+    private final int inlineThreshold;
+
+    public AstCache(Environment globals, int inlineThreshold) {
+        this.globals = globals;
+        this.inlineThreshold = inlineThreshold;
+    }
+
+    // The cache file of a script: script.lox is cached in script.loxc.
+    public static Path cacheFile(Path script) {
+        String name = script.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - ".lox".length());
+        return script.resolveSibling(name + EXTENSION);
+    }
+
+    /**
+     * Reads the statements of the script with the given source from its cache file, interning
+     * the globals they use. Returns null if there is no cache file, or it is stale or corrupt.
+     */
+    public List<Stmt> load(Path file, byte[] source) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer payload = payload(buffer, hash(source));
+            if (payload == null) return null;
+
+            return new AstReader(payload, globals).read();
+        } catch (IOException | RuntimeException e) {
+            // A missing or unreadable file is as good as a corrupt one: the script is compiled again.
+            return null;
+        }
+    }
+
+    // The part of the file after the header, if the header matches the source and the checksum matches it.
+    private ByteBuffer payload(ByteBuffer buffer, byte[] hash) {
+        if (buffer.remaining() < HEADER_LENGTH) return null;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+
+        byte[] cachedHash = new byte[HASH_LENGTH];
+        buffer.get(cachedHash);
+        if (!Arrays.equals(cachedHash, hash) || buffer.getInt() != inlineThreshold) return null;
+
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length != buffer.remaining()) return null;
+
+        ByteBuffer payload = buffer.slice();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) return null;
+        return payload;
+    }
+
+    /**
+     * Writes the statements of the script with the given source to its cache file. A cache
+     * that can't be written, say in a directory that is read only, is only a missed speedup,
+     * so failing to write it isn't an error.
+     */
+    public void store(Path file, byte[] source, List<Stmt> statements) {
+        Path temporary = null;
+        try {
+            byte[] payload = new AstWriter(globals).write(statements);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_LENGTH + payload.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(hash(source));
+            out.writeInt(inlineThreshold);
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+
+            temporary = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+            Files.write(temporary, bytes.toByteArray(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(temporary);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Left behind, to be cleaned up with the directory.
+        }
+    }
+
+    private static byte[] hash(byte[] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
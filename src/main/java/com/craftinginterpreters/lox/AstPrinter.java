@@ -1,15 +1,34 @@
 package com.craftinginterpreters.lox;
 
 
-public class AstPrinter implements Expr.Visitor<String> {
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Prints the AST as nested, Lisp-like lists, one top-level statement per line.
+ * Missing parts of a statement, such as the clauses of a for loop, are printed as '_'.
+ */
+public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
     public String print(Expr expr){
         return expr.accept(this);
     }
 
+    public String print(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    public String print(List<Stmt> statements){
+        StringJoiner joiner = new StringJoiner("\n");
+        for (Stmt statement : statements) {
+            joiner.add(print(statement));
+        }
+        return joiner.toString();
+    }
+
     @Override
     public String visitAssignExpr(Expr.Assign expr) {
-        return null;
+        return parenthesize("=", expr.name.lexeme(), expr.value);
     }
 
     @Override
@@ -19,12 +38,12 @@ public class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitCallExpr(Expr.Call expr) {
-        return null;
+        return parenthesize("call", expr.callee, expr.arguments);
     }
 
     @Override
     public String visitGetExpr(Expr.Get expr) {
-        return null;
+        return parenthesize(".", expr.object, expr.name.lexeme());
     }
 
     @Override
@@ -32,6 +51,21 @@ public class AstPrinter implements Expr.Visitor<String> {
         return parenthesize("group", expr.expression);
     }
 
+    // The parameters are printed with the arguments they are bound to.
+    @Override
+    public String visitInlineExpr(Expr.Inline expr) {
+        StringJoiner bindings = new StringJoiner(" ", "(", ")");
+        for (int i = 0; i < expr.params.size(); i++) {
+            bindings.add(parenthesize(expr.params.get(i).lexeme(), expr.call.arguments.get(i)));
+        }
+        return parenthesize("inline " + expr.function.name.lexeme(), bindings.toString(), expr.body);
+    }
+
+    @Override
+    public String visitInvariantExpr(Expr.Invariant expr) {
+        return parenthesize("invariant " + expr.name.lexeme(), expr.expression);
+    }
+
     @Override
     public String visitLiteralExpr(Expr.Literal expr) {
         if (expr.value == null)
@@ -42,22 +76,22 @@ public class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitLogicalExpr(Expr.Logical expr) {
-        return null;
+        return parenthesize(expr.operator.lexeme(), expr.left, expr.right);
     }
 
     @Override
     public String visitSetExpr(Expr.Set expr) {
-        return null;
+        return parenthesize("=", parenthesize(".", expr.object, expr.name.lexeme()), expr.value);
     }
 
     @Override
     public String visitSuperExpr(Expr.Super expr) {
-        return null;
+        return parenthesize("super", expr.method.lexeme());
     }
 
     @Override
     public String visitThisExpr(Expr.This expr) {
-        return null;
+        return "this";
     }
 
     @Override
@@ -67,18 +101,93 @@ public class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitVariableExpr(Expr.Variable expr) {
-        return null;
+        return expr.name.lexeme();
+    }
+
+    @Override
+    public String visitBlockStmt(Stmt.Block stmt) {
+        return parenthesize("block", stmt.statements);
+    }
+
+    @Override
+    public String visitClassStmt(Stmt.Class stmt) {
+        String name = stmt.superClass != null
+                ? stmt.name.lexeme() + " < " + stmt.superClass.name.lexeme()
+                : stmt.name.lexeme();
+        return parenthesize("class " + name, stmt.methods);
+    }
+
+    @Override
+    public String visitExpressionStmt(Stmt.Expression stmt) {
+        return parenthesize(";", stmt.expression);
+    }
+
+    @Override
+    public String visitForStmt(Stmt.For stmt) {
+        return parenthesize("for", stmt.initializer, stmt.condition, stmt.increment, stmt.body);
+    }
+
+    @Override
+    public String visitFunctionStmt(Stmt.Function stmt) {
+        StringJoiner params = new StringJoiner(" ", "(", ")");
+        for (Token param : stmt.params) {
+            params.add(param.lexeme());
+        }
+        return parenthesize("fun " + stmt.name.lexeme(), params.toString(), stmt.body);
+    }
+
+    @Override
+    public String visitIfStmt(Stmt.If stmt) {
+        if (stmt.elseBranch == null) {
+            return parenthesize("if", stmt.condition, stmt.thenBranch);
+        }
+        return parenthesize("if", stmt.condition, stmt.thenBranch, stmt.elseBranch);
+    }
+
+    @Override
+    public String visitPrintStmt(Stmt.Print stmt) {
+        return parenthesize("print", stmt.expression);
+    }
+
+    @Override
+    public String visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return "(return)";
+        return parenthesize("return", stmt.value);
+    }
+
+    @Override
+    public String visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return parenthesize("var", stmt.name.lexeme());
+        return parenthesize("var", stmt.name.lexeme(), stmt.initializer);
+    }
+
+    @Override
+    public String visitWhileStmt(Stmt.While stmt) {
+        return parenthesize("while", stmt.condition, stmt.body);
     }
 
-    private String parenthesize(String name, Expr... expressions) {
+    // The parts can be expressions, statements, lists of them, or text.
+    private String parenthesize(String name, Object... parts) {
 
         StringBuilder builder = new StringBuilder();
         builder.append("(").append(name);
-        for (Expr expr : expressions) {
-            builder.append(" ");
-            builder.append(expr.accept(this));
+        for (Object part : parts) {
+            if (part instanceof List<?> list) {
+                for (Object element : list) {
+                    builder.append(" ").append(text(element));
+                }
+            } else {
+                builder.append(" ").append(text(part));
+            }
         }
         builder.append(")");
         return builder.toString();
     }
+
+    private String text(Object part) {
+        if (part == null) return "_";
+        if (part instanceof Expr expr) return expr.accept(this);
+        if (part instanceof Stmt stmt) return stmt.accept(this);
+        return part.toString();
+    }
 }
@@ -0,0 +1,298 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.AstWriter.*;
+
+/**
+ * Reads statements written by the {@link AstWriter} back into a tree, with the slots the
+ * Resolver gave them. Globals are interned into the given table as they are read.
+ * <p>
+ * The buffer is read in place, and anything it holds that doesn't make sense, a tag or an
+ * index out of range, throws a RuntimeException, for the {@link AstCache} to treat as corrupt.
+ */
+final class AstReader {
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final ByteBuffer buffer;
+    private final Environment globals;
+    private String[] strings;
+    private Token[] tokens;
+
+    AstReader(ByteBuffer buffer, Environment globals) {
+        this.buffer = buffer;
+        this.globals = globals;
+    }
+
+    List<Stmt> read() {
+        strings = new String[count()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] utf8 = new byte[count()];
+            buffer.get(utf8);
+            strings[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        tokens = new Token[count()];
+        for (int i = 0; i < tokens.length; i++) {
+            TokenType type = TOKEN_TYPES[integer()];
+            String lexeme = strings[integer()];
+            tokens[i] = new Token(type, lexeme, value(), integer());
+        }
+
+        List<Stmt> statements = statements();
+        if (buffer.hasRemaining()) throw new IllegalStateException("Trailing bytes after the statements.");
+        return statements;
+    }
+
+    private int integer() {
+        int bits = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buffer.get();
+            bits |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return (bits >>> 1) ^ -(bits & 1);
+        }
+        throw new IllegalStateException("Malformed integer.");
+    }
+
+    // A size, which a corrupt file could make negative or larger than what is left to read.
+    // Each element takes a byte at least, and an array's size is one more than its length.
+    private int count() {
+        int count = integer();
+        if (count < 0 || count > buffer.remaining() + 1) throw new BufferUnderflowException();
+        return count;
+    }
+
+    private boolean bool() {
+        return buffer.get() != 0;
+    }
+
+    private Token token() {
+        return tokens[integer()];
+    }
+
+    private List<Token> tokenList() {
+        int count = count();
+        List<Token> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(token());
+        }
+        return list;
+    }
+
+    // Arrays are read with their length plus one, zero being null.
+    private int[] integers() {
+        int length = count() - 1;
+        if (length < 0) return null;
+
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = integer();
+        }
+        return values;
+    }
+
+    private boolean[] booleans() {
+        int length = count() - 1;
+        if (length < 0) return null;
+
+        boolean[] values = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = bool();
+        }
+        return values;
+    }
+
+    private Object value() {
+        return switch (buffer.get()) {
+            case NIL -> null;
+            case TRUE -> true;
+            case FALSE -> false;
+            case NUMBER -> buffer.getDouble();
+            case STRING -> strings[integer()];
+            default -> throw new IllegalStateException("Unknown value.");
+        };
+    }
+
+    private interface Placement {
+        void place(int kind, int slot);
+    }
+
+    // Reads where a variable lives, interning a global by its name.
+    private void variable(Placement placement) {
+        int kind = buffer.get() + Resolver.GLOBAL;
+        int slot = integer();
+        placement.place(kind, kind == Resolver.GLOBAL ? globals.slotOf(strings[slot]) : slot);
+    }
+
+    private Expr expression() {
+        int tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case ASSIGN: {
+                Expr.Assign expr = new Expr.Assign(token(), expression());
+                variable((kind, slot) -> {
+                    expr.kind = kind;
+                    expr.slot = slot;
+                });
+                return expr;
+            }
+            case BINARY:
+                return new Expr.Binary(expression(), token(), expression());
+            case CALL:
+                return new Expr.Call(expression(), token(), expressions());
+            case GET:
+                return new Expr.Get(expression(), token());
+            case GROUPING:
+                return new Expr.Grouping(expression());
+            case INLINE: {
+                Expr.Call call = (Expr.Call) expression();
+                // The declaration the call was inlined from is only kept to recognize the callee by.
+                Stmt.Function function = new Stmt.Function(token(), tokenList(), List.of());
+                Expr.Inline expr = new Expr.Inline(call, function, tokenList(), statements());
+                expr.slots = integers();
+                return expr;
+            }
+            case INVARIANT: {
+                Expr.Invariant expr = new Expr.Invariant(token(), expression());
+                variable((kind, slot) -> {
+                    expr.kind = kind;
+                    expr.slot = slot;
+                });
+                return expr;
+            }
+            case LITERAL:
+                return new Expr.Literal(value());
+            case LOGICAL:
+                return new Expr.Logical(expression(), token(), expression());
+            case SET:
+                return new Expr.Set(expression(), token(), expression());
+            case SUPER: {
+                Expr.Super expr = new Expr.Super(token(), token());
+                variable((kind, slot) -> {
+                    expr.kind = kind;
+                    expr.slot = slot;
+                });
+                variable((kind, slot) -> {
+                    expr.thisKind = kind;
+                    expr.thisSlot = slot;
+                });
+                return expr;
+            }
+            case THIS: {
+                Expr.This expr = new Expr.This(token());
+                variable((kind, slot) -> {
+                    expr.kind = kind;
+                    expr.slot = slot;
+                });
+                return expr;
+            }
+            case UNARY:
+                return new Expr.Unary(token(), expression());
+            case VARIABLE: {
+                Expr.Variable expr = new Expr.Variable(token());
+                variable((kind, slot) -> {
+                    expr.kind = kind;
+                    expr.slot = slot;
+                });
+                return expr;
+            }
+            default:
+                throw new IllegalStateException("Unknown expression " + tag + ".");
+        }
+    }
+
+    private List<Expr> expressions() {
+        int count = count();
+        List<Expr> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(expression());
+        }
+        return list;
+    }
+
+    private Stmt statement() {
+        int tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BLOCK:
+                return new Stmt.Block(statements());
+            case CLASS: {
+                Token name = token();
+                Expr.Variable superClass = (Expr.Variable) expression();
+                int count = count();
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    if (buffer.get() != FUNCTION) throw new IllegalStateException("Expected a method.");
+                    methods.add(function());
+                }
+
+                Stmt.Class stmt = new Stmt.Class(name, superClass, methods);
+                variable((kind, slot) -> {
+                    stmt.kind = kind;
+                    stmt.slot = slot;
+                });
+                variable((kind, slot) -> {
+                    stmt.superKind = kind;
+                    stmt.superSlot = slot;
+                });
+                return stmt;
+            }
+            case EXPRESSION:
+                return new Stmt.Expression(expression());
+            case FOR:
+                return new Stmt.For(statement(), expression(), expression(), statement());
+            case FUNCTION:
+                return function();
+            case IF:
+                return new Stmt.If(expression(), statement(), statement());
+            case PRINT:
+                return new Stmt.Print(expression());
+            case RETURN: {
+                Stmt.Return stmt = new Stmt.Return(token(), expression());
+                stmt.tailCall = bool();
+                return stmt;
+            }
+            case VAR: {
+                Stmt.Var stmt = new Stmt.Var(token(), expression());
+                variable((kind, slot) -> {
+                    stmt.kind = kind;
+                    stmt.slot = slot;
+                });
+                return stmt;
+            }
+            case WHILE:
+                return new Stmt.While(expression(), statement());
+            default:
+                throw new IllegalStateException("Unknown statement " + tag + ".");
+        }
+    }
+
+    private List<Stmt> statements() {
+        int count = count();
+        List<Stmt> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(statement());
+        }
+        return list;
+    }
+
+    private Stmt.Function function() {
+        Stmt.Function function = new Stmt.Function(token(), tokenList(), statements());
+        variable((kind, slot) -> {
+            function.kind = kind;
+            function.slot = slot;
+        });
+        function.frameSize = integer();
+        function.capturedParameters = integers();
+        function.upvalueIndexes = integers();
+        function.upvalueIsLocal = booleans();
+        return function;
+    }
+}
@@ -0,0 +1,460 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes resolved statements in the compact binary form of the {@link AstCache}, which the
+ * {@link AstReader} reads back.
+ * <p>
+ * Each node is a tag followed by its fields, in the order of its constructor and then the
+ * fields the Resolver filled in. Integers are written as variable-length zigzag integers, so
+ * the slots, lines and sizes that make up most of the tree take a byte each. Strings and
+ * tokens are written once, to tables that the tree refers to by index. Tokens keep their
+ * identity that way, which is all an inlined call needs of the declaration it was inlined
+ * from: it recognizes its callee by the declaration's name token. So only that token and the
+ * parameters are written for it, and not the declaration's body a second time.
+ * <p>
+ * A global's slot depends on the order the Resolver met the globals in, so globals are written
+ * by name, and interned again when they are read.
+ */
+final class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    static final int NULL = 0;
+
+    static final int ASSIGN = 1;
+    static final int BINARY = 2;
+    static final int CALL = 3;
+    static final int GET = 4;
+    static final int GROUPING = 5;
+    static final int INLINE = 6;
+    static final int INVARIANT = 7;
+    static final int LITERAL = 8;
+    static final int LOGICAL = 9;
+    static final int SET = 10;
+    static final int SUPER = 11;
+    static final int THIS = 12;
+    static final int UNARY = 13;
+    static final int VARIABLE = 14;
+
+    static final int BLOCK = 32;
+    static final int CLASS = 33;
+    static final int EXPRESSION = 34;
+    static final int FOR = 35;
+    static final int FUNCTION = 36;
+    static final int IF = 37;
+    static final int PRINT = 38;
+    static final int RETURN = 39;
+    static final int VAR = 40;
+    static final int WHILE = 41;
+
+    // The values of literals and tokens.
+    static final int NIL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+
+    private final String[] globalNames;
+    private final ByteArrayOutputStream tree = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(tree);
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+    private final List<Token> tokens = new ArrayList<>();
+    private final Map<Token, Integer> tokenIndexes = new IdentityHashMap<>();
+
+    AstWriter(Environment globals) {
+        this.globalNames = globals.names();
+    }
+
+    byte[] write(List<Stmt> statements) {
+        statements(statements);
+
+        // The tables come first, and the tokens' strings are interned as the tokens are.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream tables = new DataOutputStream(bytes)) {
+            writeInt(tables, strings.size());
+            for (String string : strings) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                writeInt(tables, utf8.length);
+                tables.write(utf8);
+            }
+
+            writeInt(tables, tokens.size());
+            for (Token token : tokens) {
+                writeInt(tables, token.type().ordinal());
+                writeInt(tables, stringIndexes.get(token.lexeme()));
+                value(tables, token.literal());
+                writeInt(tables, token.line());
+            }
+
+            tree.writeTo(tables);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void expression(Expr expr) {
+        if (expr == null) {
+            tag(NULL);
+            return;
+        }
+        expr.accept(this);
+    }
+
+    private void expressions(List<Expr> expressions) {
+        integer(expressions.size());
+        for (Expr expression : expressions) {
+            expression(expression);
+        }
+    }
+
+    private void statement(Stmt stmt) {
+        if (stmt == null) {
+            tag(NULL);
+            return;
+        }
+        stmt.accept(this);
+    }
+
+    private void statements(List<Stmt> statements) {
+        integer(statements.size());
+        for (Stmt statement : statements) {
+            statement(statement);
+        }
+    }
+
+    private void tag(int tag) {
+        try {
+            out.writeByte(tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void integer(int value) {
+        try {
+            writeInt(out, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void bool(boolean value) {
+        tag(value ? 1 : 0);
+    }
+
+    // Zigzag encoded, so that small negative numbers are small too, seven bits to a byte.
+    private static void writeInt(DataOutputStream out, int value) throws IOException {
+        int bits = (value << 1) ^ (value >> 31);
+        while ((bits & ~0x7F) != 0) {
+            out.writeByte((bits & 0x7F) | 0x80);
+            bits >>>= 7;
+        }
+        out.writeByte(bits);
+    }
+
+    // Arrays are written with their length plus one, which leaves zero for null.
+    private void integers(int[] values) {
+        if (values == null) {
+            integer(0);
+            return;
+        }
+        integer(values.length + 1);
+        for (int value : values) {
+            integer(value);
+        }
+    }
+
+    private void booleans(boolean[] values) {
+        if (values == null) {
+            integer(0);
+            return;
+        }
+        integer(values.length + 1);
+        for (boolean value : values) {
+            bool(value);
+        }
+    }
+
+    private int string(String string) {
+        Integer index = stringIndexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndexes.put(string, index);
+        }
+        return index;
+    }
+
+    private void token(Token token) {
+        Integer index = tokenIndexes.get(token);
+        if (index == null) {
+            index = tokens.size();
+            tokens.add(token);
+            tokenIndexes.put(token, index);
+            string(token.lexeme());
+            if (token.literal() instanceof String literal) string(literal);
+        }
+        integer(index);
+    }
+
+    private void tokenList(List<Token> tokens) {
+        integer(tokens.size());
+        for (Token token : tokens) {
+            token(token);
+        }
+    }
+
+    private void value(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NIL);
+        } else if (value instanceof Boolean bool) {
+            out.writeByte(bool ? TRUE : FALSE);
+        } else if (value instanceof Double number) {
+            out.writeByte(NUMBER);
+            out.writeDouble(number);
+        } else if (value instanceof String string) {
+            out.writeByte(STRING);
+            writeInt(out, string(string));
+        } else {
+            throw new IllegalArgumentException("Can't cache a literal of " + value.getClass());
+        }
+    }
+
+    // Where a variable lives. A global is written by name, local ones by slot.
+    private void variable(int kind, int slot) {
+        tag(kind - Resolver.GLOBAL);
+        integer(kind == Resolver.GLOBAL ? string(globalNames[slot]) : slot);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        tag(ASSIGN);
+        token(expr.name);
+        expression(expr.value);
+        variable(expr.kind, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        tag(BINARY);
+        expression(expr.left);
+        token(expr.operator);
+        expression(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        tag(CALL);
+        expression(expr.callee);
+        token(expr.paren);
+        expressions(expr.arguments);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        tag(GET);
+        expression(expr.object);
+        token(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        tag(GROUPING);
+        expression(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        tag(INLINE);
+        expression(expr.call);
+        token(expr.function.name);
+        tokenList(expr.function.params);
+        tokenList(expr.params);
+        statements(expr.body);
+        integers(expr.slots);
+        return null;
+    }
+
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        tag(INVARIANT);
+        token(expr.name);
+        expression(expr.expression);
+        variable(expr.kind, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        tag(LITERAL);
+        try {
+            value(out, expr.value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        tag(LOGICAL);
+        expression(expr.left);
+        token(expr.operator);
+        expression(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        tag(SET);
+        expression(expr.object);
+        token(expr.name);
+        expression(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        tag(SUPER);
+        token(expr.keyword);
+        token(expr.method);
+        variable(expr.kind, expr.slot);
+        variable(expr.thisKind, expr.thisSlot);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        tag(THIS);
+        token(expr.keyword);
+        variable(expr.kind, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        tag(UNARY);
+        token(expr.operator);
+        expression(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        tag(VARIABLE);
+        token(expr.name);
+        variable(expr.kind, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        tag(BLOCK);
+        statements(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        tag(CLASS);
+        token(stmt.name);
+        expression(stmt.superClass);
+        integer(stmt.methods.size());
+        for (Stmt.Function method : stmt.methods) {
+            visitFunctionStmt(method);
+        }
+        variable(stmt.kind, stmt.slot);
+        variable(stmt.superKind, stmt.superSlot);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        tag(EXPRESSION);
+        expression(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        tag(FOR);
+        statement(stmt.initializer);
+        expression(stmt.condition);
+        expression(stmt.increment);
+        statement(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        tag(FUNCTION);
+        token(stmt.name);
+        tokenList(stmt.params);
+        statements(stmt.body);
+        variable(stmt.kind, stmt.slot);
+        integer(stmt.frameSize);
+        integers(stmt.capturedParameters);
+        integers(stmt.upvalueIndexes);
+        booleans(stmt.upvalueIsLocal);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        tag(IF);
+        expression(stmt.condition);
+        statement(stmt.thenBranch);
+        statement(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        tag(PRINT);
+        expression(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        tag(RETURN);
+        token(stmt.keyword);
+        expression(stmt.value);
+        bool(stmt.tailCall);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        tag(VAR);
+        token(stmt.name);
+        expression(stmt.initializer);
+        variable(stmt.kind, stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        tag(WHILE);
+        expression(stmt.condition);
+        statement(stmt.body);
+        return null;
+    }
+}
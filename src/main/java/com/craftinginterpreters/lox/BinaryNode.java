@@ -0,0 +1,187 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * An arithmetic or comparison operator in compiled code that specializes itself to the
+ * types of the operands it sees.
+ * <p>
+ * A site starts out uninitialized. The first time it runs, it rewrites itself to the
+ * specialization for the types of its operands, such as {@link NumberAdd} when both are numbers
+ * or {@link StringConcat} when both are strings, which only checks that the operands still have
+ * those types. On a miss it rewrites itself to the {@link Generic} operation, which handles every
+ * type as the interpreter does, and stays generic from then on. A '+' site that only ever sees
+ * strings doesn't test for numbers first, and a site that sees both stops guessing.
+ * <p>
+ * The parent nodes were linked to this one when they were compiled, so the site stays in place
+ * and swaps its specialization instead. Each site counts its rewrites, for debugging.
+ */
+final class BinaryNode implements Node {
+
+    private final Token operator;
+    private final Node left;
+    private final Node right;
+    private Specialization specialization = UNINITIALIZED;
+    private int rewrites;
+
+    BinaryNode(Token operator, Node left, Node right) {
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public Object execute(Frame frame) {
+        // Both operands are evaluated before either one is checked, as in the interpreter.
+        Object a = left.execute(frame);
+        Object b = right.execute(frame);
+        return specialization.apply(this, a, b);
+    }
+
+    // Describes the site and what it specialized to, such as "[line 3] + NumberAdd (1 rewrite)".
+    String describe() {
+        return "[line " + operator.line() + "] " + operator.lexeme() + " " + specialization.getClass().getSimpleName()
+                + " (" + rewrites + (rewrites == 1 ? " rewrite)" : " rewrites)");
+    }
+
+    private Object rewrite(Specialization next, Object a, Object b) {
+        specialization = next;
+        rewrites++;
+        return next.apply(this, a, b);
+    }
+
+    // Picks the specialization for the operand types of the first execution.
+    private Specialization specialize(Object a, Object b) {
+        if (a instanceof Double && b instanceof Double) {
+            return switch (operator.type()) {
+                case PLUS -> NUMBER_ADD;
+                case MINUS -> NUMBER_SUBTRACT;
+                case STAR -> NUMBER_MULTIPLY;
+                case SLASH -> NUMBER_DIVIDE;
+                case LESS -> NUMBER_LESS;
+                case LESS_EQUAL -> NUMBER_LESS_EQUAL;
+                case GREATER -> NUMBER_GREATER;
+                default -> NUMBER_GREATER_EQUAL;
+            };
+        }
+        if (a instanceof String && b instanceof String && operator.type() == TokenType.PLUS) {
+            return STRING_CONCAT;
+        }
+        return GENERIC;
+    }
+
+    private abstract static class Specialization {
+        abstract Object apply(BinaryNode site, Object a, Object b);
+    }
+
+    private static final Specialization UNINITIALIZED = new Uninitialized();
+    private static final Specialization NUMBER_ADD = new NumberAdd();
+    private static final Specialization NUMBER_SUBTRACT = new NumberSubtract();
+    private static final Specialization NUMBER_MULTIPLY = new NumberMultiply();
+    private static final Specialization NUMBER_DIVIDE = new NumberDivide();
+    private static final Specialization NUMBER_LESS = new NumberLess();
+    private static final Specialization NUMBER_LESS_EQUAL = new NumberLessEqual();
+    private static final Specialization NUMBER_GREATER = new NumberGreater();
+    private static final Specialization NUMBER_GREATER_EQUAL = new NumberGreaterEqual();
+    private static final Specialization STRING_CONCAT = new StringConcat();
+    private static final Specialization GENERIC = new Generic();
+
+    private static final class Uninitialized extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            return site.rewrite(site.specialize(a, b), a, b);
+        }
+    }
+
+    private static final class NumberAdd extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            if (a instanceof Double x && b instanceof Double y) return x + y;
+            return site.rewrite(GENERIC, a, b);
+        }
+    }
+
+    private static final class NumberSubtract extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            if (a instanceof Double x && b instanceof Double y) return x - y;
+            return site.rewrite(GENERIC, a, b);
+        }
+    }
+
+    private static final class NumberMultiply extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            if (a instanceof Double x && b instanceof Double y) return x * y;
+            return site.rewrite(GENERIC, a, b);
+        }
+    }
+
+    private static final class NumberDivide extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            if (a instanceof Double x && b instanceof Double y) return x / y;
+            return site.rewrite(GENERIC, a, b);
+        }
+    }
+
+    private static final class NumberLess extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            if (a instanceof Double x && b instanceof Double y) return x < y;
+            return site.rewrite(GENERIC, a, b);
+        }
+    }
+
+    private static final class NumberLessEqual extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            if (a instanceof Double x && b instanceof Double y) return x <= y;
+            return site.rewrite(GENERIC, a, b);
+        }
+    }
+
+    private static final class NumberGreater extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            if (a instanceof Double x && b instanceof Double y) return x > y;
+            return site.rewrite(GENERIC, a, b);
+        }
+    }
+
+    private static final class NumberGreaterEqual extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            if (a instanceof Double x && b instanceof Double y) return x >= y;
+            return site.rewrite(GENERIC, a, b);
+        }
+    }
+
+    private static final class StringConcat extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            if (a instanceof String x && b instanceof String y) return x + y;
+            return site.rewrite(GENERIC, a, b);
+        }
+    }
+
+    // Every operand type, with the interpreter's errors for the ones an operator doesn't take.
+    private static final class Generic extends Specialization {
+        @Override
+        Object apply(BinaryNode site, Object a, Object b) {
+            Token operator = site.operator;
+            if (operator.type() == TokenType.PLUS) return Interpreter.handlePlus(operator, a, b);
+
+            if (!(a instanceof Double x && b instanceof Double y)) {
+                throw new RuntimeError(operator, "Operands must be numbers");
+            }
+            return switch (operator.type()) {
+                case MINUS -> x - y;
+                case STAR -> x * y;
+                case SLASH -> x / y;
+                case LESS -> x < y;
+                case LESS_EQUAL -> x <= y;
+                case GREATER -> x > y;
+                default -> x >= y;
+            };
+        }
+    }
+}
@@ -0,0 +1,654 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.lox.vm.Chunk;
+import com.craftinginterpreters.lox.vm.ObjFunction;
+import com.craftinginterpreters.lox.vm.OpCode;
+import com.craftinginterpreters.lox.vm.VM;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles a resolved list of statements into bytecode for the VM.
+ * <p>
+ * The compiler runs after the Resolver so all static errors have already been reported.
+ * It keeps its own record of the locals in each function because the VM addresses locals
+ * by their slot on the stack rather than by walking environments.
+ * Locals that are captured by a closure are turned into upvalues, which are closed over
+ * when the variable goes out of scope.
+ * Globals are addressed by the slot the VM gives their name, so the compiled code only
+ * runs on that VM.
+ */
+public class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_CONSTANTS = 65536;
+    private static final int MAX_JUMP = 65535;
+    private static final int MAX_GLOBALS = 65536;
+
+    private final VM vm;
+    private FunctionCompiler current;
+    private ClassCompiler currentClass;
+    private int line;
+
+    private static class Local {
+        final String name;
+        int depth;
+        boolean isCaptured;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private record Upvalue(int index, boolean isLocal) {
+    }
+
+    private static class FunctionCompiler {
+        final FunctionCompiler enclosing;
+        final ObjFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth;
+
+        FunctionCompiler(FunctionCompiler enclosing, ObjFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            // Slot zero holds the function being called, or the receiver in methods.
+            String name = type == FunctionType.METHOD || type == FunctionType.INITIALIZER ? "this" : "";
+            locals.add(new Local(name, 0));
+        }
+    }
+
+    private static class ClassCompiler {
+        final ClassCompiler enclosing;
+        final boolean hasSuperclass;
+
+        ClassCompiler(ClassCompiler enclosing, boolean hasSuperclass) {
+            this.enclosing = enclosing;
+            this.hasSuperclass = hasSuperclass;
+        }
+    }
+
+    public BytecodeCompiler(VM vm) {
+        this.vm = vm;
+    }
+
+    public ObjFunction compile(List<Stmt> statements) {
+        current = new FunctionCompiler(null, new ObjFunction(null), FunctionType.NONE);
+        line = 1;
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emitReturn();
+        return current.function;
+    }
+
+    private void compile(Stmt statement) {
+        statement.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line();
+        setVariable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line();
+
+        switch (expr.operator.type()) {
+            case GREATER -> emit(OpCode.GREATER);
+            case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL);
+            case LESS -> emit(OpCode.LESS);
+            case LESS_EQUAL -> emit(OpCode.LESS_EQUAL);
+            case MINUS -> emit(OpCode.SUBTRACT);
+            case PLUS -> emit(OpCode.ADD);
+            case SLASH -> emit(OpCode.DIVIDE);
+            case STAR -> emit(OpCode.MULTIPLY);
+            case BANG_EQUAL -> emit(OpCode.NOT_EQUAL);
+            case EQUAL_EQUAL -> emit(OpCode.EQUAL);
+            default -> {
+                emit(OpCode.POP);
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    // The VM makes the call as it was written. Only the tree-walking interpreter runs inlined bodies.
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        return expr.call.accept(this);
+    }
+
+    // The VM evaluates hoisted expressions where they are.
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get get) {
+            // Invoking a method directly avoids creating a bound method.
+            compile(get.object);
+            compileArguments(expr.arguments);
+            line = expr.paren.line();
+            emitWithConstant(OpCode.INVOKE, get.name.lexeme());
+            emit(expr.arguments.size());
+            return null;
+        }
+
+        if (expr.callee instanceof Expr.Super superExpr) {
+            line = superExpr.keyword.line();
+            getVariable(new Token(TokenType.THIS, "this", null, line));
+            compileArguments(expr.arguments);
+            getVariable(superExpr.keyword);
+            line = expr.paren.line();
+            emitWithConstant(OpCode.SUPER_INVOKE, superExpr.method.lexeme());
+            emit(expr.arguments.size());
+            return null;
+        }
+
+        compile(expr.callee);
+        compileArguments(expr.arguments);
+        line = expr.paren.line();
+        emit(OpCode.CALL);
+        emit(expr.arguments.size());
+        return null;
+    }
+
+    private void compileArguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line();
+        emitWithConstant(OpCode.GET_PROPERTY, expr.name.lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value instanceof Boolean bool) {
+            emit(bool ? OpCode.TRUE : OpCode.FALSE);
+        } else {
+            emitWithConstant(OpCode.CONSTANT, expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        if (expr.operator.type() == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line();
+        emitWithConstant(OpCode.SET_PROPERTY, expr.name.lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line();
+        getVariable(new Token(TokenType.THIS, "this", null, line));
+        getVariable(expr.keyword);
+        line = expr.method.line();
+        emitWithConstant(OpCode.GET_SUPER, expr.method.lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line();
+        getVariable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line();
+
+        switch (expr.operator.type()) {
+            case BANG -> emit(OpCode.NOT);
+            case MINUS -> emit(OpCode.NEGATE);
+            default -> {
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line();
+        getVariable(expr.name);
+        return null;
+    }
+
+    private void getVariable(Token name) {
+        int slot = resolveLocal(current, name);
+        if (slot != -1) {
+            emit(OpCode.GET_LOCAL);
+            emit(slot);
+            return;
+        }
+
+        int upvalue = resolveUpvalue(current, name);
+        if (upvalue != -1) {
+            emit(OpCode.GET_UPVALUE);
+            emit(upvalue);
+            return;
+        }
+
+        emitGlobal(OpCode.GET_GLOBAL, name);
+    }
+
+    private void setVariable(Token name) {
+        int slot = resolveLocal(current, name);
+        if (slot != -1) {
+            emit(OpCode.SET_LOCAL);
+            emit(slot);
+            return;
+        }
+
+        int upvalue = resolveUpvalue(current, name);
+        if (upvalue != -1) {
+            emit(OpCode.SET_UPVALUE);
+            emit(upvalue);
+            return;
+        }
+
+        emitGlobal(OpCode.SET_GLOBAL, name);
+    }
+
+    private int resolveLocal(FunctionCompiler compiler, Token name) {
+        for (int i = compiler.locals.size() - 1; i >= 0; i--) {
+            Local local = compiler.locals.get(i);
+            if (local.name.equals(name.lexeme())) {
+                if (local.depth == -1) {
+                    Lox.error(name, "Can't read local variable in its own initializer.");
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionCompiler compiler, Token name) {
+        if (compiler.enclosing == null) return -1;
+
+        int local = resolveLocal(compiler.enclosing, name);
+        if (local != -1) {
+            compiler.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(compiler, local, true);
+        }
+
+        int upvalue = resolveUpvalue(compiler.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(compiler, upvalue, false);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionCompiler compiler, int index, boolean isLocal) {
+        Upvalue upvalue = new Upvalue(index, isLocal);
+        int existing = compiler.upvalues.indexOf(upvalue);
+        if (existing != -1) return existing;
+
+        if (compiler.upvalues.size() == MAX_UPVALUES) {
+            Lox.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+        compiler.upvalues.add(upvalue);
+        compiler.function.upvalueCount = compiler.upvalues.size();
+        return compiler.upvalues.size() - 1;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line();
+        emitWithConstant(OpCode.CLASS, stmt.name.lexeme());
+        declareVariable(stmt.name);
+        defineVariable(stmt.name);
+
+        ClassCompiler classCompiler = new ClassCompiler(currentClass, stmt.superClass != null);
+        currentClass = classCompiler;
+
+        if (stmt.superClass != null) {
+            visitVariableExpr(stmt.superClass);
+
+            beginScope();
+            addLocal("super");
+            markInitialized();
+
+            getVariable(stmt.name);
+            line = stmt.superClass.name.line();
+            emit(OpCode.INHERIT);
+        }
+
+        getVariable(stmt.name);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme().equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            compileFunction(method, type);
+            line = method.name.line();
+            emitWithConstant(OpCode.METHOD, method.name.lexeme());
+        }
+        emit(OpCode.POP);
+
+        if (classCompiler.hasSuperclass) {
+            endScope();
+        }
+
+        currentClass = currentClass.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        beginScope();
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        }
+
+        int loopStart = chunk().count();
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emit(OpCode.POP);
+        }
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line();
+        declareVariable(stmt.name);
+        // A function can refer to itself, so it is initialized before its body is compiled.
+        markInitialized();
+        compileFunction(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    private void compileFunction(Stmt.Function stmt, FunctionType type) {
+        FunctionCompiler compiler = new FunctionCompiler(current, new ObjFunction(stmt.name.lexeme()), type);
+        current = compiler;
+        beginScope();
+
+        compiler.function.arity = stmt.params.size();
+        for (Token param : stmt.params) {
+            declareVariable(param);
+            markInitialized();
+        }
+
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+        emitReturn();
+
+        current = compiler.enclosing;
+
+        line = stmt.name.line();
+        emitWithConstant(OpCode.CLOSURE, compiler.function);
+        for (Upvalue upvalue : compiler.upvalues) {
+            emit(upvalue.isLocal() ? 1 : 0);
+            emit(upvalue.index());
+        }
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP);
+
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line();
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emit(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line();
+        declareVariable(stmt.name);
+
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL);
+        }
+
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().count();
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured) {
+                emit(OpCode.CLOSE_UPVALUE);
+            } else {
+                emit(OpCode.POP);
+            }
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    // Globals are late bound, so only locals are recorded by the compiler.
+    private void declareVariable(Token name) {
+        if (current.scopeDepth == 0) return;
+        addLocal(name.lexeme());
+    }
+
+    private void addLocal(String name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            Lox.error(line, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, -1));
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) return;
+        current.locals.get(current.locals.size() - 1).depth = current.scopeDepth;
+    }
+
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) {
+            markInitialized();
+            return;
+        }
+        emitGlobal(OpCode.DEFINE_GLOBAL, name);
+    }
+
+    private void emit(int value) {
+        chunk().write(value, line);
+    }
+
+    private void emitWithConstant(byte opCode, Object constant) {
+        int index = chunk().addConstant(constant);
+        if (index >= MAX_CONSTANTS) {
+            Lox.error(line, "Too many constants in one chunk.");
+            index = 0;
+        }
+        emit(opCode);
+        emit(index >> 8);
+        emit(index);
+    }
+
+    private void emitGlobal(byte opCode, Token name) {
+        int slot = vm.globalSlot(name.lexeme());
+        if (slot >= MAX_GLOBALS) {
+            Lox.error(line, "Too many global variables.");
+            slot = 0;
+        }
+        emit(opCode);
+        emit(slot >> 8);
+        emit(slot);
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL);
+            emit(0);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+    }
+
+    private int emitJump(byte opCode) {
+        emit(opCode);
+        emit(0xff);
+        emit(0xff);
+        return chunk().count() - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk().count() - offset - 2;
+        if (jump > MAX_JUMP) {
+            Lox.error(line, "Too much code to jump over.");
+        }
+        chunk().patch(offset, jump >> 8);
+        chunk().patch(offset + 1, jump);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        int offset = chunk().count() - loopStart + 2;
+        if (offset > MAX_JUMP) {
+            Lox.error(line, "Loop body too large.");
+        }
+        emit(offset >> 8);
+        emit(offset);
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Holds a captured local, so the function that declares it and every closure
+ * that captured it see the same variable.
+ */
+public class Cell {
+
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
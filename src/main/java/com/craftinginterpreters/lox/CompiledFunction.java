@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * A Lox function compiled to JVM bytecode by the {@link JvmCompiler}.
+ * <p>
+ * The compiled code only computes with numbers and has no effects, so when it meets a
+ * value it wasn't compiled for it gives up, and the call is run by the interpreter from the
+ * start. The code is then invalid, and the function stays interpreted from then on.
+ */
+final class CompiledFunction {
+
+    // For functions the compiler can't compile, so they aren't tried again.
+    static final CompiledFunction NOT_COMPILABLE = new CompiledFunction(null, null, 0);
+
+    // Takes the frame of the call and returns the result boxed.
+    private final MethodHandle entry;
+    // Takes the arguments and returns the result as doubles, for calls from compiled code.
+    private final MethodHandle invoke;
+    private final int arity;
+    private boolean valid;
+
+    CompiledFunction(MethodHandle entry, MethodHandle invoke, int arity) {
+        this.entry = entry;
+        this.invoke = invoke;
+        this.arity = arity;
+        this.valid = entry != null;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Runs a call with the arguments in the given frame. Returns null if the code can't
+     * run it, because an argument isn't a number or the code met something it can't handle.
+     */
+    Object run(Object[] frame) {
+        if (!valid) return null;
+        for (int i = 0; i < arity; i++) {
+            if (!(frame[i] instanceof Double)) return null;
+        }
+
+        try {
+            return (Object) entry.invokeExact(frame);
+        } catch (JitRuntime.Deoptimization | StackOverflowError e) {
+            // Self tail calls are loops, but other deep recursion is left to the interpreter.
+            valid = false;
+            return null;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The calls from compiled code to other compiled functions.
+
+    double call0() {
+        try {
+            return (double) invoke.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    double call1(double a) {
+        try {
+            return (double) invoke.invokeExact(a);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    double call2(double a, double b) {
+        try {
+            return (double) invoke.invokeExact(a, b);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    double call3(double a, double b, double c) {
+        try {
+            return (double) invoke.invokeExact(a, b, c);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * How a statement finished executing. A RETURN completion unwinds through
+ * the enclosing blocks and loops up to the function call, which picks the
+ * value up from the interpreter. A TAIL_CALL completion unwinds the same way,
+ * leaving the function and frame to run next in the interpreter instead.
+ */
+public enum Completion {
+    NORMAL,
+    RETURN,
+    TAIL_CALL
+}
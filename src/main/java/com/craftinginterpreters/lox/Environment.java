@@ -1,73 +1,81 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * The global variables.
+ * <p>
+ * Locals are resolved statically by the Resolver and live in the frame of the function call,
+ * or in the cells of a closure if they are captured. Globals are late bound, but the Resolver
+ * still interns each global name to a slot of this table, so the interpreter reads and writes
+ * them by index. A slot whose global hasn't been defined yet holds {@link #UNDEFINED}.
+ * <p>
+ * The table outlives a single run of the Resolver, so globals defined on one line of the
+ * REPL keep their slot on the next.
+ */
 public class Environment {
-    final Environment enclosing;
 
-    private final Map<String, Object> values;
+    // Marks a global that has a slot but hasn't been defined, which nil can't do.
+    private static final Object UNDEFINED = new Object();
 
-    public Environment() {
-        values = new HashMap<>();
-        enclosing = null;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private Object[] values = new Object[0];
+
+    // The slot of the global with the given name, which is added if it is new.
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) return slot;
+
+        slot = slots.size();
+        slots.put(name, slot);
+        if (slot >= values.length) {
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(8, length * 2));
+            Arrays.fill(values, length, values.length, UNDEFINED);
+        }
+        return slot;
     }
 
-    public Environment(Environment enclosing) {
-        values = new HashMap<>();
-        this.enclosing = enclosing;
+    // The name of each global by its slot, for code that records globals by name.
+    String[] names() {
+        String[] names = new String[slots.size()];
+        slots.forEach((name, slot) -> names[slot] = name);
+        return names;
     }
 
     public void define(String name, Object value) {
-        values.put(name, value);
+        define(slotOf(name), value);
     }
 
-    public Object get(Token name) {
-        String lexeme = name.lexeme();
-        if (values.containsKey(lexeme)) {
-            return values.get(lexeme);
-        }
-
-        if (hasEnclosingEnvironment())
-            return enclosing.get(name);
-
-        throw new RuntimeError(name, "Undefined variable '" + lexeme + "'.");
+    public void define(int slot, Object value) {
+        values[slot] = value;
     }
 
-    public void assign(Token name, Object value) {
-        String lexeme = name.lexeme();
-        if (values.containsKey(lexeme)) {
-            values.put(lexeme, value);
-            return;
-        }
-
-        if (hasEnclosingEnvironment()){
-            enclosing.assign(name, value);
-            return;
-        }
-
-        throw new RuntimeError(name, "Undefined variable '" + lexeme + "'.");
-
+    // The value of a global, or null if it hasn't been defined, for code that can't report the error itself.
+    public Object peek(int slot) {
+        Object value = values[slot];
+        return value != UNDEFINED ? value : null;
     }
 
-    private boolean hasEnclosingEnvironment() {
-        return enclosing != null;
-    }
+    public Object get(Token name, int slot) {
+        Object value = values[slot];
+        if (value != UNDEFINED) {
+            return value;
+        }
 
-    public Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
     }
 
-    private Environment ancestor(int distance) {
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
+    public void assign(Token name, int slot, Object value) {
+        if (values[slot] != UNDEFINED) {
+            values[slot] = value;
+            return;
         }
-        return environment;
-    }
 
-    public void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme(), value);
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
+
     }
 
 }
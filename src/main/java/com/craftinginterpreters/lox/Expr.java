@@ -9,6 +9,8 @@ abstract class Expr{
     R visitCallExpr(Call expr);
     R visitGetExpr(Get expr);
     R visitGroupingExpr(Grouping expr);
+    R visitInlineExpr(Inline expr);
+    R visitInvariantExpr(Invariant expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
     R visitSetExpr(Set expr);
@@ -30,6 +32,9 @@ abstract class Expr{
 
     final Token name;
     final Expr value;
+
+    int kind = Resolver.GLOBAL;
+    int slot;
   }
  static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -76,6 +81,8 @@ abstract class Expr{
 
     final Expr object;
     final Token name;
+
+    InlineCache cache = new InlineCache();
   }
  static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -89,6 +96,43 @@ abstract class Expr{
 
     final Expr expression;
   }
+ static class Inline extends Expr {
+    Inline(Expr.Call call, Stmt.Function function, List<Token> params, List<Stmt> body) {
+      this.call = call;
+      this.function = function;
+      this.params = params;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInlineExpr(this);
+    }
+
+    final Expr.Call call;
+    final Stmt.Function function;
+    final List<Token> params;
+    final List<Stmt> body;
+
+    int[] slots;
+  }
+ static class Invariant extends Expr {
+    Invariant(Token name, Expr expression) {
+      this.name = name;
+      this.expression = expression;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInvariantExpr(this);
+    }
+
+    final Token name;
+    final Expr expression;
+
+    int kind = Resolver.GLOBAL;
+    int slot;
+  }
  static class Literal extends Expr {
     Literal(Object value) {
       this.value = value;
@@ -132,6 +176,8 @@ abstract class Expr{
     final Expr object;
     final Token name;
     final Expr value;
+
+    InlineCache cache = new InlineCache();
   }
  static class Super extends Expr {
     Super(Token keyword, Token method) {
@@ -146,6 +192,13 @@ abstract class Expr{
 
     final Token keyword;
     final Token method;
+
+    int kind = Resolver.GLOBAL;
+    int slot;
+    int thisKind = Resolver.GLOBAL;
+    int thisSlot;
+    LoxClass superclass;
+    LoxFunction target;
   }
  static class This extends Expr {
     This(Token keyword) {
@@ -158,6 +211,9 @@ abstract class Expr{
     }
 
     final Token keyword;
+
+    int kind = Resolver.GLOBAL;
+    int slot;
   }
  static class Unary extends Expr {
     Unary(Token operator, Expr right) {
@@ -184,6 +240,9 @@ abstract class Expr{
     }
 
     final Token name;
+
+    int kind = Resolver.GLOBAL;
+    int slot;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
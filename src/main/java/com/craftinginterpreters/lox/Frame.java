@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * The state of a call being run by compiled nodes: the locals of the call and the cells
+ * its closure captured, laid out as the Resolver assigned them. Globals are not part of it,
+ * as each node that reads one was compiled against the global table already.
+ */
+final class Frame {
+
+    final Interpreter interpreter;
+    // Only top-level code replaces its locals, as its frame grows with each statement list.
+    Object[] locals;
+    final Cell[] upvalues;
+
+    Frame(Interpreter interpreter, Object[] locals, Cell[] upvalues) {
+        this.interpreter = interpreter;
+        this.locals = locals;
+        this.upvalues = upvalues;
+    }
+}
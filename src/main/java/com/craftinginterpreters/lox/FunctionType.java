@@ -4,5 +4,7 @@ public enum FunctionType {
     NONE,
     FUNCTION,
     INITIALIZER,
-    METHOD;
+    METHOD,
+    // The body of a function the Inliner copied into a call site.
+    INLINE;
 }
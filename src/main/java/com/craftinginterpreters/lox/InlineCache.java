@@ -0,0 +1,117 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * A per call site cache for property access on instances.
+ * <p>
+ * Each entry remembers what looking up the property found for one receiver shape:
+ * the slot of a field, the method it resolved to, or for a set that adds a field
+ * the shape the instance transitions to. Shapes belong to a single class and a class's
+ * methods never change, so an entry stays valid for as long as the shape matches.
+ * <p>
+ * A site starts out empty, becomes monomorphic after its first lookup and polymorphic
+ * as more shapes are seen. Once it has seen more than MAX_ENTRIES shapes it is megamorphic
+ * and stops caching, falling back to a full lookup every time.
+ */
+public class InlineCache {
+
+    private static final int MAX_ENTRIES = 4;
+
+    private final Shape[] shapes = new Shape[MAX_ENTRIES];
+    private final int[] slots = new int[MAX_ENTRIES];
+    private final LoxFunction[] methods = new LoxFunction[MAX_ENTRIES];
+    private final Shape[] transitions = new Shape[MAX_ENTRIES];
+    private int count;
+    private boolean megamorphic;
+
+    public Object get(LoxInstance instance, Token name) {
+        int entry = lookup(instance, name);
+        if (entry == -1) return instance.get(name);
+
+        if (methods[entry] != null) return methods[entry].bind(instance);
+        return instance.getField(slots[entry]);
+    }
+
+    /**
+     * Returns the method a property resolves to without binding it,
+     * or null if the property is a field or doesn't exist.
+     */
+    public LoxFunction getMethod(LoxInstance instance, Token name) {
+        int entry = lookup(instance, name);
+        if (entry != -1) return methods[entry];
+
+        if (instance.getShape().slotOf(name.lexeme()) != -1) return null;
+        return instance.getKlass().findMethod(name.lexeme());
+    }
+
+    // Finds the entry for the instance's shape, filling one in on a miss.
+    // Returns -1 when the site is megamorphic or the property doesn't exist.
+    private int lookup(LoxInstance instance, Token name) {
+        Shape shape = instance.getShape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) return i;
+        }
+
+        if (megamorphic) return -1;
+
+        int slot = shape.slotOf(name.lexeme());
+        if (slot != -1) {
+            return add(shape, slot, null, null);
+        }
+
+        LoxFunction method = instance.getKlass().findMethod(name.lexeme());
+        if (method != null) {
+            return add(shape, -1, method, null);
+        }
+        return -1;
+    }
+
+    public void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.getShape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (transitions[i] != null) {
+                    instance.addField(transitions[i], value);
+                } else {
+                    instance.setField(slots[i], value);
+                }
+                return;
+            }
+        }
+
+        if (megamorphic) {
+            instance.set(name, value);
+            return;
+        }
+
+        int slot = shape.slotOf(name.lexeme());
+        if (slot != -1) {
+            add(shape, slot, null, null);
+            instance.setField(slot, value);
+        } else {
+            Shape next = shape.withField(name.lexeme());
+            add(shape, next.size() - 1, null, next);
+            instance.addField(next, value);
+        }
+    }
+
+    // The number of shapes the site has cached an entry for.
+    int size() {
+        return count;
+    }
+
+    boolean isMegamorphic() {
+        return megamorphic;
+    }
+
+    private int add(Shape shape, int slot, LoxFunction method, Shape transition) {
+        if (count == MAX_ENTRIES) {
+            megamorphic = true;
+            return -1;
+        }
+        shapes[count] = shape;
+        slots[count] = slot;
+        methods[count] = method;
+        transitions[count] = transition;
+        return count++;
+    }
+}
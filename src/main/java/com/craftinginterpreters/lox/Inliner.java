@@ -0,0 +1,714 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Replaces calls to small top-level functions with a copy of the function's body.
+ * <p>
+ * A function is inlined if it is declared once at the top level of the program, isn't part of
+ * a cycle of top-level functions that call each other, doesn't declare functions or classes, and
+ * its body has no more AST nodes than the threshold. Each call site gets its own copy of the
+ * body, in which the parameters and locals are renamed with a '$' suffix, which no identifier
+ * in the source can contain, so they can't clash with the caller's variables. A call is left
+ * alone if the caller has a local that would hide the function, or one of the globals its body
+ * uses.
+ * <p>
+ * Calls in a copy are inlined too, but the copies nested in one call site count against the
+ * threshold together, and each function, or statement of top-level code, grows by at most
+ * {@link #GROWTH_LIMIT} thresholds' worth of copies. A call whose value a function returns is
+ * never inlined, so that it stays a tail call.
+ * <p>
+ * The function is a global, which may be reassigned. So the {@link Expr.Inline} node keeps the
+ * original call, and the interpreter only runs the copy if the global still holds a function
+ * of this declaration.
+ * <p>
+ * The pass runs before the Resolver, so the copies are resolved like any other code.
+ */
+public class Inliner implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    // The largest body, in AST nodes, that is inlined unless another threshold is given.
+    public static final int DEFAULT_THRESHOLD = 24;
+    // How many thresholds' worth of copies a caller can grow by.
+    static final int GROWTH_LIMIT = 8;
+
+    private final int threshold;
+    private final Map<String, Candidate> candidates = new HashMap<>();
+    // The functions whose bodies or copies are being walked, which aren't inlined again inside them.
+    private final Set<Stmt.Function> expanding = new HashSet<>();
+    // The AST nodes copied into the function or top-level statement being walked so far.
+    private int growth;
+    // The AST nodes of the copy being expanded and the copies nested in it, while one is.
+    private int expanded;
+    private boolean inCopy;
+    // Whether the code being walked is a function's own body, whose returned calls are tail calls.
+    private boolean inFunction;
+    // The names of the locals in scope where the code being walked will run. Empty at the top level.
+    private final Stack<Set<String>> scopes = new Stack<>();
+    // Numbers the copies, to give each one's locals names of their own.
+    private int copies;
+
+    private record Candidate(Stmt.Function declaration, Set<String> freeNames, int size) {
+    }
+
+    public Inliner(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public List<Stmt> inline(List<Stmt> statements) {
+        if (threshold <= 0) return statements;
+
+        Set<String> declared = new HashSet<>();
+        Set<String> redeclared = new HashSet<>();
+        // The names each top-level function refers to, to find the ones that call each other.
+        Map<String, Set<String>> references = new HashMap<>();
+        for (Stmt statement : statements) {
+            Token name = declaredName(statement);
+            if (name != null && !declared.add(name.lexeme())) redeclared.add(name.lexeme());
+
+            if (statement instanceof Stmt.Function function) {
+                Copy copy = new Copy(function, 0);
+                references.put(function.name.lexeme(), copy.freeNames);
+                if (copy.inlinable && copy.size <= threshold) {
+                    candidates.put(function.name.lexeme(), new Candidate(function, copy.freeNames, copy.size));
+                }
+            }
+        }
+        // Calls to a name declared twice could only be inlined with one of the declarations.
+        candidates.keySet().removeAll(redeclared);
+        references.keySet().removeAll(redeclared);
+        // Inlining one of a cycle of functions into another would turn the calls around the
+        // cycle from tail calls into nested ones.
+        candidates.keySet().removeAll(new Cycles(references).find());
+        if (candidates.isEmpty()) return statements;
+
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            growth = 0;
+            Stmt inlined = statement.accept(this);
+            result.add(inlined);
+            changed |= inlined != statement;
+        }
+        return changed ? result : statements;
+    }
+
+    private static Token declaredName(Stmt statement) {
+        if (statement instanceof Stmt.Function function) return function.name;
+        if (statement instanceof Stmt.Var var) return var.name;
+        if (statement instanceof Stmt.Class klass) return klass.name;
+        return null;
+    }
+
+    private List<Stmt> inlineAll(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt inlined = statement.accept(this);
+            result.add(inlined);
+            changed |= inlined != statement;
+        }
+        return changed ? result : statements;
+    }
+
+    private List<Expr> inlineAllExpressions(List<Expr> expressions) {
+        List<Expr> result = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for (Expr expr : expressions) {
+            Expr inlined = inline(expr);
+            result.add(inlined);
+            changed |= inlined != expr;
+        }
+        return changed ? result : expressions;
+    }
+
+    private Expr inline(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Stmt inline(Stmt statement) {
+        return statement == null ? null : statement.accept(this);
+    }
+
+    private void declare(Token name) {
+        if (!scopes.isEmpty()) scopes.peek().add(name.lexeme());
+    }
+
+    private boolean isLocal(String name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr.Call call = inlineOperands(expr);
+
+        Candidate candidate = candidateFor(call);
+        if (candidate == null) return call;
+
+        Copy copy = new Copy(candidate.declaration, ++copies);
+        boolean outermost = !inCopy;
+        growth += candidate.size;
+        expanded = (outermost ? 0 : expanded) + candidate.size;
+
+        // Calls in the copy are inlined as well, as they run at this call site.
+        inCopy = true;
+        expanding.add(candidate.declaration);
+        scopes.push(new HashSet<>());
+        copy.params.forEach(this::declare);
+        List<Stmt> body = inlineAll(copy.body);
+        scopes.pop();
+        expanding.remove(candidate.declaration);
+        inCopy = !outermost;
+
+        return new Expr.Inline(call, candidate.declaration, copy.params, body);
+    }
+
+    // The call with its callee and arguments inlined, but not the call itself.
+    private Expr.Call inlineOperands(Expr.Call expr) {
+        Expr callee = inline(expr.callee);
+        List<Expr> arguments = inlineAllExpressions(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments) return expr;
+
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    // The function a call can be inlined with, or null.
+    private Candidate candidateFor(Expr.Call call) {
+        if (!(call.callee instanceof Expr.Variable variable)) return null;
+
+        String name = variable.name.lexeme();
+        Candidate candidate = candidates.get(name);
+        if (candidate == null || isLocal(name) || expanding.contains(candidate.declaration)) return null;
+        if (candidate.declaration.params.size() != call.arguments.size()) return null;
+
+        // A copy nested in another counts against the threshold along with it.
+        if (inCopy && expanded + candidate.size > threshold) return null;
+        if (growth + candidate.size > GROWTH_LIMIT * threshold) return null;
+
+        for (String freeName : candidate.freeNames) {
+            if (isLocal(freeName)) return null;
+        }
+        return candidate;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = inline(expr.value);
+        if (value == expr.value) return expr;
+
+        return new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = inline(expr.left);
+        Expr right = inline(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = inline(expr.object);
+        if (object == expr.object) return expr;
+
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = inline(expr.expression);
+        if (expression == expr.expression) return expr;
+
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = inline(expr.left);
+        Expr right = inline(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = inline(expr.object);
+        Expr value = inline(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = inline(expr.right);
+        if (right == expr.right) return expr;
+
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashSet<>());
+        List<Stmt> statements = inlineAll(stmt.statements);
+        scopes.pop();
+        if (statements == stmt.statements) return stmt;
+
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name);
+
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        boolean changed = false;
+        for (Stmt.Function method : stmt.methods) {
+            Stmt.Function inlined = inlineFunction(method);
+            methods.add(inlined);
+            changed |= inlined != method;
+        }
+        if (!changed) return stmt;
+
+        return new Stmt.Class(stmt.name, stmt.superClass, methods);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = inline(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        scopes.push(new HashSet<>());
+        Stmt initializer = inline(stmt.initializer);
+        Expr condition = inline(stmt.condition);
+        Expr increment = stmt.increment != null ? inline(stmt.increment) : null;
+        Stmt body = inline(stmt.body);
+        scopes.pop();
+
+        if (initializer == stmt.initializer && condition == stmt.condition
+                && increment == stmt.increment && body == stmt.body) {
+            return stmt;
+        }
+        return new Stmt.For(initializer, condition, increment, body);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name);
+        return inlineFunction(stmt);
+    }
+
+    // A function is a caller of its own, with its own growth, whatever the code around it grew by.
+    private Stmt.Function inlineFunction(Stmt.Function function) {
+        int enclosingGrowth = growth;
+        boolean enclosingFunction = inFunction;
+        growth = 0;
+        inFunction = true;
+
+        boolean added = expanding.add(function);
+        scopes.push(new HashSet<>());
+        function.params.forEach(this::declare);
+        List<Stmt> body = inlineAll(function.body);
+        scopes.pop();
+        if (added) expanding.remove(function);
+
+        growth = enclosingGrowth;
+        inFunction = enclosingFunction;
+        if (body == function.body) return function;
+
+        return new Stmt.Function(function.name, function.params, body);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = inline(stmt.condition);
+        Stmt thenBranch = inline(stmt.thenBranch);
+        Stmt elseBranch = inline(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = inline(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        // A call a function returns is a tail call, which runs in the caller's Java frame, and
+        // mutual recursion relies on that. The body of a copy returns to the inlined call instead.
+        Expr value = inFunction && !inCopy && stmt.value instanceof Expr.Call call
+                ? inlineOperands(call)
+                : inline(stmt.value);
+        if (value == stmt.value) return stmt;
+
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        // A local is in scope in its own initializer, where it hides a function of the same name.
+        declare(stmt.name);
+        Expr initializer = stmt.initializer != null ? inline(stmt.initializer) : null;
+        if (initializer == stmt.initializer) return stmt;
+
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = inline(stmt.condition);
+        Stmt body = inline(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+
+        return new Stmt.While(condition, body);
+    }
+
+    /**
+     * Finds the functions that are part of a cycle of functions referring to each other, as
+     * the strongly connected components with more than one function in them, with Tarjan's
+     * algorithm. A function that refers to itself is never inlined anyway.
+     */
+    private static class Cycles {
+
+        private final Map<String, Set<String>> references;
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final Map<String, Integer> lowLinks = new HashMap<>();
+        private final Stack<String> stack = new Stack<>();
+        private final Set<String> onStack = new HashSet<>();
+        private final Set<String> cyclic = new HashSet<>();
+
+        Cycles(Map<String, Set<String>> references) {
+            this.references = references;
+        }
+
+        Set<String> find() {
+            for (String function : references.keySet()) {
+                if (!indexes.containsKey(function)) visit(function);
+            }
+            return cyclic;
+        }
+
+        private void visit(String function) {
+            int index = indexes.size();
+            indexes.put(function, index);
+            lowLinks.put(function, index);
+            stack.push(function);
+            onStack.add(function);
+
+            for (String callee : references.get(function)) {
+                if (!references.containsKey(callee)) continue;
+
+                if (!indexes.containsKey(callee)) {
+                    visit(callee);
+                    lowLinks.put(function, Math.min(lowLinks.get(function), lowLinks.get(callee)));
+                } else if (onStack.contains(callee)) {
+                    lowLinks.put(function, Math.min(lowLinks.get(function), indexes.get(callee)));
+                }
+            }
+
+            if (lowLinks.get(function) != index) return;
+
+            List<String> component = new ArrayList<>();
+            String member;
+            do {
+                member = stack.pop();
+                onStack.remove(member);
+                component.add(member);
+            } while (!member.equals(function));
+            if (component.size() > 1) cyclic.addAll(component);
+        }
+    }
+
+    /**
+     * A copy of a function's parameters and body for one call site. Every node is copied, since
+     * the Resolver records different things on each copy, and the parameters and locals are renamed.
+     * The copy also measures the body, and collects the names it uses that aren't its own locals.
+     */
+    private static class Copy implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+        private final Stmt.Function function;
+        private final String suffix;
+        private final Stack<Map<String, Token>> renames = new Stack<>();
+
+        final Set<String> freeNames = new HashSet<>();
+        final List<Token> params = new ArrayList<>();
+        final List<Stmt> body;
+        int size;
+        boolean inlinable = true;
+
+        Copy(Stmt.Function function, int number) {
+            this.function = function;
+            this.suffix = "$" + number;
+
+            renames.push(new HashMap<>());
+            for (Token param : function.params) {
+                params.add(rename(param));
+            }
+            body = copyAll(function.body);
+        }
+
+        private Token rename(Token name) {
+            Token renamed = new Token(name.type(), name.lexeme() + suffix, name.literal(), name.line());
+            renames.peek().put(name.lexeme(), renamed);
+            return renamed;
+        }
+
+        private Token use(Token name) {
+            for (int i = renames.size() - 1; i >= 0; i--) {
+                Token renamed = renames.get(i).get(name.lexeme());
+                if (renamed != null) return renamed;
+            }
+
+            // A function that refers to itself is recursive, and is never inlined.
+            if (name.lexeme().equals(function.name.lexeme())) inlinable = false;
+            freeNames.add(name.lexeme());
+            return name;
+        }
+
+        private List<Stmt> copyAll(List<Stmt> statements) {
+            List<Stmt> copies = new ArrayList<>(statements.size());
+            for (Stmt statement : statements) {
+                copies.add(copy(statement));
+            }
+            return copies;
+        }
+
+        private Stmt copy(Stmt statement) {
+            return statement == null ? null : statement.accept(this);
+        }
+
+        private Expr copy(Expr expr) {
+            return expr == null ? null : expr.accept(this);
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            size++;
+            Expr value = copy(expr.value);
+            return new Expr.Assign(use(expr.name), value);
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            size++;
+            return new Expr.Binary(copy(expr.left), expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            size++;
+            Expr callee = copy(expr.callee);
+            List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                arguments.add(copy(argument));
+            }
+            return new Expr.Call(callee, expr.paren, arguments);
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr) {
+            size++;
+            return new Expr.Get(copy(expr.object), expr.name);
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            size++;
+            return new Expr.Grouping(copy(expr.expression));
+        }
+
+        @Override
+        public Expr visitInlineExpr(Expr.Inline expr) {
+            inlinable = false;
+            return expr;
+        }
+
+        @Override
+        public Expr visitInvariantExpr(Expr.Invariant expr) {
+            inlinable = false;
+            return expr;
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            size++;
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            size++;
+            return new Expr.Logical(copy(expr.left), expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            size++;
+            return new Expr.Set(copy(expr.object), expr.name, copy(expr.value));
+        }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr) {
+            inlinable = false;
+            return expr;
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr) {
+            inlinable = false;
+            return expr;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            size++;
+            return new Expr.Unary(expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            size++;
+            return new Expr.Variable(use(expr.name));
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt) {
+            size++;
+            renames.push(new HashMap<>());
+            List<Stmt> statements = copyAll(stmt.statements);
+            renames.pop();
+            return new Stmt.Block(statements);
+        }
+
+        // Nested functions and classes would capture the renamed locals, so they are never inlined.
+        // Their bodies are still walked, for the names they refer to.
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt) {
+            inlinable = false;
+            rename(stmt.name);
+            if (stmt.superClass != null) use(stmt.superClass.name);
+            for (Stmt.Function method : stmt.methods) {
+                walkFunction(method);
+            }
+            return stmt;
+        }
+
+        private void walkFunction(Stmt.Function function) {
+            renames.push(new HashMap<>());
+            function.params.forEach(this::rename);
+            copyAll(function.body);
+            renames.pop();
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+            size++;
+            return new Stmt.Expression(copy(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitForStmt(Stmt.For stmt) {
+            size++;
+            renames.push(new HashMap<>());
+            Stmt initializer = copy(stmt.initializer);
+            Expr condition = copy(stmt.condition);
+            Expr increment = copy(stmt.increment);
+            Stmt body = copy(stmt.body);
+            renames.pop();
+            return new Stmt.For(initializer, condition, increment, body);
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.Function stmt) {
+            inlinable = false;
+            rename(stmt.name);
+            walkFunction(stmt);
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitIfStmt(Stmt.If stmt) {
+            size++;
+            return new Stmt.If(copy(stmt.condition), copy(stmt.thenBranch), copy(stmt.elseBranch));
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt) {
+            size++;
+            return new Stmt.Print(copy(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitReturnStmt(Stmt.Return stmt) {
+            size++;
+            return new Stmt.Return(stmt.keyword, copy(stmt.value));
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt) {
+            size++;
+            Token name = rename(stmt.name);
+            return new Stmt.Var(name, copy(stmt.initializer));
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt) {
+            size++;
+            return new Stmt.While(copy(stmt.condition), copy(stmt.body));
+        }
+    }
+}
@@ -1,21 +1,41 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+
+    private static final Cell[] NO_UPVALUES = new Cell[0];
 
     final Environment globals =  new Environment();
-    private Environment activeEnvironment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // The locals of the function call being executed. Top-level code has a frame
+    // of its own, which grows as its blocks declare locals.
+    private Object[] frame = new Object[0];
+    // The cells the closure being executed captured.
+    private Cell[] upvalues = NO_UPVALUES;
+    // The value of the return statement currently unwinding to its caller.
+    private Object returnValue;
+    // The call a tail call statement is unwinding to make, with its arguments already in the frame.
+    private LoxFunction tailCallee;
+    private Object[] tailCallFrame;
+    private LoxInstance tailCallReceiver;
+    // Compiles hot functions to JVM bytecode, when the JIT is on.
+    JvmCompiler jit;
+    // Promotes hot functions and loops to faster tiers, when tiered execution is on.
+    TieredExecution tiers;
 
     public Interpreter() {
         // Native function
         globals.define("clock", new LoxCallable() {
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
 
@@ -29,22 +49,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
-                execute(statement);
+                if (execute(statement) != Completion.NORMAL) break;
             }
         } catch (RuntimeError error) {
             Lox.runtimeError(error);
         }
     }
 
-    private void execute(Stmt statement) {
-        statement.accept(this);
-    }
-
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private Completion execute(Stmt statement) {
+        return statement.accept(this);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
         if (object instanceof Double) {
             String text = object.toString();
@@ -59,46 +75,44 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
+        assignVariable(expr.name, expr.kind, expr.slot, value);
+        return value;
+    }
 
-        if (locals.containsKey(expr)) {
-            Integer distance = locals.get(expr);
-            activeEnvironment.assignAt(distance, expr.name, value);
-        } else {
-            globals.assign(expr.name, value);
+    private void assignVariable(Token name, int kind, int slot, Object value) {
+        switch (kind) {
+            case Resolver.FRAME -> frame[slot] = value;
+            case Resolver.CELL -> ((Cell) frame[slot]).value = value;
+            case Resolver.UPVALUE -> upvalues[slot].value = value;
+            case Resolver.UNINITIALIZED -> { }
+            default -> globals.assign(name, slot, value);
         }
-
-        return value;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
         switch (expr.operator.type()) {
+            case MINUS:
+            case SLASH:
+            case STAR:
+                // Nested arithmetic stays unboxed; only the final result is boxed.
+                return evaluateNumber(expr);
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
-            case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
+                return compareNumbers(expr);
+            case PLUS:
+                if (isNumeric(expr)) return evaluateNumber(expr);
+                break;
+        }
+
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+
+        switch (expr.operator.type()) {
             case PLUS:
                 return handlePlus(expr.operator, left, right);
-            case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left / (double) right;
-            case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
@@ -108,53 +122,236 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    /**
+     * Whether an expression always produces a number, or fails with a runtime error.
+     * Such expressions can be evaluated with evaluateNumber without boxing the intermediate results.
+     */
+    private static boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Literal literal) return literal.value instanceof Double;
+        if (expr instanceof Expr.Grouping grouping) return isNumeric(grouping.expression);
+        if (expr instanceof Expr.Unary unary) return unary.operator.type() == TokenType.MINUS;
+        if (expr instanceof Expr.Binary binary) {
+            switch (binary.operator.type()) {
+                case MINUS:
+                case SLASH:
+                case STAR:
+                    return true;
+                case PLUS:
+                    return isNumeric(binary.left) && isNumeric(binary.right);
+            }
+        }
+        return false;
+    }
+
+    // Only called for expressions where isNumeric holds.
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Literal literal) return (double) literal.value;
+        if (expr instanceof Expr.Grouping grouping) return evaluateNumber(grouping.expression);
+        if (expr instanceof Expr.Unary unary) return -evaluateNegated(unary);
+
+        Expr.Binary binary = (Expr.Binary) expr;
+        // Both operands are evaluated before either one is checked, as in the generic path.
+        double left;
+        double right;
+        if (isNumeric(binary.left)) {
+            left = evaluateNumber(binary.left);
+            right = evaluateOperand(binary.operator, binary.right);
+        } else {
+            Object leftValue = evaluate(binary.left);
+            right = evaluateOperand(binary.operator, binary.right);
+            left = toNumber(binary.operator, leftValue);
+        }
+
+        switch (binary.operator.type()) {
+            case MINUS:
+                return left - right;
+            case SLASH:
+                return left / right;
+            case STAR:
+                return left * right;
+            default:
+                return left + right;
+        }
+    }
+
+    private boolean compareNumbers(Expr.Binary expr) {
+        double left;
+        double right;
+        if (isNumeric(expr.left)) {
+            left = evaluateNumber(expr.left);
+            right = evaluateOperand(expr.operator, expr.right);
+        } else {
+            Object leftValue = evaluate(expr.left);
+            right = evaluateOperand(expr.operator, expr.right);
+            left = toNumber(expr.operator, leftValue);
+        }
+
+        switch (expr.operator.type()) {
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            default:
+                return left <= right;
+        }
+    }
+
+    // Evaluates an operand of a binary numeric operator, without boxing it if it's statically numeric.
+    private double evaluateOperand(Token operator, Expr operand) {
+        if (isNumeric(operand)) return evaluateNumber(operand);
+        return toNumber(operator, evaluate(operand));
+    }
+
+    private double toNumber(Token operator, Object operand) {
+        if (operand instanceof Double number) return number;
+        throw new RuntimeError(operator, "Operands must be numbers");
+    }
+
+    private double evaluateNegated(Expr.Unary expr) {
+        if (isNumeric(expr.right)) return evaluateNumber(expr.right);
+
+        Object right = evaluate(expr.right);
+        checkNumberOperand(expr.operator, right);
+        return (double) right;
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call expr) {
 
+        if (expr.callee instanceof Expr.Get get) {
+            return invokeMethod(expr, get);
+        }
+        if (expr.callee instanceof Expr.Super superExpr) {
+            return invokeSuperMethod(expr, superExpr);
+        }
+
         Object callee = evaluate(expr.callee);
-        List<Object> arguments = new ArrayList<>();
+        return callFunction(expr, callee);
+    }
+
+    // A call of the form obj.method(args) invokes the method with obj as 'this'
+    // directly, rather than creating a bound method only to throw it away.
+    private Object invokeMethod(Expr.Call expr, Expr.Get get) {
+        Object object = evaluate(get.object);
 
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        if (!(object instanceof LoxInstance instance)){
+            throw new RuntimeError(get.name, "Only instances have properties.");
         }
 
-        if (!(callee instanceof LoxCallable function)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes");
+        LoxFunction method = get.cache.getMethod(instance, get.name);
+        if (method == null) {
+            // A field holding a callable, or an undefined property.
+            return callFunction(expr, get.cache.get(instance, get.name));
         }
 
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " +
-                    function.arity() + " arguments but got " +
-                    arguments.size());
+        return invokeMethod(expr, method, instance);
+    }
+
+    private Object invokeSuperMethod(Expr.Call expr, Expr.Super superExpr) {
+        LoxClass superClass = (LoxClass) lookUpVariable(superExpr.keyword, superExpr.kind, superExpr.slot);
+        LoxInstance object = (LoxInstance) lookUpVariable(superExpr.keyword, superExpr.thisKind, superExpr.thisSlot);
+
+        LoxFunction method = findSuperMethod(superClass, superExpr);
+        return invokeMethod(expr, method, object);
+    }
+
+    private Object invokeMethod(Expr.Call expr, LoxFunction method, LoxInstance receiver) {
+        return method.execute(this, prepareFrame(expr, method, receiver), receiver);
+    }
+
+    // Arguments are evaluated straight into the function's frame, after 'this' for methods.
+    private Object[] prepareFrame(Expr.Call expr, LoxFunction function, LoxInstance receiver) {
+        Object[] frame = function.newFrame(receiver);
+        int offset = function.parameterOffset();
+        int arity = function.arity();
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            Object value = evaluate(expr.arguments.get(i));
+            if (i < arity) frame[offset + i] = value;
+        }
+
+        checkArity(expr, function, expr.arguments.size());
+        return frame;
+    }
+
+    // Calls with up to three arguments go through the fixed-arity entry
+    // points, so the arguments never need to be collected into an array.
+    private Object callFunction(Expr.Call expr, Object callee) {
+        List<Expr> arguments = expr.arguments;
+
+        switch (arguments.size()) {
+            case 0:
+                return checkCallable(expr, callee, 0).call0(this);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                return checkCallable(expr, callee, 1).call1(this, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                return checkCallable(expr, callee, 2).call2(this, a, b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                return checkCallable(expr, callee, 3).call3(this, a, b, c);
+            }
+            default: {
+                Object[] values = new Object[arguments.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = evaluate(arguments.get(i));
+                }
+                return checkCallable(expr, callee, values.length).call(this, values);
+            }
         }
+    }
 
+    static LoxCallable checkCallable(Expr.Call expr, Object callee, int argumentCount) {
+        return checkCallable(expr.paren, callee, argumentCount);
+    }
+
+    // The errors are reported at the closing parenthesis of the call.
+    static LoxCallable checkCallable(Token paren, Object callee, int argumentCount) {
+        if (!(callee instanceof LoxCallable function)) {
+            throw new RuntimeError(paren, "Can only call functions and classes");
+        }
+
+        checkArity(paren, function, argumentCount);
+        return function;
+    }
+
+    static void checkArity(Expr.Call expr, LoxCallable function, int argumentCount) {
+        checkArity(expr.paren, function, argumentCount);
+    }
 
-        return function.call(this, arguments);
+    static void checkArity(Token paren, LoxCallable function, int argumentCount) {
+        if (argumentCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    argumentCount);
+        }
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
 
-        if (!(object instanceof LoxInstance)){
+        if (!(object instanceof LoxInstance instance)){
             throw new RuntimeError(expr.name, "Only instances have properties.");
         }
-        return ((LoxInstance) object).get(expr.name);
-    }
-
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError(operator, "Operands must be numbers");
+        return expr.cache.get(instance, expr.name);
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
 
         return a.equals(b);
     }
 
-    private Object handlePlus(Token token, Object left, Object right) {
+    static Object handlePlus(Token token, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) {
             return (double) left + (double) right;
         }
@@ -164,6 +361,41 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(token, "Operands must be two numbers or two strings");
     }
 
+    /**
+     * Runs the inlined copy of the function's body in the current frame, as long as the
+     * function's global still holds a function of the same declaration. Otherwise the
+     * global was reassigned, and the call is made as it was written.
+     */
+    @Override
+    public Object visitInlineExpr(Expr.Inline expr) {
+        Object callee = evaluate(expr.call.callee);
+        if (!(callee instanceof LoxFunction function) || !function.isDeclaredBy(expr.function)) {
+            return callFunction(expr.call, callee);
+        }
+
+        List<Expr> arguments = expr.call.arguments;
+        for (int i = 0; i < arguments.size(); i++) {
+            declare(expr.params.get(i), Resolver.FRAME, expr.slots[i], evaluate(arguments.get(i)));
+        }
+
+        for (Stmt statement : expr.body) {
+            if (execute(statement) == Completion.RETURN) return takeReturnValue();
+        }
+        return null;
+    }
+
+    // The temporary is empty the first time the loop reaches the expression. Nil and callables
+    // aren't kept: nil marks an empty temporary, and each bound method has to be a new one.
+    @Override
+    public Object visitInvariantExpr(Expr.Invariant expr) {
+        Object value = lookUpVariable(expr.name, expr.kind, expr.slot);
+        if (value != null) return value;
+
+        value = evaluate(expr.expression);
+        if (!(value instanceof LoxCallable)) assignVariable(expr.name, expr.kind, expr.slot, value);
+        return value;
+    }
+
     @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
         return evaluate(expr.expression);
@@ -194,46 +426,51 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitSetExpr(Expr.Set expr) {
         Object object = evaluate(expr.object);
 
-        if (!(object instanceof LoxInstance)){
+        if (!(object instanceof LoxInstance instance)){
             throw new RuntimeError(expr.name, "Only instances have fields.");
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance) object).set(expr.name, value);
+        expr.cache.set(instance, expr.name, value);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superClass = (LoxClass) activeEnvironment.getAt(distance, "super");
+        LoxClass superClass = (LoxClass) lookUpVariable(expr.keyword, expr.kind, expr.slot);
+
+        LoxInstance object = (LoxInstance) lookUpVariable(expr.keyword, expr.thisKind, expr.thisSlot);
 
-        LoxInstance object = (LoxInstance) activeEnvironment.getAt(distance - 1, "this");
+        return findSuperMethod(superClass, expr).bind(object);
+    }
+
+    // The superclass of a given 'super' expression only changes if the class
+    // declaration runs again, so each site remembers the method it found last.
+    static LoxFunction findSuperMethod(LoxClass superClass, Expr.Super expr) {
+        if (expr.superclass == superClass) return expr.target;
 
         LoxFunction method = superClass.findMethod(expr.method.lexeme());
 
         if (method == null){
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme() + "'.");
         }
-
-        return method.bind(object);
+        expr.superclass = superClass;
+        expr.target = method;
+        return method;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.kind, expr.slot);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
-
         switch (expr.operator.type()) {
             case BANG:
-                return !isTruthy(right);
+                return !isTruthy(evaluate(expr.right));
             case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double) right;
+                return -evaluateNegated(expr);
             default:
                 return null;
         }
@@ -241,15 +478,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.kind, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        if (locals.containsKey(expr)){
-            return activeEnvironment.getAt(locals.get(expr), name.lexeme());
-        } else {
-            return globals.get(name);
-        }
+    private Object lookUpVariable(Token name, int kind, int slot) {
+        return switch (kind) {
+            case Resolver.FRAME -> frame[slot];
+            case Resolver.CELL -> ((Cell) frame[slot]).value;
+            case Resolver.UPVALUE -> upvalues[slot].value;
+            case Resolver.UNINITIALIZED -> null;
+            default -> globals.get(name, slot);
+        };
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
@@ -258,20 +497,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(operator, "Operand must be a number");
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(activeEnvironment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        // The block's locals have frame slots of their own, so it runs in place.
+        for (Stmt statement : stmt.statements) {
+            Completion completion = execute(statement);
+            if (completion != Completion.NORMAL) return completion;
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
 
         Object superclass = null;
         if (stmt.superClass != null){
@@ -281,98 +524,256 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
            }
         }
 
-        activeEnvironment.define(stmt.name.lexeme(), null);
+        // The class is declared first, so methods that refer to it can capture it.
+        declare(stmt.name, stmt.kind, stmt.slot, null);
 
         if (stmt.superClass != null){
-            activeEnvironment = new Environment(activeEnvironment);
-            activeEnvironment.define("super", superclass);
+            declare(stmt.superClass.name, stmt.superKind, stmt.superSlot, superclass);
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, activeEnvironment, method.name.lexeme().equals("init"));
+            FunctionType type = method.name.lexeme().equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            LoxFunction function = new LoxFunction(method, captureUpvalues(method), type);
             methods.put(method.name.lexeme(), function);
         }
 
         LoxClass klass = new LoxClass(stmt.name.lexeme(), (LoxClass) superclass, methods);
 
-        if (superclass != null){
-            activeEnvironment = activeEnvironment.enclosing;
-        }
-
-        activeEnvironment.assign(stmt.name, klass);
-        return null;
+        assignVariable(stmt.name, stmt.kind, stmt.slot, klass);
+        return Completion.NORMAL;
     }
 
-    public void executeBlock(List<Stmt> statements, Environment newEnvironment) {
+    // Collects the cells a new closure of the function captures,
+    // from the current frame or from the closure being executed.
+    private Cell[] captureUpvalues(Stmt.Function function) {
+        int[] indexes = function.upvalueIndexes;
+        if (indexes.length == 0) return NO_UPVALUES;
+
+        Cell[] captured = new Cell[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            captured[i] = function.upvalueIsLocal[i] ? (Cell) frame[indexes[i]] : upvalues[indexes[i]];
+        }
+        return captured;
+    }
 
-        Environment previousEnvironment = activeEnvironment;
+    // Runs the body of a function call with its own frame and upvalues.
+    Completion executeBody(List<Stmt> body, Object[] callFrame, Cell[] closureUpvalues) {
+        Object[] previousFrame = frame;
+        Cell[] previousUpvalues = upvalues;
         try {
-            activeEnvironment = newEnvironment;
-            for (Stmt statement : statements) {
-                execute(statement);
+            frame = callFrame;
+            upvalues = closureUpvalues;
+            for (Stmt statement : body) {
+                Completion completion = execute(statement);
+                if (completion != Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } finally {
-            this.activeEnvironment = previousEnvironment;
+            frame = previousFrame;
+            upvalues = previousUpvalues;
         }
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
+    /**
+     * The loop variable is a single variable for the whole loop, so closures in the
+     * body all capture the same cell, while a variable declared in the body gets a
+     * fresh cell each iteration.
+     */
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, activeEnvironment, false);
-        this.activeEnvironment.define(stmt.name.lexeme(), function);
-        return null;
+    public Completion visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) {
+            execute(stmt.initializer);
+        }
+
+        while (isTruthy(evaluate(stmt.condition))) {
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) return completion;
+
+            if (stmt.increment != null) {
+                evaluate(stmt.increment);
+            }
+
+            if (tiers != null) {
+                StmtNode promoted = tiers.backEdge(stmt);
+                if (promoted != null) return resume(promoted);
+            }
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        // Declared before the closure is created, so a local function can capture itself.
+        declare(stmt.name, stmt.kind, stmt.slot, null);
+        LoxFunction function = new LoxFunction(stmt, captureUpvalues(stmt), FunctionType.FUNCTION);
+        assignVariable(stmt.name, stmt.kind, stmt.slot, function);
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            return tailCall((Expr.Call) stmt.value);
+        }
 
         Object value = null;
         if (stmt.value != null){
             value = evaluate(stmt.value);
         }
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
+    }
+
+    // Completes a function body that returns the value, for bodies that don't run return statements here.
+    Completion returnWith(Object value) {
+        returnValue = value;
+        return Completion.RETURN;
+    }
+
+    // Hands the value of the return statement that just completed to the function call.
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    /**
+     * Evaluates the callee and arguments of a call in tail position. If the callee is
+     * a Lox function, its frame is left for the calling LoxFunction to run in a loop
+     * rather than calling it from here, so tail calls don't grow the Java stack.
+     */
+    private Completion tailCall(Expr.Call call) {
+        if (call.callee instanceof Expr.Get get) {
+            Object object = evaluate(get.object);
+
+            if (!(object instanceof LoxInstance instance)){
+                throw new RuntimeError(get.name, "Only instances have properties.");
+            }
+
+            LoxFunction method = get.cache.getMethod(instance, get.name);
+            if (method != null) {
+                return prepareTailCall(method, prepareFrame(call, method, instance), instance);
+            }
+            returnValue = callFunction(call, get.cache.get(instance, get.name));
+            return Completion.RETURN;
+        }
+
+        if (call.callee instanceof Expr.Super superExpr) {
+            LoxClass superClass = (LoxClass) lookUpVariable(superExpr.keyword, superExpr.kind, superExpr.slot);
+            LoxInstance object = (LoxInstance) lookUpVariable(superExpr.keyword, superExpr.thisKind, superExpr.thisSlot);
+
+            LoxFunction method = findSuperMethod(superClass, superExpr);
+            return prepareTailCall(method, prepareFrame(call, method, object), object);
+        }
+
+        Object callee = evaluate(call.callee);
+        if (callee instanceof LoxFunction function) {
+            LoxInstance receiver = function.getReceiver();
+            return prepareTailCall(function, prepareFrame(call, function, receiver), receiver);
+        }
+        returnValue = callFunction(call, callee);
+        return Completion.RETURN;
+    }
+
+    Completion prepareTailCall(LoxFunction function, Object[] frame, LoxInstance receiver) {
+        tailCallee = function;
+        tailCallFrame = frame;
+        tailCallReceiver = receiver;
+        return Completion.TAIL_CALL;
+    }
+
+    LoxFunction takeTailCallee() {
+        LoxFunction function = tailCallee;
+        tailCallee = null;
+        return function;
+    }
+
+    Object[] takeTailCallFrame() {
+        Object[] frame = tailCallFrame;
+        tailCallFrame = null;
+        return frame;
+    }
+
+    LoxInstance takeTailCallReceiver() {
+        LoxInstance receiver = tailCallReceiver;
+        tailCallReceiver = null;
+        return receiver;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
 
         Object value = (stmt.initializer != null)
                 ? evaluate(stmt.initializer)
                 : null;
 
-        activeEnvironment.define(stmt.name.lexeme(), value);
-        return null;
+        declare(stmt.name, stmt.kind, stmt.slot, value);
+        return Completion.NORMAL;
+    }
+
+    // Each time a captured local is declared it gets a new cell, so closures created
+    // in earlier iterations of a loop keep the variable they captured.
+    private void declare(Token name, int kind, int slot, Object value) {
+        if (kind == Resolver.GLOBAL) {
+            globals.define(slot, value);
+            return;
+        }
+
+        // Function frames are sized by the Resolver, but top-level code is
+        // resolved a statement list at a time, so its frame grows as needed.
+        if (slot >= frame.length) {
+            frame = Arrays.copyOf(frame, slot + 1);
+        }
+        frame[slot] = kind == Resolver.CELL ? new Cell(value) : value;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) return completion;
+
+            if (tiers != null) {
+                StmtNode promoted = tiers.backEdge(stmt);
+                if (promoted != null) return resume(promoted);
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    // Runs the rest of a hot loop as compiled nodes, in the current frame, which they may grow.
+    private Completion resume(StmtNode loop) {
+        Frame state = new Frame(this, frame, upvalues);
+        try {
+            return loop.execute(state);
+        } finally {
+            frame = state.locals;
         }
-        return null;
     }
 }
@@ -0,0 +1,827 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translates a resolved program into the source of a Java class, which the {@link AotCompiler}
+ * compiles ahead of time.
+ * <p>
+ * Each function becomes a static method that runs as the {@link LoxFunction.Body} of its
+ * closures, and top-level code becomes the class's main method. The Resolver already decided
+ * where every variable lives: locals become Java locals named after their frame slot, captured
+ * ones hold a {@link Cell}, and globals stay in the interpreter's global table. Values are
+ * Objects, as in the interpreter, except where an expression is statically a number or a
+ * condition: nested arithmetic and comparisons compute with Java doubles and booleans, so
+ * numeric code only boxes the results it stores.
+ * <p>
+ * What the Java code can't express directly, checked operands, property access and calls,
+ * goes through {@link AotRuntime}, which keeps the interpreter's order of evaluation and its errors.
+ * <p>
+ * The JVM limits each method, static initializers included, to 64 KB of bytecode. So top-level
+ * code is split across methods, and the constants the code needs are kept in nested classes,
+ * each initializing a share of them. A function whose body is too large for one method keeps
+ * its locals in its frame instead of in Java locals, so its body can be split across methods too.
+ */
+final class JavaGenerator implements Expr.Visitor<JavaGenerator.Code>, Stmt.Visitor<Boolean> {
+
+    static final String PACKAGE = "com.craftinginterpreters.lox";
+    static final String CLASS_NAME = "CompiledScript";
+
+    // Top-level statements are split across methods, to keep each below the JVM's limit on code size.
+    private static final int STATEMENTS_PER_METHOD = 32;
+    // The most AST nodes a method is generated from. Few nodes compile to more than 20 bytes.
+    private static final int NODES_PER_METHOD = 2000;
+    // The constants each nested class initializes.
+    private static final int CONSTANTS_PER_CLASS = 256;
+
+    private enum Type {
+        OBJECT,
+        NUMBER,
+        BOOLEAN
+    }
+
+    /**
+     * A Java expression and the type of its value. An invocation can be used as a
+     * statement on its own, and anything else has to be passed to AotRuntime.ignore.
+     */
+    record Code(String text, Type type, boolean invocation) {
+        Code(String text, Type type) {
+            this(text, type, false);
+        }
+    }
+
+    // The method being generated, with the temporaries its expressions need.
+    private static class Method {
+        final StringBuilder body = new StringBuilder();
+        final List<String> temporaries = new ArrayList<>();
+        int indent = 2;
+        // The slots whose Java locals are declared in the block being generated. A variable
+        // declared again in the same scope has the same slot, so its Java local is assigned.
+        Set<Integer> declared = new HashSet<>();
+
+        // Whether the locals are kept in the frame, for a function whose body is split across methods.
+        boolean inFrame;
+    }
+
+    private final List<List<String>> constants = new ArrayList<>();
+    private final List<String> methods = new ArrayList<>();
+    private final Map<String, String> tokens = new HashMap<>();
+    private final Map<String, String> globals = new HashMap<>();
+    private final Deque<Method> enclosing = new ArrayDeque<>();
+    private Method method;
+    private int count;
+
+    String generate(List<Stmt> statements) {
+        List<String> parts = new ArrayList<>();
+        for (List<Stmt> chunk : chunks(statements)) {
+            beginMethod();
+            for (Stmt statement : chunk) {
+                statement.accept(this);
+            }
+            String name = "run" + parts.size();
+            endMethod("private static void " + name + "(Interpreter interpreter)");
+            parts.add(name);
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(PACKAGE).append(";\n\n");
+        source.append("import java.util.HashMap;\n");
+        source.append("import java.util.Map;\n\n");
+        source.append("public final class ").append(CLASS_NAME).append(" {\n\n");
+        source.append("    private static final Interpreter INTERPRETER = new Interpreter();\n");
+        source.append("    private static final Environment GLOBALS = INTERPRETER.globals;\n");
+        for (int i = 0; i < constants.size(); i++) {
+            source.append('\n');
+            source.append("    private static final class K").append(i).append(" {\n");
+            for (String constant : constants.get(i)) {
+                source.append("        ").append(constant).append('\n');
+            }
+            source.append("    }\n");
+        }
+        source.append('\n');
+        source.append("    public static void main(String[] args) {\n");
+        source.append("        try {\n");
+        for (String part : parts) {
+            source.append("            ").append(part).append("(INTERPRETER);\n");
+        }
+        source.append("        } catch (RuntimeError error) {\n");
+        source.append("            AotRuntime.runtimeError(error);\n");
+        source.append("            System.exit(70);\n");
+        source.append("        }\n");
+        source.append("    }\n");
+        for (String text : methods) {
+            source.append('\n').append(text);
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+
+    // Splits statements into runs small enough for a method each. A statement is never split.
+    private static List<List<Stmt>> chunks(List<Stmt> statements) {
+        List<List<Stmt>> chunks = new ArrayList<>();
+        List<Stmt> chunk = new ArrayList<>();
+        int nodes = 0;
+        for (Stmt statement : statements) {
+            int size = size(statement);
+            if (!chunk.isEmpty() && (chunk.size() == STATEMENTS_PER_METHOD || nodes + size > NODES_PER_METHOD)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                nodes = 0;
+            }
+            chunk.add(statement);
+            nodes += size;
+        }
+        if (!chunk.isEmpty()) chunks.add(chunk);
+        return chunks;
+    }
+
+    // The AST nodes a method's code is generated from. A nested function or class is generated
+    // as methods of its own, and only counts for creating its closures.
+    private static int size(List<Stmt> statements) {
+        int size = 0;
+        for (Stmt statement : statements) {
+            size += size(statement);
+        }
+        return size;
+    }
+
+    private static int size(Stmt stmt) {
+        if (stmt == null) return 0;
+        if (stmt instanceof Stmt.Block block) return 1 + size(block.statements);
+        if (stmt instanceof Stmt.Class klass) return 1 + klass.methods.size() + size(klass.superClass);
+        if (stmt instanceof Stmt.Expression expression) return 1 + size(expression.expression);
+        if (stmt instanceof Stmt.For loop) {
+            return 1 + size(loop.initializer) + size(loop.condition) + size(loop.increment) + size(loop.body);
+        }
+        if (stmt instanceof Stmt.If branch) {
+            return 1 + size(branch.condition) + size(branch.thenBranch) + size(branch.elseBranch);
+        }
+        if (stmt instanceof Stmt.Print print) return 1 + size(print.expression);
+        if (stmt instanceof Stmt.Return returnStmt) return 1 + size(returnStmt.value);
+        if (stmt instanceof Stmt.Var var) return 1 + size(var.initializer);
+        if (stmt instanceof Stmt.While loop) return 1 + size(loop.condition) + size(loop.body);
+        return 1;
+    }
+
+    private static int size(Expr expr) {
+        if (expr == null) return 0;
+        if (expr instanceof Expr.Assign assign) return 1 + size(assign.value);
+        if (expr instanceof Expr.Binary binary) return 1 + size(binary.left) + size(binary.right);
+        if (expr instanceof Expr.Call call) {
+            int size = 1 + size(call.callee);
+            for (Expr argument : call.arguments) {
+                size += size(argument);
+            }
+            return size;
+        }
+        if (expr instanceof Expr.Get get) return 1 + size(get.object);
+        if (expr instanceof Expr.Grouping grouping) return size(grouping.expression);
+        if (expr instanceof Expr.Inline inline) return size(inline.call);
+        if (expr instanceof Expr.Invariant invariant) return size(invariant.expression);
+        if (expr instanceof Expr.Logical logical) return 1 + size(logical.left) + size(logical.right);
+        if (expr instanceof Expr.Set set) return 1 + size(set.object) + size(set.value);
+        if (expr instanceof Expr.Unary unary) return 1 + size(unary.right);
+        return 1;
+    }
+
+    private void beginMethod() {
+        if (method != null) enclosing.push(method);
+        method = new Method();
+    }
+
+    private void endMethod(String signature) {
+        StringBuilder text = new StringBuilder();
+        text.append("    ").append(signature).append(" {\n");
+        for (String temporary : method.temporaries) {
+            text.append("        ").append(temporary).append(";\n");
+        }
+        text.append(method.body);
+        text.append("    }\n");
+        methods.add(text.toString());
+        method = enclosing.poll();
+    }
+
+    private void line(String text) {
+        method.body.append("    ".repeat(method.indent)).append(text).append('\n');
+    }
+
+    private String temporary(String type, String prefix) {
+        String name = prefix + count++;
+        method.temporaries.add(type + " " + name);
+        return name;
+    }
+
+    // A static final field for a value the code needs, such as a token for its errors.
+    private String constant(String type, String prefix, String initializer) {
+        if (constants.isEmpty() || constants.get(constants.size() - 1).size() == CONSTANTS_PER_CLASS) {
+            constants.add(new ArrayList<>());
+        }
+        String name = prefix + count++;
+        constants.get(constants.size() - 1).add("static final " + type + " " + name + " = " + initializer + ";");
+        return "K" + (constants.size() - 1) + "." + name;
+    }
+
+    private String token(Token token) {
+        String key = token.type() + " " + token.line() + " " + token.lexeme();
+        return tokens.computeIfAbsent(key, k -> constant("Token", "T",
+                "new Token(TokenType." + token.type() + ", " + string(token.lexeme()) + ", null, " + token.line() + ")"));
+    }
+
+    private String global(Token name) {
+        return globals.computeIfAbsent(name.lexeme(), k ->
+                constant("int", "G", "GLOBALS.slotOf(" + string(name.lexeme()) + ")"));
+    }
+
+    private static String string(String value) {
+        StringBuilder text = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> text.append("\\\"");
+                case '\\' -> text.append("\\\\");
+                case '\n' -> text.append("\\n");
+                case '\r' -> text.append("\\r");
+                case '\t' -> text.append("\\t");
+                default -> {
+                    if (c < ' ' || c > '~') {
+                        text.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        text.append(c);
+                    }
+                }
+            }
+        }
+        return text.append('"').toString();
+    }
+
+    private static String number(double value) {
+        if (Double.isNaN(value)) return "Double.NaN";
+        if (Double.isInfinite(value)) return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+
+        String text = Double.toString(value);
+        return text.startsWith("-") ? "(" + text + ")" : text;
+    }
+
+    private Code compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private static String object(Code code) {
+        return switch (code.type) {
+            case NUMBER -> "Double.valueOf(" + code.text + ")";
+            case BOOLEAN -> "Boolean.valueOf(" + code.text + ")";
+            default -> code.text;
+        };
+    }
+
+    // A Java double for an operand of an arithmetic operator, checked if it isn't statically a number.
+    private String number(Code code, Token operator) {
+        if (code.type == Type.NUMBER) return code.text;
+        return "AotRuntime.number(" + token(operator) + ", " + object(code) + ")";
+    }
+
+    // A Java boolean for the truthiness of an expression. 'and' and 'or' combine the truthiness of their operands.
+    private String condition(Expr expr) {
+        if (expr instanceof Expr.Grouping grouping) return condition(grouping.expression);
+        if (expr instanceof Expr.Logical logical) {
+            String operator = logical.operator.type() == TokenType.OR ? " || " : " && ";
+            return "(" + condition(logical.left) + operator + condition(logical.right) + ")";
+        }
+        if (expr instanceof Expr.Unary unary && unary.operator.type() == TokenType.BANG) {
+            return "(!" + condition(unary.right) + ")";
+        }
+
+        Code code = compile(expr);
+        return switch (code.type) {
+            case BOOLEAN -> code.text;
+            case NUMBER -> "AotRuntime.truthy(" + code.text + ")";
+            default -> "Interpreter.isTruthy(" + code.text + ")";
+        };
+    }
+
+    private String arguments(List<Expr> arguments) {
+        List<String> values = new ArrayList<>(arguments.size());
+        for (Expr argument : arguments) {
+            values.add(object(compile(argument)));
+        }
+        return String.join(", ", values);
+    }
+
+    private String argumentArray(List<Expr> arguments) {
+        return arguments.isEmpty() ? "new Object[0]" : "new Object[] {" + arguments(arguments) + "}";
+    }
+
+    private String local(int slot) {
+        return method.inFrame ? "frame[" + slot + "]" : "v" + slot;
+    }
+
+    // The cell of a captured local.
+    private String cell(int slot) {
+        return method.inFrame ? "((Cell) frame[" + slot + "])" : "v" + slot;
+    }
+
+    private String variable(Token name, int kind, int slot) {
+        return switch (kind) {
+            case Resolver.FRAME -> local(slot);
+            case Resolver.CELL -> cell(slot) + ".value";
+            case Resolver.UPVALUE -> "upvalues[" + slot + "].value";
+            case Resolver.UNINITIALIZED -> "null";
+            default -> "GLOBALS.get(" + token(name) + ", " + global(name) + ")";
+        };
+    }
+
+    // Stores to a variable, as a Java statement without its semicolon.
+    private String store(Token name, int kind, int slot, String value) {
+        return switch (kind) {
+            case Resolver.FRAME -> local(slot) + " = " + value;
+            case Resolver.CELL -> cell(slot) + ".value = " + value;
+            case Resolver.UPVALUE -> "upvalues[" + slot + "].value = " + value;
+            default -> "AotRuntime.assign(GLOBALS, " + token(name) + ", " + global(name) + ", " + value + ")";
+        };
+    }
+
+    // Declares a variable. Each time a captured local is declared it gets a new cell, as in the interpreter.
+    private void declare(Token name, int kind, int slot, String value) {
+        boolean declares = kind != Resolver.GLOBAL && !method.inFrame && method.declared.add(slot);
+        switch (kind) {
+            case Resolver.GLOBAL -> line("GLOBALS.define(" + global(name) + ", " + value + ");");
+            case Resolver.CELL -> line((declares ? "Cell " : "") + local(slot) + " = new Cell(" + value + ");");
+            default -> line((declares ? "Object " : "") + local(slot) + " = " + value + ";");
+        }
+    }
+
+    // Opens a Java block, whose locals are out of scope again once it is closed.
+    private Set<Integer> openBlock() {
+        line("{");
+        method.indent++;
+        Set<Integer> enclosing = method.declared;
+        method.declared = new HashSet<>();
+        return enclosing;
+    }
+
+    private void closeBlock(Set<Integer> enclosing) {
+        method.declared = enclosing;
+        method.indent--;
+        line("}");
+    }
+
+    @Override
+    public Code visitAssignExpr(Expr.Assign expr) {
+        String value = object(compile(expr.value));
+        if (expr.kind == Resolver.UNINITIALIZED) {
+            return new Code(value, Type.OBJECT);
+        }
+        if (expr.kind == Resolver.GLOBAL) {
+            return new Code(store(expr.name, expr.kind, expr.slot, value), Type.OBJECT, true);
+        }
+        return new Code("(" + store(expr.name, expr.kind, expr.slot, value) + ")", Type.OBJECT);
+    }
+
+    @Override
+    public Code visitBinaryExpr(Expr.Binary expr) {
+        return switch (expr.operator.type()) {
+            case MINUS -> arithmetic(expr, "-", "subtract", Type.NUMBER);
+            case STAR -> arithmetic(expr, "*", "multiply", Type.NUMBER);
+            case SLASH -> arithmetic(expr, "/", "divide", Type.NUMBER);
+            case LESS -> arithmetic(expr, "<", "less", Type.BOOLEAN);
+            case LESS_EQUAL -> arithmetic(expr, "<=", "lessEqual", Type.BOOLEAN);
+            case GREATER -> arithmetic(expr, ">", "greater", Type.BOOLEAN);
+            case GREATER_EQUAL -> arithmetic(expr, ">=", "greaterEqual", Type.BOOLEAN);
+            case PLUS -> {
+                Code left = compile(expr.left);
+                Code right = compile(expr.right);
+                if (left.type == Type.NUMBER && right.type == Type.NUMBER) {
+                    yield new Code("(" + left.text + " + " + right.text + ")", Type.NUMBER);
+                }
+                yield new Code("Interpreter.handlePlus(" + token(expr.operator) + ", " + object(left) + ", "
+                        + object(right) + ")", Type.OBJECT, true);
+            }
+            case EQUAL_EQUAL -> new Code("Interpreter.isEqual(" + object(compile(expr.left)) + ", "
+                    + object(compile(expr.right)) + ")", Type.BOOLEAN, true);
+            case BANG_EQUAL -> new Code("(!Interpreter.isEqual(" + object(compile(expr.left)) + ", "
+                    + object(compile(expr.right)) + "))", Type.BOOLEAN);
+            default -> throw new IllegalArgumentException("Unexpected operator " + expr.operator.lexeme());
+        };
+    }
+
+    /**
+     * A numeric operator. When the left operand is statically a number, it is computed
+     * and then the right one is, with its check. Otherwise both are passed to AotRuntime,
+     * which checks them once both are evaluated.
+     */
+    private Code arithmetic(Expr.Binary expr, String operator, String helper, Type type) {
+        Code left = compile(expr.left);
+        Code right = compile(expr.right);
+
+        if (left.type == Type.NUMBER) {
+            return new Code("(" + left.text + " " + operator + " " + number(right, expr.operator) + ")", type);
+        }
+        String rightText = right.type == Type.NUMBER ? right.text : object(right);
+        return new Code("AotRuntime." + helper + "(" + token(expr.operator) + ", " + object(left) + ", "
+                + rightText + ")", type, true);
+    }
+
+    @Override
+    public Code visitCallExpr(Expr.Call expr) {
+        String paren = token(expr.paren);
+
+        if (expr.callee instanceof Expr.Get get) {
+            return new Code("AotRuntime.invoke(interpreter, " + paren + ", " + method(get) + ", "
+                    + argumentArray(expr.arguments) + ")", Type.OBJECT, true);
+        }
+        if (expr.callee instanceof Expr.Super superExpr) {
+            return new Code("AotRuntime.invoke(interpreter, " + paren + ", " + superMethod(superExpr) + ", "
+                    + argumentArray(expr.arguments) + ")", Type.OBJECT, true);
+        }
+
+        String callee = object(compile(expr.callee));
+        int arity = expr.arguments.size();
+        if (arity > 3) {
+            return new Code("AotRuntime.call(interpreter, " + paren + ", " + callee + ", "
+                    + argumentArray(expr.arguments) + ")", Type.OBJECT, true);
+        }
+        String arguments = arity == 0 ? "" : ", " + arguments(expr.arguments);
+        return new Code("AotRuntime.call" + arity + "(interpreter, " + paren + ", " + callee + arguments + ")",
+                Type.OBJECT, true);
+    }
+
+    /**
+     * The receiver, method and property arguments of AotRuntime.invoke for obj.name(...). They
+     * are kept in temporaries, so the method is looked up, and the property if it isn't one,
+     * before the arguments are evaluated, as in the interpreter.
+     */
+    private String method(Expr.Get get) {
+        String cache = constant("InlineCache", "C", "new InlineCache()");
+        String name = token(get.name);
+        String receiver = temporary("LoxInstance", "r");
+        String method = temporary("LoxFunction", "m");
+
+        return receiver + " = AotRuntime.propertiesOf(" + name + ", " + object(compile(get.object)) + "), "
+                + method + " = " + cache + ".getMethod(" + receiver + ", " + name + "), "
+                + method + " == null ? " + cache + ".get(" + receiver + ", " + name + ") : null";
+    }
+
+    private String superMethod(Expr.Super expr) {
+        String site = constant("Expr.Super", "S",
+                "new Expr.Super(" + token(expr.keyword) + ", " + token(expr.method) + ")");
+        return "(LoxInstance) " + variable(expr.keyword, expr.thisKind, expr.thisSlot)
+                + ", Interpreter.findSuperMethod((LoxClass) " + variable(expr.keyword, expr.kind, expr.slot)
+                + ", " + site + "), null";
+    }
+
+    @Override
+    public Code visitGetExpr(Expr.Get expr) {
+        String cache = constant("InlineCache", "C", "new InlineCache()");
+        return new Code("AotRuntime.get(" + cache + ", " + token(expr.name) + ", " + object(compile(expr.object)) + ")",
+                Type.OBJECT, true);
+    }
+
+    @Override
+    public Code visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    // The Java compiler inlines calls itself, so the call is compiled instead of the body copied into it.
+    @Override
+    public Code visitInlineExpr(Expr.Inline expr) {
+        return visitCallExpr(expr.call);
+    }
+
+    // Hoisted expressions have no effects, so they are computed where they are, and the JVM hoists them.
+    @Override
+    public Code visitInvariantExpr(Expr.Invariant expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Code visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double value) return new Code(number(value), Type.NUMBER);
+        if (expr.value instanceof Boolean value) return new Code(value ? "Boolean.TRUE" : "Boolean.FALSE", Type.OBJECT);
+        if (expr.value instanceof String value) return new Code(string(value), Type.OBJECT);
+        return new Code("null", Type.OBJECT);
+    }
+
+    @Override
+    public Code visitLogicalExpr(Expr.Logical expr) {
+        String left = temporary("Object", "t");
+        String value = left + " = " + object(compile(expr.left));
+        String right = object(compile(expr.right));
+
+        if (expr.operator.type() == TokenType.OR) {
+            return new Code("(Interpreter.isTruthy(" + value + ") ? " + left + " : " + right + ")", Type.OBJECT);
+        }
+        return new Code("(Interpreter.isTruthy(" + value + ") ? " + right + " : " + left + ")", Type.OBJECT);
+    }
+
+    @Override
+    public Code visitSetExpr(Expr.Set expr) {
+        String cache = constant("InlineCache", "C", "new InlineCache()");
+        String name = token(expr.name);
+        return new Code("AotRuntime.set(" + cache + ", " + name + ", AotRuntime.fieldsOf(" + name + ", "
+                + object(compile(expr.object)) + "), " + object(compile(expr.value)) + ")", Type.OBJECT, true);
+    }
+
+    @Override
+    public Code visitSuperExpr(Expr.Super expr) {
+        String site = constant("Expr.Super", "S",
+                "new Expr.Super(" + token(expr.keyword) + ", " + token(expr.method) + ")");
+        return new Code("Interpreter.findSuperMethod((LoxClass) " + variable(expr.keyword, expr.kind, expr.slot)
+                + ", " + site + ").bind((LoxInstance) " + variable(expr.keyword, expr.thisKind, expr.thisSlot) + ")",
+                Type.OBJECT, true);
+    }
+
+    @Override
+    public Code visitThisExpr(Expr.This expr) {
+        return new Code(variable(expr.keyword, expr.kind, expr.slot), Type.OBJECT);
+    }
+
+    @Override
+    public Code visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type() == TokenType.BANG) {
+            return new Code("(!" + condition(expr.right) + ")", Type.BOOLEAN);
+        }
+
+        Code right = compile(expr.right);
+        if (right.type == Type.NUMBER) return new Code("(-" + right.text + ")", Type.NUMBER);
+        return new Code("AotRuntime.negate(" + token(expr.operator) + ", " + object(right) + ")", Type.NUMBER, true);
+    }
+
+    @Override
+    public Code visitVariableExpr(Expr.Variable expr) {
+        return new Code(variable(expr.name, expr.kind, expr.slot), Type.OBJECT, expr.kind == Resolver.GLOBAL);
+    }
+
+    // Statements return whether they can complete normally. Java rejects statements that can't be
+    // reached, so the statements of a list after one that always returns are left out.
+
+    private boolean generate(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private boolean generateAll(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (!generate(statement)) return false;
+        }
+        return true;
+    }
+
+    // Generates statements in a Java block of their own.
+    private boolean block(List<Stmt> statements) {
+        Set<Integer> enclosing = openBlock();
+        boolean completes = generateAll(statements);
+        closeBlock(enclosing);
+        return completes;
+    }
+
+    @Override
+    public Boolean visitBlockStmt(Stmt.Block stmt) {
+        return block(stmt.statements);
+    }
+
+    /**
+     * The class is declared before its methods are created, and 'super' is declared in a Java
+     * block around them, as it is in a scope of its own. Its slot may be reused by a later local.
+     */
+    @Override
+    public Boolean visitClassStmt(Stmt.Class stmt) {
+        String superclass = null;
+        if (stmt.superClass != null) {
+            superclass = "s" + count++;
+            line("Object " + superclass + " = " + object(compile(stmt.superClass)) + ";");
+            line("if (!(" + superclass + " instanceof LoxClass)) {");
+            line("    throw new RuntimeError(" + token(stmt.superClass.name) + ", \"Superclass must be a class.\");");
+            line("}");
+        }
+
+        declare(stmt.name, stmt.kind, stmt.slot, "null");
+        Set<Integer> enclosing = openBlock();
+        if (stmt.superClass != null) {
+            declare(stmt.superClass.name, stmt.superKind, stmt.superSlot, superclass);
+        }
+
+        String methods = "methods" + count++;
+        line("Map<String, LoxFunction> " + methods + " = new HashMap<>();");
+        for (Stmt.Function declaration : stmt.methods) {
+            FunctionType type = declaration.name.lexeme().equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            line(methods + ".put(" + string(declaration.name.lexeme()) + ", " + closure(declaration, type) + ");");
+        }
+
+        String klass = "new LoxClass(" + string(stmt.name.lexeme()) + ", "
+                + (superclass != null ? "(LoxClass) " + superclass : "null") + ", " + methods + ")";
+        line(store(stmt.name, stmt.kind, stmt.slot, klass) + ";");
+        closeBlock(enclosing);
+        return true;
+    }
+
+    @Override
+    public Boolean visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign assign && assign.kind != Resolver.UNINITIALIZED) {
+            line(store(assign.name, assign.kind, assign.slot, object(compile(assign.value))) + ";");
+            return true;
+        }
+
+        Code code = compile(stmt.expression);
+        line(code.invocation ? code.text + ";" : "AotRuntime.ignore(" + object(code) + ");");
+        return true;
+    }
+
+    /**
+     * Loops test their condition at the top of an endless Java loop, so that Java
+     * never sees a constant condition and a loop can always complete normally.
+     */
+    @Override
+    public Boolean visitForStmt(Stmt.For stmt) {
+        Set<Integer> enclosing = openBlock();
+        if (stmt.initializer != null) {
+            generate(stmt.initializer);
+        }
+        line("while (true) {");
+        method.indent++;
+        line("if (!" + condition(stmt.condition) + ") break;");
+        boolean completes = generate(stmt.body);
+        if (completes && stmt.increment != null) {
+            visitExpressionStmt(new Stmt.Expression(stmt.increment));
+        }
+        method.indent--;
+        line("}");
+        closeBlock(enclosing);
+        return true;
+    }
+
+    @Override
+    public Boolean visitFunctionStmt(Stmt.Function stmt) {
+        String closure = closure(stmt, FunctionType.FUNCTION);
+
+        // Declared before the closure is created, so a local function can capture itself.
+        if (stmt.kind == Resolver.CELL) {
+            declare(stmt.name, stmt.kind, stmt.slot, "null");
+            line(store(stmt.name, stmt.kind, stmt.slot, closure) + ";");
+        } else {
+            declare(stmt.name, stmt.kind, stmt.slot, closure);
+        }
+        return true;
+    }
+
+    /**
+     * Generates the method of a function's body, and returns the Java expression that
+     * creates a closure of it, capturing cells from the code being generated.
+     * <p>
+     * The frame of a function holds only its parameters, which are copied to Java locals, unless
+     * its body is too large for one method. Then the frame holds all its locals, and each part of
+     * the body is a method that returns the completion of a return, or null to go on to the next.
+     */
+    private String closure(Stmt.Function function, FunctionType type) {
+        int parameters = function.params.size() + (type == FunctionType.FUNCTION ? 0 : 1);
+        boolean split = size(function.body) > NODES_PER_METHOD;
+        int id = count++;
+        String declaration = constant("Stmt.Function", "F", "AotRuntime.declaration("
+                + string(function.name.lexeme()) + ", " + function.name.line() + ", " + function.params.size() + ", "
+                + (split ? function.frameSize : parameters) + ", " + intArray(function.capturedParameters) + ")");
+        String name = "f" + id + "_" + function.name.lexeme();
+        String signature = "(Interpreter interpreter, Object[] frame, Cell[] upvalues)";
+
+        if (split) {
+            List<String> parts = new ArrayList<>();
+            for (List<Stmt> chunk : chunks(function.body)) {
+                beginMethod();
+                method.inFrame = true;
+                boolean completes = generateAll(chunk);
+                if (completes) line("return null;");
+                String part = name + "_" + parts.size();
+                endMethod("private static Completion " + part + signature);
+                parts.add(part);
+                if (!completes) break;
+            }
+
+            beginMethod();
+            String completion = temporary("Completion", "c");
+            for (String part : parts) {
+                line("if ((" + completion + " = " + part + "(interpreter, frame, upvalues)) != null) return "
+                        + completion + ";");
+            }
+            line("return Completion.NORMAL;");
+        } else {
+            beginMethod();
+            for (int slot = 0; slot < parameters; slot++) {
+                method.declared.add(slot);
+                if (contains(function.capturedParameters, slot)) {
+                    line("Cell " + local(slot) + " = (Cell) frame[" + slot + "];");
+                } else {
+                    line("Object " + local(slot) + " = frame[" + slot + "];");
+                }
+            }
+            if (generateAll(function.body)) {
+                line("return Completion.NORMAL;");
+            }
+        }
+        endMethod("private static Completion " + name + signature);
+
+        return "new LoxFunction(" + declaration + ", " + upvalues(function) + ", FunctionType." + type + ", "
+                + CLASS_NAME + "::" + name + ")";
+    }
+
+    // The cells a new closure captures, from the locals of the code creating it or from its own closure.
+    private String upvalues(Stmt.Function function) {
+        if (function.upvalueIndexes.length == 0) return "AotRuntime.NO_UPVALUES";
+
+        List<String> cells = new ArrayList<>();
+        for (int i = 0; i < function.upvalueIndexes.length; i++) {
+            int index = function.upvalueIndexes[i];
+            cells.add(function.upvalueIsLocal[i] ? cell(index) : "upvalues[" + index + "]");
+        }
+        return "new Cell[] {" + String.join(", ", cells) + "}";
+    }
+
+    private static String intArray(int[] values) {
+        List<String> texts = new ArrayList<>(values.length);
+        for (int value : values) {
+            texts.add(Integer.toString(value));
+        }
+        return "new int[] {" + String.join(", ", texts) + "}";
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int candidate : values) {
+            if (candidate == value) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Boolean visitIfStmt(Stmt.If stmt) {
+        line("if (" + condition(stmt.condition) + ") {");
+        method.indent++;
+        boolean thenCompletes = generate(stmt.thenBranch);
+        method.indent--;
+        if (stmt.elseBranch == null) {
+            line("}");
+            return true;
+        }
+
+        line("} else {");
+        method.indent++;
+        boolean elseCompletes = generate(stmt.elseBranch);
+        method.indent--;
+        line("}");
+        return thenCompletes || elseCompletes;
+    }
+
+    @Override
+    public Boolean visitPrintStmt(Stmt.Print stmt) {
+        line("System.out.println(Interpreter.stringify(" + object(compile(stmt.expression)) + "));");
+        return true;
+    }
+
+    @Override
+    public Boolean visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            line("return " + tailCall((Expr.Call) stmt.value) + ";");
+        } else if (stmt.value == null) {
+            line("return interpreter.returnWith(null);");
+        } else {
+            line("return interpreter.returnWith(" + object(compile(stmt.value)) + ");");
+        }
+        return false;
+    }
+
+    // A call in tail position to a Lox function is left to the calling LoxFunction, as in the interpreter.
+    private String tailCall(Expr.Call call) {
+        String paren = token(call.paren);
+        if (call.callee instanceof Expr.Get get) {
+            return "AotRuntime.tailInvoke(interpreter, " + paren + ", " + method(get) + ", "
+                    + argumentArray(call.arguments) + ")";
+        }
+        if (call.callee instanceof Expr.Super superExpr) {
+            return "AotRuntime.tailInvoke(interpreter, " + paren + ", " + superMethod(superExpr) + ", "
+                    + argumentArray(call.arguments) + ")";
+        }
+        return "AotRuntime.tailCall(interpreter, " + paren + ", " + object(compile(call.callee)) + ", "
+                + argumentArray(call.arguments) + ")";
+    }
+
+    @Override
+    public Boolean visitVarStmt(Stmt.Var stmt) {
+        String value = stmt.initializer != null ? object(compile(stmt.initializer)) : "null";
+        declare(stmt.name, stmt.kind, stmt.slot, value);
+        return true;
+    }
+
+    @Override
+    public Boolean visitWhileStmt(Stmt.While stmt) {
+        line("while (true) {");
+        method.indent++;
+        line("if (!" + condition(stmt.condition) + ") break;");
+        generate(stmt.body);
+        method.indent--;
+        line("}");
+        return true;
+    }
+}
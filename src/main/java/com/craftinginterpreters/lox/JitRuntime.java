@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * The operations that code compiled by the {@link JvmCompiler} calls out to. Whenever one of
+ * them finds a value the code wasn't compiled for, it throws a {@link Deoptimization}, which
+ * unwinds to the call that entered compiled code, to be run by the interpreter instead.
+ */
+final class JitRuntime {
+
+    private static final Deoptimization DEOPTIMIZATION = new Deoptimization();
+
+    // Thrown to leave compiled code. It is only ever caught, so it needs no stack trace.
+    static final class Deoptimization extends RuntimeException {
+        private Deoptimization() {
+            super(null, null, false, false);
+        }
+    }
+
+    private JitRuntime() {
+    }
+
+    static Deoptimization deoptimize() {
+        return DEOPTIMIZATION;
+    }
+
+    static double global(JvmCompiler jit, int slot) {
+        if (jit.globals.peek(slot) instanceof Double value) return value;
+        throw DEOPTIMIZATION;
+    }
+
+    // Whether a global still holds a function of the declaration, for calls a function makes to itself.
+    static boolean holds(JvmCompiler jit, int slot, Stmt.Function declaration) {
+        return jit.globals.peek(slot) instanceof LoxFunction function && function.isDeclaredBy(declaration);
+    }
+
+    // Lox compares numbers with equals, so NaN equals itself and 0 doesn't equal -0.
+    static boolean equal(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+    static double call0(JvmCompiler jit, int slot) {
+        return jit.compiledGlobal(slot, 0).call0();
+    }
+
+    static double call1(JvmCompiler jit, int slot, double a) {
+        return jit.compiledGlobal(slot, 1).call1(a);
+    }
+
+    static double call2(JvmCompiler jit, int slot, double a, double b) {
+        return jit.compiledGlobal(slot, 2).call2(a, b);
+    }
+
+    static double call3(JvmCompiler jit, int slot, double a, double b, double c) {
+        return jit.compiledGlobal(slot, 3).call3(a, b, c);
+    }
+}
@@ -0,0 +1,558 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.lox.jvm.ClassWriter;
+import com.craftinginterpreters.lox.jvm.ClassWriter.Code;
+import com.craftinginterpreters.lox.jvm.ClassWriter.Label;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.craftinginterpreters.lox.jvm.ClassWriter.*;
+
+/**
+ * Compiles hot Lox functions to JVM bytecode, each into a hidden class of its own.
+ * <p>
+ * Each function counts its calls, and once it has been called {@code threshold} times it is compiled,
+ * if it can be. Only functions that compute with numbers are: their parameters and locals become
+ * double locals of a JVM method, and arithmetic and comparisons become the JVM's instructions on
+ * unboxed doubles. They may read numeric globals, call themselves and other global functions,
+ * but have no other effects: they don't print, assign globals, use instances or create closures.
+ * <p>
+ * That is what lets the compiled code skip checks. Whatever it can't be sure of, such as the
+ * value of a global, a call to another function or a function that returns nil, it checks as
+ * it runs. When a check fails the compiled call is abandoned, and since nothing it did can be
+ * seen, the interpreter runs the call again from the start. The compiled code isn't used after that.
+ */
+public class JvmCompiler {
+
+    public static final int DEFAULT_THRESHOLD = 1000;
+    // Arity of the calls to other functions that have an entry point in JitRuntime.
+    private static final int MAX_CALL_ARITY = 3;
+
+    private static final String RUNTIME = "com/craftinginterpreters/lox/JitRuntime";
+    private static final String COMPILER = "Lcom/craftinginterpreters/lox/JvmCompiler;";
+    private static final String DECLARATION = "Lcom/craftinginterpreters/lox/Stmt$Function;";
+
+    final Environment globals;
+    private final int threshold;
+
+    public JvmCompiler(Environment globals, int threshold) {
+        this.globals = globals;
+        this.threshold = threshold;
+    }
+
+    // Thrown when a function uses something the compiler doesn't handle.
+    private static class NotCompilable extends RuntimeException {
+        NotCompilable() {
+            super(null, null, false, false);
+        }
+    }
+
+    private enum Kind {
+        NUMBER,
+        BOOLEAN
+    }
+
+    /**
+     * Runs a call of the function compiled, counting it first. Returns null if the function
+     * isn't hot yet, can't be compiled, or the compiled code can't run this call.
+     */
+    Object run(Stmt.Function declaration, Object[] frame) {
+        CompiledFunction compiled = declaration.compiled;
+        if (compiled == null) {
+            if (++declaration.calls < threshold) return null;
+            compiled = compile(declaration);
+        }
+        return compiled.run(frame);
+    }
+
+    // The compiled code of the function a global holds, for compiled code that calls it.
+    CompiledFunction compiledGlobal(int slot, int arity) {
+        if (globals.peek(slot) instanceof LoxFunction function && function.isPlainFunction()
+                && function.arity() == arity) {
+            CompiledFunction compiled = compiled(function.getDeclaration());
+            if (compiled.isValid()) return compiled;
+        }
+        throw JitRuntime.deoptimize();
+    }
+
+    // The compiled code of the function, compiling it first if that hasn't been tried yet.
+    CompiledFunction compiled(Stmt.Function declaration) {
+        return declaration.compiled != null ? declaration.compiled : compile(declaration);
+    }
+
+    private CompiledFunction compile(Stmt.Function declaration) {
+        CompiledFunction compiled;
+        try {
+            compiled = define(declaration);
+        } catch (NotCompilable e) {
+            compiled = CompiledFunction.NOT_COMPILABLE;
+        }
+        declaration.compiled = compiled;
+        return compiled;
+    }
+
+    private CompiledFunction define(Stmt.Function declaration) {
+        if (declaration.upvalueIndexes.length > 0 || declaration.capturedParameters.length > 0) {
+            throw new NotCompilable();
+        }
+
+        int arity = declaration.params.size();
+        String descriptor = "(" + "D".repeat(arity) + ")D";
+        ClassWriter writer = new ClassWriter("com/craftinginterpreters/lox/Compiled$" + declaration.name.lexeme());
+        writer.addField(ACC_STATIC, "jit", COMPILER);
+        writer.addField(ACC_STATIC, "self", DECLARATION);
+
+        new FunctionCompiler(writer, declaration, descriptor).compile();
+        writeEntry(writer, arity, descriptor);
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+            Class<?> compiledClass = lookup.lookupClass();
+            lookup.findStaticVarHandle(compiledClass, "jit", JvmCompiler.class).set(this);
+            lookup.findStaticVarHandle(compiledClass, "self", Stmt.Function.class).set(declaration);
+
+            Class<?>[] parameters = new Class<?>[arity];
+            Arrays.fill(parameters, double.class);
+            MethodHandle entry = lookup.findStatic(compiledClass, "entry",
+                    MethodType.methodType(Object.class, Object[].class));
+            MethodHandle invoke = lookup.findStatic(compiledClass, "invoke",
+                    MethodType.methodType(double.class, parameters));
+            return new CompiledFunction(entry, invoke, arity);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Code the verifier rejects is a bug here, but the interpreter can still run the function.
+            throw new NotCompilable();
+        }
+    }
+
+    // The entry point from the interpreter unboxes the arguments from the frame and boxes the result.
+    private static void writeEntry(ClassWriter writer, int arity, String descriptor) {
+        Code code = writer.addMethod(ACC_STATIC, "entry", "([Ljava/lang/Object;)Ljava/lang/Object;");
+        for (int i = 0; i < arity; i++) {
+            code.local(ALOAD, 0);
+            code.constant(i);
+            code.op(AALOAD, -1);
+            code.type(CHECKCAST, "java/lang/Double");
+            code.invoke(INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+        }
+        code.invoke(INVOKESTATIC, writer.getName(), "invoke", descriptor);
+        code.invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+        code.op(ARETURN, -1);
+        code.finish(1);
+    }
+
+    /**
+     * Compiles the body of one function into its "invoke" method. Each frame slot the Resolver
+     * gave a local becomes a pair of JVM local slots holding a double. Expressions leave a double
+     * or, for conditions, an int on the stack, and anything else can't be compiled.
+     */
+    private static class FunctionCompiler implements Expr.Visitor<Kind>, Stmt.Visitor<Void> {
+
+        private final ClassWriter writer;
+        private final Stmt.Function function;
+        private final String descriptor;
+        private final Code code;
+        private final Label start = new Label();
+        // Slots whose current variable was declared without a value, so it may hold nil.
+        private final Set<Integer> nilSlots = new HashSet<>();
+        // The first JVM local past the frame, used to hold the arguments of self tail calls.
+        private final int temporaries;
+
+        FunctionCompiler(ClassWriter writer, Stmt.Function function, String descriptor) {
+            this.writer = writer;
+            this.function = function;
+            this.descriptor = descriptor;
+            this.code = writer.addMethod(ACC_STATIC, "invoke", descriptor);
+            this.temporaries = function.frameSize * 2;
+        }
+
+        void compile() {
+            code.place(start);
+            for (Stmt statement : function.body) {
+                statement.accept(this);
+            }
+            // Falling off the end returns nil, which the compiled code can't.
+            deoptimize();
+
+            // Jumps are 16-bit offsets.
+            if (code.length() > Short.MAX_VALUE) throw new NotCompilable();
+            code.finish(temporaries + function.params.size() * 2);
+        }
+
+        private Kind compile(Expr expr) {
+            return expr.accept(this);
+        }
+
+        private void number(Expr expr) {
+            if (compile(expr) != Kind.NUMBER) throw new NotCompilable();
+        }
+
+        private void bool(Expr expr) {
+            if (compile(expr) != Kind.BOOLEAN) throw new NotCompilable();
+        }
+
+        private void deoptimize() {
+            code.invoke(INVOKESTATIC, RUNTIME, "deoptimize", "()L" + RUNTIME + "$Deoptimization;");
+            code.op(ATHROW, -1);
+        }
+
+        // Jumps to the label when the condition is falsey. Numbers are always truthy.
+        private void condition(Expr expr, Label falsey) {
+            if (compile(expr) == Kind.BOOLEAN) {
+                code.jump(IFEQ, falsey);
+            } else {
+                code.op(POP2, -2);
+            }
+        }
+
+        // Pushes 1 if the comparison jump isn't taken, else 0.
+        private void compareTo(int compare, int jumpIfFalse) {
+            Label isFalse = new Label();
+            Label end = new Label();
+            code.op(compare, -3);
+            code.jump(jumpIfFalse, isFalse);
+            code.op(ICONST_1, 1);
+            code.jump(GOTO, end);
+            code.place(isFalse);
+            code.op(ICONST_0, 1);
+            code.place(end);
+        }
+
+        private int local(int slot) {
+            return slot * 2;
+        }
+
+        @Override
+        public Kind visitAssignExpr(Expr.Assign expr) {
+            if (expr.kind != Resolver.FRAME) throw new NotCompilable();
+
+            number(expr.value);
+            code.op(DUP2, 2);
+            code.local(DSTORE, local(expr.slot));
+            return Kind.NUMBER;
+        }
+
+        @Override
+        public Kind visitBinaryExpr(Expr.Binary expr) {
+            Kind left = compile(expr.left);
+            Kind right = compile(expr.right);
+
+            switch (expr.operator.type()) {
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    if (left != right) throw new NotCompilable();
+                    if (left == Kind.NUMBER) {
+                        code.invoke(INVOKESTATIC, RUNTIME, "equal", "(DD)Z");
+                        if (expr.operator.type() == TokenType.BANG_EQUAL) {
+                            code.op(ICONST_1, 1);
+                            code.op(IXOR, -1);
+                        }
+                    } else {
+                        code.op(IXOR, -1);
+                        if (expr.operator.type() == TokenType.EQUAL_EQUAL) {
+                            code.op(ICONST_1, 1);
+                            code.op(IXOR, -1);
+                        }
+                    }
+                    return Kind.BOOLEAN;
+                default:
+                    break;
+            }
+
+            if (left != Kind.NUMBER || right != Kind.NUMBER) throw new NotCompilable();
+
+            // A comparison with NaN is false, so each one uses the compare instruction that gives NaN the false side.
+            switch (expr.operator.type()) {
+                case PLUS -> code.op(DADD, -2);
+                case MINUS -> code.op(DSUB, -2);
+                case STAR -> code.op(DMUL, -2);
+                case SLASH -> code.op(DDIV, -2);
+                case LESS -> compareTo(DCMPG, IFGE);
+                case LESS_EQUAL -> compareTo(DCMPG, IFGT);
+                case GREATER -> compareTo(DCMPL, IFLE);
+                case GREATER_EQUAL -> compareTo(DCMPL, IFLT);
+                default -> throw new NotCompilable();
+            }
+            return switch (expr.operator.type()) {
+                case PLUS, MINUS, STAR, SLASH -> Kind.NUMBER;
+                default -> Kind.BOOLEAN;
+            };
+        }
+
+        @Override
+        public Kind visitCallExpr(Expr.Call expr) {
+            if (!(expr.callee instanceof Expr.Variable callee) || callee.kind != Resolver.GLOBAL) {
+                throw new NotCompilable();
+            }
+
+            if (isSelf(callee)) {
+                guardSelf();
+                for (Expr argument : expr.arguments) {
+                    number(argument);
+                }
+                if (expr.arguments.size() != function.params.size()) throw new NotCompilable();
+                code.invoke(INVOKESTATIC, writer.getName(), "invoke", descriptor);
+                return Kind.NUMBER;
+            }
+
+            int arity = expr.arguments.size();
+            if (arity > MAX_CALL_ARITY) throw new NotCompilable();
+
+            code.field(GETSTATIC, writer.getName(), "jit", COMPILER);
+            code.constant(callee.slot);
+            for (Expr argument : expr.arguments) {
+                number(argument);
+            }
+            code.invoke(INVOKESTATIC, RUNTIME, "call" + arity, "(" + COMPILER + "I" + "D".repeat(arity) + ")D");
+            return Kind.NUMBER;
+        }
+
+        // Whether a call is to the global this function was declared as.
+        private boolean isSelf(Expr.Variable callee) {
+            return function.kind == Resolver.GLOBAL && callee.slot == function.slot;
+        }
+
+        // The global may have been given another value since the function was compiled.
+        private void guardSelf() {
+            Label holds = new Label();
+            code.field(GETSTATIC, writer.getName(), "jit", COMPILER);
+            code.constant(function.slot);
+            code.field(GETSTATIC, writer.getName(), "self", DECLARATION);
+            code.invoke(INVOKESTATIC, RUNTIME, "holds", "(" + COMPILER + "I" + DECLARATION + ")Z");
+            code.jump(IFNE, holds);
+            deoptimize();
+            code.place(holds);
+        }
+
+        @Override
+        public Kind visitGetExpr(Expr.Get expr) {
+            throw new NotCompilable();
+        }
+
+        @Override
+        public Kind visitGroupingExpr(Expr.Grouping expr) {
+            return compile(expr.expression);
+        }
+
+        @Override
+        public Kind visitInlineExpr(Expr.Inline expr) {
+            throw new NotCompilable();
+        }
+
+        // The JVM hoists what it can itself, so the expression is computed where it is.
+        @Override
+        public Kind visitInvariantExpr(Expr.Invariant expr) {
+            return compile(expr.expression);
+        }
+
+        @Override
+        public Kind visitLiteralExpr(Expr.Literal expr) {
+            if (expr.value instanceof Double number) {
+                code.constant(number);
+                return Kind.NUMBER;
+            }
+            if (expr.value instanceof Boolean bool) {
+                code.op(bool ? ICONST_1 : ICONST_0, 1);
+                return Kind.BOOLEAN;
+            }
+            throw new NotCompilable();
+        }
+
+        // Only booleans are combined, so the result is always one of them.
+        @Override
+        public Kind visitLogicalExpr(Expr.Logical expr) {
+            Label end = new Label();
+            bool(expr.left);
+            code.op(DUP, 1);
+            code.jump(expr.operator.type() == TokenType.OR ? IFNE : IFEQ, end);
+            code.op(POP, -1);
+            bool(expr.right);
+            code.place(end);
+            return Kind.BOOLEAN;
+        }
+
+        @Override
+        public Kind visitSetExpr(Expr.Set expr) {
+            throw new NotCompilable();
+        }
+
+        @Override
+        public Kind visitSuperExpr(Expr.Super expr) {
+            throw new NotCompilable();
+        }
+
+        @Override
+        public Kind visitThisExpr(Expr.This expr) {
+            throw new NotCompilable();
+        }
+
+        @Override
+        public Kind visitUnaryExpr(Expr.Unary expr) {
+            Kind right = compile(expr.right);
+            if (expr.operator.type() == TokenType.MINUS) {
+                if (right != Kind.NUMBER) throw new NotCompilable();
+                code.op(DNEG, 0);
+                return Kind.NUMBER;
+            }
+
+            // A number is truthy, so its negation is false.
+            if (right == Kind.NUMBER) {
+                code.op(POP2, -2);
+                code.op(ICONST_0, 1);
+            } else {
+                code.op(ICONST_1, 1);
+                code.op(IXOR, -1);
+            }
+            return Kind.BOOLEAN;
+        }
+
+        @Override
+        public Kind visitVariableExpr(Expr.Variable expr) {
+            if (expr.kind == Resolver.GLOBAL) {
+                code.field(GETSTATIC, writer.getName(), "jit", COMPILER);
+                code.constant(expr.slot);
+                code.invoke(INVOKESTATIC, RUNTIME, "global", "(" + COMPILER + "I)D");
+                return Kind.NUMBER;
+            }
+            if (expr.kind != Resolver.FRAME || nilSlots.contains(expr.slot)) throw new NotCompilable();
+
+            code.local(DLOAD, local(expr.slot));
+            return Kind.NUMBER;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            throw new NotCompilable();
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            if (compile(stmt.expression) == Kind.NUMBER) {
+                code.op(POP2, -2);
+            } else {
+                code.op(POP, -1);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            if (stmt.initializer != null) {
+                stmt.initializer.accept(this);
+            }
+
+            Label loop = new Label();
+            Label exit = new Label();
+            code.place(loop);
+            condition(stmt.condition, exit);
+            stmt.body.accept(this);
+            if (stmt.increment != null) {
+                visitExpressionStmt(new Stmt.Expression(stmt.increment));
+            }
+            code.jump(GOTO, loop);
+            code.place(exit);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            throw new NotCompilable();
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            Label elseBranch = new Label();
+            condition(stmt.condition, elseBranch);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch == null) {
+                code.place(elseBranch);
+                return null;
+            }
+
+            Label end = new Label();
+            code.jump(GOTO, end);
+            code.place(elseBranch);
+            stmt.elseBranch.accept(this);
+            code.place(end);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            throw new NotCompilable();
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value == null) {
+                deoptimize();
+                return null;
+            }
+
+            if (stmt.tailCall && stmt.value instanceof Expr.Call call
+                    && call.callee instanceof Expr.Variable callee && callee.kind == Resolver.GLOBAL
+                    && isSelf(callee) && call.arguments.size() == function.params.size()) {
+                selfTailCall(call.arguments);
+                return null;
+            }
+
+            number(stmt.value);
+            code.op(DRETURN, -2);
+            return null;
+        }
+
+        // A call a function makes to itself in tail position starts the body again with the new arguments.
+        private void selfTailCall(List<Expr> arguments) {
+            guardSelf();
+            for (int i = 0; i < arguments.size(); i++) {
+                number(arguments.get(i));
+                code.local(DSTORE, temporaries + i * 2);
+            }
+            for (int i = 0; i < arguments.size(); i++) {
+                code.local(DLOAD, temporaries + i * 2);
+                code.local(DSTORE, local(i));
+            }
+            code.jump(GOTO, start);
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if (stmt.kind != Resolver.FRAME) throw new NotCompilable();
+
+            if (stmt.initializer == null) {
+                code.constant(0.0);
+                nilSlots.add(stmt.slot);
+            } else {
+                number(stmt.initializer);
+                nilSlots.remove(stmt.slot);
+            }
+            code.local(DSTORE, local(stmt.slot));
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            Label loop = new Label();
+            Label exit = new Label();
+            code.place(loop);
+            condition(stmt.condition, exit);
+            stmt.body.accept(this);
+            code.jump(GOTO, loop);
+            code.place(exit);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,859 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Moves loop-invariant expressions out of while and for loops.
+ * <p>
+ * An expression is invariant in a loop if it is pure, and nothing in the loop can change what
+ * it reads. Calls, assignments and property sets are effects, so expressions containing them are
+ * never moved. A variable is invariant if the loop doesn't assign or declare it. If the loop makes
+ * calls, those could assign any global or variable a closure can assign, so only the function's own
+ * locals that no closure assigns stay invariant. Properties are only invariant in loops without
+ * calls and property sets.
+ * <p>
+ * Each invariant expression is replaced by an {@link Expr.Invariant} with a fresh temporary,
+ * declared in a block around the loop so that it is cleared each time the loop starts.
+ * The expression is still evaluated where it was, the first time it is reached, so it reports the
+ * same errors at the same point. Later iterations reuse the value. Values the temporary can't hold
+ * are evaluated every time: nil, which marks an empty temporary, and callables, as every
+ * property get of a method makes a new bound method.
+ * <p>
+ * The pass runs before the Resolver, so the temporaries are resolved like any other local.
+ * Their names contain '$', which no identifier in the source can.
+ */
+public class LoopHoister implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    // What the code being walked can see: the locals of the function it is in,
+    // and the variables that the closures in that function assign.
+    private static class Context {
+        final Stack<Set<String>> scopes = new Stack<>();
+        final Set<String> assignedByClosures;
+
+        Context(Set<String> assignedByClosures) {
+            this.assignedByClosures = assignedByClosures;
+        }
+    }
+
+    private final Stack<Context> contexts = new Stack<>();
+    private final List<String> report = new ArrayList<>();
+    private int hoisted;
+
+    public List<Stmt> hoist(List<Stmt> statements) {
+        contexts.push(new Context(Effects.assignedByClosures(statements)));
+        List<Stmt> result = hoistAll(statements);
+        contexts.pop();
+        return result;
+    }
+
+    // One line for each expression that was moved, for the debug dump.
+    public List<String> getReport() {
+        return report;
+    }
+
+    private List<Stmt> hoistAll(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt hoisted = hoist(statement);
+            result.add(hoisted);
+            changed |= hoisted != statement;
+        }
+        return changed ? result : statements;
+    }
+
+    private Stmt hoist(Stmt statement) {
+        return statement == null ? null : statement.accept(this);
+    }
+
+    private Expr hoist(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private List<Expr> hoistAllExpressions(List<Expr> expressions) {
+        List<Expr> result = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for (Expr expr : expressions) {
+            Expr hoisted = hoist(expr);
+            result.add(hoisted);
+            changed |= hoisted != expr;
+        }
+        return changed ? result : expressions;
+    }
+
+    private void beginScope() {
+        contexts.peek().scopes.push(new HashSet<>());
+    }
+
+    private void endScope() {
+        contexts.peek().scopes.pop();
+    }
+
+    private void declare(Token name) {
+        Stack<Set<String>> scopes = contexts.peek().scopes;
+        if (!scopes.isEmpty()) scopes.peek().add(name.lexeme());
+    }
+
+    // Whether a name is a local of the current function that no closure assigns.
+    private boolean isPrivateLocal(String name) {
+        Context context = contexts.peek();
+        if (context.assignedByClosures.contains(name)) return false;
+        for (Set<String> scope : context.scopes) {
+            if (scope.contains(name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites one loop: its condition, increment and body, including any loops nested in it,
+     * but not the functions declared in it, which run in frames of their own.
+     * Returns the loop unchanged if nothing is invariant, or else a block declaring the temporaries
+     * followed by the rewritten loop.
+     */
+    private Stmt hoistLoop(Stmt loop, int line) {
+        Effects effects = Effects.ofLoop(loop);
+        Rewriter rewriter = new Rewriter(effects, line);
+        Stmt rewritten = loop.accept(rewriter);
+        if (rewriter.temporaries.isEmpty()) return loop;
+
+        List<Stmt> block = new ArrayList<>();
+        for (Token temporary : rewriter.temporaries) {
+            block.add(new Stmt.Var(temporary, null));
+        }
+        block.add(rewritten);
+        return new Stmt.Block(block);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        // Loops nested in the body are handled first, so their invariants are moved to the innermost
+        // loop they are invariant in. This loop then treats those temporaries as invariant.
+        Expr condition = hoist(stmt.condition);
+        Stmt body = hoist(stmt.body);
+        Stmt.While loop = (condition == stmt.condition && body == stmt.body)
+                ? stmt
+                : new Stmt.While(condition, body);
+        return hoistLoop(loop, lineOf(stmt.condition));
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        beginScope();
+        Stmt initializer = hoist(stmt.initializer);
+        Expr condition = hoist(stmt.condition);
+        Expr increment = hoist(stmt.increment);
+        Stmt body = hoist(stmt.body);
+        endScope();
+
+        Stmt.For loop = (initializer == stmt.initializer && condition == stmt.condition
+                && increment == stmt.increment && body == stmt.body)
+                ? stmt
+                : new Stmt.For(initializer, condition, increment, body);
+        return hoistLoop(loop, lineOf(stmt.condition));
+    }
+
+    private static int lineOf(Expr expr) {
+        Token token = Effects.firstToken(expr);
+        return token != null ? token.line() : 0;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        List<Stmt> statements = hoistAll(stmt.statements);
+        endScope();
+        if (statements == stmt.statements) return stmt;
+
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name);
+
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        boolean changed = false;
+        for (Stmt.Function method : stmt.methods) {
+            Stmt.Function hoisted = hoistFunction(method);
+            methods.add(hoisted);
+            changed |= hoisted != method;
+        }
+        if (!changed) return stmt;
+
+        return new Stmt.Class(stmt.name, stmt.superClass, methods);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = hoist(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name);
+        return hoistFunction(stmt);
+    }
+
+    private Stmt.Function hoistFunction(Stmt.Function function) {
+        contexts.push(new Context(Effects.assignedByClosures(function.body)));
+        beginScope();
+        function.params.forEach(this::declare);
+        List<Stmt> body = hoistAll(function.body);
+        contexts.pop();
+        if (body == function.body) return function;
+
+        return new Stmt.Function(function.name, function.params, body);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = hoist(stmt.condition);
+        Stmt thenBranch = hoist(stmt.thenBranch);
+        Stmt elseBranch = hoist(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = hoist(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = hoist(stmt.value);
+        if (value == stmt.value) return stmt;
+
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = hoist(stmt.initializer);
+        declare(stmt.name);
+        if (initializer == stmt.initializer) return stmt;
+
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = hoist(expr.value);
+        if (value == expr.value) return expr;
+
+        return new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = hoist(expr.left);
+        Expr right = hoist(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = hoist(expr.callee);
+        List<Expr> arguments = hoistAllExpressions(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments) return expr;
+
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = hoist(expr.object);
+        if (object == expr.object) return expr;
+
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = hoist(expr.expression);
+        if (expression == expr.expression) return expr;
+
+        return new Expr.Grouping(expression);
+    }
+
+    // An inlined body runs in the caller's frame, so loops in it are hoisted like the caller's own.
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        Expr.Call call = (Expr.Call) hoist(expr.call);
+        beginScope();
+        expr.params.forEach(this::declare);
+        List<Stmt> body = hoistAll(expr.body);
+        endScope();
+        if (call == expr.call && body == expr.body) return expr;
+
+        return new Expr.Inline(call, expr.function, expr.params, body);
+    }
+
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = hoist(expr.left);
+        Expr right = hoist(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = hoist(expr.object);
+        Expr value = hoist(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = hoist(expr.right);
+        if (right == expr.right) return expr;
+
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    /**
+     * Replaces the largest invariant expressions in one loop with temporaries. Functions declared
+     * in the loop and inlined bodies are left alone: they are calls, and run code of their own.
+     */
+    private class Rewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+        private final Effects effects;
+        private final int line;
+        final List<Token> temporaries = new ArrayList<>();
+
+        Rewriter(Effects effects, int line) {
+            this.effects = effects;
+            this.line = line;
+        }
+
+        private Expr rewrite(Expr expr) {
+            if (expr == null) return null;
+            if (isWorthHoisting(expr) && isInvariant(expr)) {
+                Token name = new Token(TokenType.IDENTIFIER, "invariant$" + ++hoisted,
+                        null, line);
+                temporaries.add(name);
+                report.add("[line " + line + "] hoisted out of loop: " + new AstPrinter().print(expr));
+                return new Expr.Invariant(name, expr);
+            }
+            return expr.accept(this);
+        }
+
+        private Stmt rewrite(Stmt statement) {
+            return statement == null ? null : statement.accept(this);
+        }
+
+        // Reading a variable or a literal is as quick as reading the temporary would be.
+        private boolean isWorthHoisting(Expr expr) {
+            if (expr instanceof Expr.Grouping grouping) return isWorthHoisting(grouping.expression);
+            if (expr instanceof Expr.Get) return true;
+            return (expr instanceof Expr.Binary || expr instanceof Expr.Unary || expr instanceof Expr.Logical)
+                    && readsState(expr);
+        }
+
+        // Whether an expression reads anything but literals, which the Optimizer folds instead.
+        private boolean readsState(Expr expr) {
+            if (expr instanceof Expr.Literal) return false;
+            if (expr instanceof Expr.Grouping grouping) return readsState(grouping.expression);
+            if (expr instanceof Expr.Unary unary) return readsState(unary.right);
+            if (expr instanceof Expr.Binary binary) return readsState(binary.left) || readsState(binary.right);
+            if (expr instanceof Expr.Logical logical) return readsState(logical.left) || readsState(logical.right);
+            return true;
+        }
+
+        private boolean isInvariant(Expr expr) {
+            if (expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+            // Moved out of a nested loop, but it may still change between iterations of this one.
+            if (expr instanceof Expr.Invariant invariant) return isInvariant(invariant.expression);
+            if (expr instanceof Expr.Variable variable) {
+                String name = variable.name.lexeme();
+                if (effects.assigned.contains(name) || effects.declared.contains(name)) return false;
+                return !effects.calls || isPrivateLocal(name);
+            }
+            if (expr instanceof Expr.Grouping grouping) return isInvariant(grouping.expression);
+            if (expr instanceof Expr.Unary unary) return isInvariant(unary.right);
+            if (expr instanceof Expr.Binary binary) return isInvariant(binary.left) && isInvariant(binary.right);
+            if (expr instanceof Expr.Logical logical) return isInvariant(logical.left) && isInvariant(logical.right);
+            if (expr instanceof Expr.Get get) return !effects.calls && !effects.sets && isInvariant(get.object);
+            // Calls, assignments, sets, inlined calls and super.
+            return false;
+        }
+
+        private List<Expr> rewriteAll(List<Expr> expressions) {
+            List<Expr> result = new ArrayList<>(expressions.size());
+            boolean changed = false;
+            for (Expr expr : expressions) {
+                Expr rewritten = rewrite(expr);
+                result.add(rewritten);
+                changed |= rewritten != expr;
+            }
+            return changed ? result : expressions;
+        }
+
+        private List<Stmt> rewriteStatements(List<Stmt> statements) {
+            List<Stmt> result = new ArrayList<>(statements.size());
+            boolean changed = false;
+            for (Stmt statement : statements) {
+                Stmt rewritten = rewrite(statement);
+                result.add(rewritten);
+                changed |= rewritten != statement;
+            }
+            return changed ? result : statements;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            Expr value = rewrite(expr.value);
+            if (value == expr.value) return expr;
+
+            return new Expr.Assign(expr.name, value);
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            Expr left = rewrite(expr.left);
+            Expr right = rewrite(expr.right);
+            if (left == expr.left && right == expr.right) return expr;
+
+            return new Expr.Binary(left, expr.operator, right);
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            Expr callee = rewrite(expr.callee);
+            List<Expr> arguments = rewriteAll(expr.arguments);
+            if (callee == expr.callee && arguments == expr.arguments) return expr;
+
+            return new Expr.Call(callee, expr.paren, arguments);
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr) {
+            Expr object = rewrite(expr.object);
+            if (object == expr.object) return expr;
+
+            return new Expr.Get(object, expr.name);
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            Expr expression = rewrite(expr.expression);
+            if (expression == expr.expression) return expr;
+
+            return new Expr.Grouping(expression);
+        }
+
+        @Override
+        public Expr visitInlineExpr(Expr.Inline expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitInvariantExpr(Expr.Invariant expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            Expr left = rewrite(expr.left);
+            Expr right = rewrite(expr.right);
+            if (left == expr.left && right == expr.right) return expr;
+
+            return new Expr.Logical(left, expr.operator, right);
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            Expr object = rewrite(expr.object);
+            Expr value = rewrite(expr.value);
+            if (object == expr.object && value == expr.value) return expr;
+
+            return new Expr.Set(object, expr.name, value);
+        }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            Expr right = rewrite(expr.right);
+            if (right == expr.right) return expr;
+
+            return new Expr.Unary(expr.operator, right);
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            return expr;
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt) {
+            List<Stmt> statements = rewriteStatements(stmt.statements);
+            if (statements == stmt.statements) return stmt;
+
+            return new Stmt.Block(statements);
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+            Expr expression = rewrite(stmt.expression);
+            if (expression == stmt.expression) return stmt;
+
+            return new Stmt.Expression(expression);
+        }
+
+        // The initializer of a for loop runs once, so only the loop's own initializer is left as it is.
+        @Override
+        public Stmt visitForStmt(Stmt.For stmt) {
+            Stmt initializer = stmt.initializer;
+            Expr condition = rewrite(stmt.condition);
+            Expr increment = rewrite(stmt.increment);
+            Stmt body = rewrite(stmt.body);
+            if (condition == stmt.condition && increment == stmt.increment && body == stmt.body) return stmt;
+
+            return new Stmt.For(initializer, condition, increment, body);
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.Function stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitIfStmt(Stmt.If stmt) {
+            Expr condition = rewrite(stmt.condition);
+            Stmt thenBranch = rewrite(stmt.thenBranch);
+            Stmt elseBranch = rewrite(stmt.elseBranch);
+            if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+                return stmt;
+            }
+            return new Stmt.If(condition, thenBranch, elseBranch);
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt) {
+            Expr expression = rewrite(stmt.expression);
+            if (expression == stmt.expression) return stmt;
+
+            return new Stmt.Print(expression);
+        }
+
+        @Override
+        public Stmt visitReturnStmt(Stmt.Return stmt) {
+            Expr value = rewrite(stmt.value);
+            if (value == stmt.value) return stmt;
+
+            return new Stmt.Return(stmt.keyword, value);
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt) {
+            Expr initializer = rewrite(stmt.initializer);
+            if (initializer == stmt.initializer) return stmt;
+
+            return new Stmt.Var(stmt.name, initializer);
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt) {
+            Expr condition = rewrite(stmt.condition);
+            Stmt body = rewrite(stmt.body);
+            if (condition == stmt.condition && body == stmt.body) return stmt;
+
+            return new Stmt.While(condition, body);
+        }
+    }
+
+    /**
+     * The effects of a piece of code: the variables it assigns and declares, and whether it makes
+     * calls or sets properties. Functions declared in it are only walked into when asked for.
+     */
+    private static class Effects implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+        final Set<String> assigned = new HashSet<>();
+        final Set<String> declared = new HashSet<>();
+        boolean calls;
+        boolean sets;
+        private final boolean intoFunctions;
+
+        private Effects(boolean intoFunctions) {
+            this.intoFunctions = intoFunctions;
+        }
+
+        // The effects of running a loop. Its initializer, which runs once, doesn't count.
+        static Effects ofLoop(Stmt loop) {
+            Effects effects = new Effects(false);
+            if (loop instanceof Stmt.For forLoop) {
+                effects.visit(forLoop.condition);
+                effects.visit(forLoop.increment);
+                effects.visit(forLoop.body);
+            } else {
+                loop.accept(effects);
+            }
+            return effects;
+        }
+
+        // The variables that some function declared in the code assigns.
+        static Set<String> assignedByClosures(List<Stmt> statements) {
+            Set<String> byClosures = new HashSet<>();
+            Effects finder = new Effects(false) {
+                @Override
+                public Void visitFunctionStmt(Stmt.Function stmt) {
+                    Effects body = new Effects(true);
+                    stmt.body.forEach(body::visit);
+                    byClosures.addAll(body.assigned);
+                    return null;
+                }
+
+                @Override
+                public Void visitClassStmt(Stmt.Class stmt) {
+                    stmt.methods.forEach(this::visitFunctionStmt);
+                    return null;
+                }
+            };
+            statements.forEach(finder::visit);
+            return byClosures;
+        }
+
+        // The first token of an expression, to tell which line it is on.
+        static Token firstToken(Expr expr) {
+            if (expr instanceof Expr.Binary binary) return binary.operator;
+            if (expr instanceof Expr.Logical logical) return logical.operator;
+            if (expr instanceof Expr.Unary unary) return unary.operator;
+            if (expr instanceof Expr.Variable variable) return variable.name;
+            if (expr instanceof Expr.Assign assign) return assign.name;
+            if (expr instanceof Expr.Call call) return call.paren;
+            if (expr instanceof Expr.Get get) return get.name;
+            if (expr instanceof Expr.Set set) return set.name;
+            if (expr instanceof Expr.Grouping grouping) return firstToken(grouping.expression);
+            return null;
+        }
+
+        void visit(Stmt statement) {
+            if (statement != null) statement.accept(this);
+        }
+
+        void visit(Expr expr) {
+            if (expr != null) expr.accept(this);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            assigned.add(expr.name.lexeme());
+            visit(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            visit(expr.left);
+            visit(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            calls = true;
+            visit(expr.callee);
+            expr.arguments.forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            visit(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            visit(expr.expression);
+            return null;
+        }
+
+        // An inlined call may run the original function, so it counts as a call.
+        @Override
+        public Void visitInlineExpr(Expr.Inline expr) {
+            visitCallExpr(expr.call);
+            expr.params.forEach(param -> declared.add(param.lexeme()));
+            expr.body.forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visitInvariantExpr(Expr.Invariant expr) {
+            visit(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            visit(expr.left);
+            visit(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            sets = true;
+            visit(expr.object);
+            visit(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            visit(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            stmt.statements.forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            declared.add(stmt.name.lexeme());
+            if (intoFunctions) stmt.methods.forEach(method -> method.body.forEach(this::visit));
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            visit(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            visit(stmt.initializer);
+            visit(stmt.condition);
+            visit(stmt.increment);
+            visit(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            declared.add(stmt.name.lexeme());
+            if (intoFunctions) stmt.body.forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            visit(stmt.condition);
+            visit(stmt.thenBranch);
+            visit(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            visit(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            visit(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            declared.add(stmt.name.lexeme());
+            visit(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            visit(stmt.condition);
+            visit(stmt.body);
+            return null;
+        }
+    }
+}
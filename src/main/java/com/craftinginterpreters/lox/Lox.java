@@ -1,37 +1,107 @@
 package com.craftinginterpreters.lox;
 
 import com.craftinginterpreters.lox.scanner.Scanner;
+import com.craftinginterpreters.lox.vm.ObjFunction;
+import com.craftinginterpreters.lox.vm.VM;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
 
     private static final Interpreter interpreter = new Interpreter();
+    private static final VM vm = new VM();
+    private static final NodeCompiler nodeCompiler = new NodeCompiler(interpreter);
+    private static boolean useVm = false;
+    private static boolean useNodes = false;
+    private static boolean dumpSpecializations = false;
+    private static boolean dumpAst = false;
+    private static boolean traceTiers = false;
+    private static boolean useCache = true;
+    private static int inlineThreshold = Inliner.DEFAULT_THRESHOLD;
     private static boolean hadError = false;
     private static boolean hadRuntimeError;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        useVm = arguments.remove("--vm");
+        useNodes = arguments.remove("--nodes");
+        dumpSpecializations = arguments.remove("--dump-specializations");
+        dumpAst = arguments.remove("--dump-ast");
+        // The AST dump is of the passes the cache skips.
+        useCache = !arguments.remove("--no-cache") && !dumpAst;
+
+        String threshold = option(arguments, "--inline-threshold=");
+        if (threshold != null) {
+            inlineThreshold = Integer.parseInt(threshold);
+        }
+
+        // Giving a threshold turns the JIT on too.
+        boolean useJit = arguments.remove("--jit");
+        String jitThreshold = option(arguments, "--jit-threshold=");
+        int bytecodeThreshold = jitThreshold != null ? Integer.parseInt(jitThreshold) : JvmCompiler.DEFAULT_THRESHOLD;
+
+        // Tracing or giving a threshold turns tiered execution on too. Its top tier is the JIT.
+        boolean tiered = arguments.remove("--tiered");
+        traceTiers = arguments.remove("--trace-tiers");
+        String callThreshold = option(arguments, "--tier-calls=");
+        String backEdgeThreshold = option(arguments, "--tier-back-edges=");
+        if (tiered || traceTiers || callThreshold != null || backEdgeThreshold != null) {
+            interpreter.tiers = new TieredExecution(interpreter,
+                    callThreshold != null ? Integer.parseInt(callThreshold) : TieredExecution.DEFAULT_CALL_THRESHOLD,
+                    bytecodeThreshold,
+                    backEdgeThreshold != null ? Integer.parseInt(backEdgeThreshold) : TieredExecution.DEFAULT_BACK_EDGE_THRESHOLD,
+                    traceTiers);
+        } else if (useJit || jitThreshold != null) {
+            interpreter.jit = new JvmCompiler(interpreter.globals, bytecodeThreshold);
+        }
+
+        if (arguments.size() >= 2 && arguments.size() <= 3 && arguments.get(0).equals("compile")) {
+            String script = arguments.get(1);
+            String jar = arguments.size() == 3 ? arguments.get(2) : script.replaceAll("\\.lox$", "") + ".jar";
+            compileFile(script, jar);
+            return;
+        }
+
+        if (arguments.size() > 1) {
+            System.out.println("Usage: jlox [--vm | --nodes [--dump-specializations]] [--jit | --jit-threshold=<calls>] [--tiered] [--trace-tiers] [--tier-calls=<calls>] [--tier-back-edges=<count>] [--dump-ast] [--inline-threshold=<nodes>] [--no-cache] [script]");
+            System.out.println("       jlox compile <script> [jar]");
             return;
         }
 
-        if (args.length == 1){
-            runFile(args[0]);
+        if (arguments.size() == 1){
+            runFile(arguments.get(0));
         } else {
             runPrompt();
         }
     }
 
+    // Removes an option of the form --name=value from the arguments, returning its value.
+    private static String option(List<String> arguments, String prefix) {
+        for (String argument : arguments) {
+            if (argument.startsWith(prefix)) {
+                arguments.remove(argument);
+                return argument.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        if (useCache) {
+            runCached(Paths.get(path), bytes);
+        } else {
+            run(new String(bytes, Charset.defaultCharset()));
+        }
 
         if (hadError)
             System.exit(65);
@@ -40,6 +110,21 @@ public class Lox {
             System.exit(70);
     }
 
+    private static void compileFile(String path, String jar) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        List<Stmt> statements = prepare(new String(bytes, Charset.defaultCharset()));
+
+        if (hadError)
+            System.exit(65);
+
+        try {
+            new AotCompiler().compile(statements, Paths.get(jar));
+        } catch (AotCompiler.CompileError error) {
+            System.err.println(error.getMessage());
+            System.exit(70);
+        }
+    }
+
     private static void runPrompt() throws IOException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 
@@ -53,23 +138,83 @@ public class Lox {
         }
     }
 
+    // Runs a script from its cache file if that is up to date, and caches it otherwise.
+    private static void runCached(Path script, byte[] bytes) {
+        AstCache cache = new AstCache(interpreter.globals, inlineThreshold);
+        Path file = AstCache.cacheFile(script);
+
+        List<Stmt> statements = cache.load(file, bytes);
+        if (statements == null) {
+            statements = prepare(new String(bytes, Charset.defaultCharset()));
+
+            // Stop if there was a syntax or resolution error.
+            if (hadError) return;
+
+            cache.store(file, bytes, statements);
+        }
+        execute(statements);
+    }
+
     private static void run(String source) {
+        List<Stmt> statements = prepare(source);
+
+        // Stop if there was a syntax or resolution error.
+        if (hadError) return;
+
+        execute(statements);
+    }
+
+    private static void execute(List<Stmt> statements) {
+        if (useVm) {
+            ObjFunction script = new BytecodeCompiler(vm).compile(statements);
+
+            // Stop if there was a compile error
+            if (hadError) return;
+
+            vm.interpret(script);
+        } else if (useNodes) {
+            nodeCompiler.interpret(statements);
+            if (dumpSpecializations) {
+                nodeCompiler.getSpecializations().forEach(System.out::println);
+            }
+        } else {
+            interpreter.interpret(statements);
+            if (traceTiers) {
+                interpreter.tiers.getTiers().forEach(line -> System.err.println("[tiers] " + line));
+            }
+        }
+
+    }
+
+    // Parses, resolves and optimizes a program, up to where running and compiling it part ways.
+    private static List<Stmt> prepare(String source) {
         List<Token> tokens = Scanner.scanTokens(source);
 
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
 
         // Stop if there was a syntax error.
-        if (hadError) return;
+        if (hadError) return null;
 
-        Resolver resolver = new Resolver(interpreter);
+        statements = new Inliner(inlineThreshold).inline(statements);
+
+        LoopHoister hoister = new LoopHoister();
+        statements = hoister.hoist(statements);
+
+        Resolver resolver = new Resolver(interpreter.globals);
         resolver.resolve(statements);
 
         // Stop if there was a resolution error
-        if (hadError) return;
+        if (hadError) return null;
 
-        interpreter.interpret(statements);
+        statements = new Optimizer().optimize(statements);
+
+        if (dumpAst) {
+            hoister.getReport().forEach(System.out::println);
+            System.out.println(new AstPrinter().print(statements));
+        }
 
+        return statements;
     }
 
     public static void error(int line, String message){
@@ -94,7 +239,7 @@ public class Lox {
     }
 
     public static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.getToken().line()+ "]");
+        System.err.println(error.getMessage() + "\n[line " + error.getLine()+ "]");
         hadRuntimeError = true;
     }
 }
@@ -1,9 +1,30 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
+/**
+ * Anything that can be called from Lox.
+ * <p>
+ * The fixed-arity entry points let the interpreter pass the arguments of
+ * common calls directly, without collecting them into an array first.
+ * By default they fall back to the array variant.
+ */
 public interface LoxCallable {
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object call(Interpreter interpreter, Object[] arguments);
 
     int arity();
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, new Object[] {a});
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, new Object[] {a, b});
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, new Object[] {a, b, c});
+    }
 }
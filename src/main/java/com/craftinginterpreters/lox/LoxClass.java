@@ -1,19 +1,28 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 
 // todo: add static methods that can be called directly on the  class itself.
 public class LoxClass implements LoxCallable{
 
     private final String name;
+    // Own and inherited methods, flattened when the class is defined so lookups never walk the superclass chain.
     private final Map<String, LoxFunction> methods;
     private final LoxClass superclass;
+    private final LoxFunction initializer;
+
+    // Instances start out with this shape and share the shapes they transition to.
+    private final Shape rootShape;
+    // The most fields an instance of this class has had, used to size new instances.
+    private int fieldCountHint;
 
     public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
-        this.methods = methods;
         this.superclass = superclass;
+        this.methods = flatten(superclass, methods);
+        this.initializer = this.methods.get("init");
+        this.rootShape = new Shape();
     }
 
     @Override
@@ -22,33 +31,70 @@ public class LoxClass implements LoxCallable{
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
-        if (initializer != null){
-            initializer.bind(instance).call(interpreter, arguments);
-        }
-        return instance;
+        if (initializer == null) return instance;
+
+        return initializer.invoke(interpreter, instance, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer == null) return instance;
+
+        return initializer.invoke0(interpreter, instance);
+    }
+
+    // Calls with arguments only get past the arity check if the class has an initializer.
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return initializer.invoke1(interpreter, new LoxInstance(this), a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return initializer.invoke2(interpreter, new LoxInstance(this), a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return initializer.invoke3(interpreter, new LoxInstance(this), a, b, c);
     }
 
     @Override
     public int arity() {
-        LoxFunction init = findMethod("init");
-        if (init == null) return 0;
-        return init.arity();
+        if (initializer == null) return 0;
+        return initializer.arity();
     }
 
     public String getName() {
         return name;
     }
 
-    public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)){
-            return methods.get(name);
-        }
-        if (superclass != null){
-            return superclass.findMethod(name);
+    public Shape getRootShape() {
+        return rootShape;
+    }
+
+    public int getFieldCountHint() {
+        return fieldCountHint;
+    }
+
+    public void growFieldCountHint(int fieldCount) {
+        if (fieldCount > fieldCountHint) {
+            fieldCountHint = fieldCount;
         }
-        return null;
+    }
+
+    public LoxFunction findMethod(String name) {
+        return methods.get(name);
+    }
+
+    private static Map<String, LoxFunction> flatten(LoxClass superclass, Map<String, LoxFunction> methods) {
+        if (superclass == null) return Map.copyOf(methods);
+
+        Map<String, LoxFunction> table = new HashMap<>(superclass.methods);
+        table.putAll(methods);
+        return Map.copyOf(table);
     }
 }
@@ -1,40 +1,181 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
 public class LoxFunction implements LoxCallable {
 
+    /**
+     * Runs the body of a call in the given frame, with the cells of the closure being called.
+     * The tree walking interpreter and compiled nodes each run bodies their own way, and share
+     * the rest: frames, binding, initializers and tail calls. A body hands its return value or
+     * tail call to the interpreter, as a return statement does.
+     */
+    interface Body {
+        Completion run(Interpreter interpreter, Object[] frame, Cell[] upvalues);
+    }
+
     private final Stmt.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    // The cells of the variables the function captured from the functions around it.
+    private final Cell[] upvalues;
+    private final FunctionType type;
+    private final Body body;
+    // The instance a method was bound to, null for plain functions and unbound methods.
+    private final LoxInstance receiver;
+
+    // A function whose body is run by the tree walking interpreter.
+    public LoxFunction(Stmt.Function declaration, Cell[] upvalues, FunctionType type) {
+        this(declaration, upvalues, type,
+                (interpreter, frame, cells) -> interpreter.executeBody(declaration.body, frame, cells));
+    }
+
+    LoxFunction(Stmt.Function declaration, Cell[] upvalues, FunctionType type, Body body) {
+        this(declaration, upvalues, type, body, null);
+    }
 
-    public LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
-        this.isInitializer = isInitializer;
+    private LoxFunction(Stmt.Function declaration, Cell[] upvalues, FunctionType type, Body body,
+                        LoxInstance receiver) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
+        this.type = type;
+        this.body = body;
+        this.receiver = receiver;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke0(interpreter, receiver);
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+    public Object call1(Interpreter interpreter, Object a) {
+        return invoke1(interpreter, receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return invoke2(interpreter, receiver, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return invoke3(interpreter, receiver, a, b, c);
+    }
+
+    // The invoke methods call the function with the given receiver as 'this',
+    // so invoking a method directly on an instance doesn't need a bound function.
+
+    Object invoke(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        Object[] frame = newFrame(receiver);
+        System.arraycopy(arguments, 0, frame, parameterOffset(), arguments.length);
+        return execute(interpreter, frame, receiver);
+    }
+
+    Object invoke0(Interpreter interpreter, LoxInstance receiver) {
+        return execute(interpreter, newFrame(receiver), receiver);
+    }
+
+    Object invoke1(Interpreter interpreter, LoxInstance receiver, Object a) {
+        Object[] frame = newFrame(receiver);
+        int slot = parameterOffset();
+        frame[slot] = a;
+        return execute(interpreter, frame, receiver);
+    }
+
+    Object invoke2(Interpreter interpreter, LoxInstance receiver, Object a, Object b) {
+        Object[] frame = newFrame(receiver);
+        int slot = parameterOffset();
+        frame[slot] = a;
+        frame[slot + 1] = b;
+        return execute(interpreter, frame, receiver);
+    }
 
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme(), arguments.get(i));
+    Object invoke3(Interpreter interpreter, LoxInstance receiver, Object a, Object b, Object c) {
+        Object[] frame = newFrame(receiver);
+        int slot = parameterOffset();
+        frame[slot] = a;
+        frame[slot + 1] = b;
+        frame[slot + 2] = c;
+        return execute(interpreter, frame, receiver);
+    }
+
+    /**
+     * Creates the frame for a call, with room for every local the function declares.
+     * Methods keep 'this' in slot zero, and the arguments follow it.
+     */
+    Object[] newFrame(LoxInstance receiver) {
+        Object[] frame = new Object[declaration.frameSize];
+        if (type != FunctionType.FUNCTION) {
+            frame[0] = receiver;
         }
+        return frame;
+    }
+
+    // The frame slot of the first parameter.
+    int parameterOffset() {
+        return type == FunctionType.FUNCTION ? 0 : 1;
+    }
+
+    // Runs the function in the given frame. Tail calls made by the body
+    // come back here to be run in the same loop instead of nesting.
+    Object execute(Interpreter interpreter, Object[] frame, LoxInstance receiver) {
+        LoxFunction function = this;
+        while (true) {
+            if (function.type == FunctionType.FUNCTION && interpreter.jit != null) {
+                Object value = interpreter.jit.run(function.declaration, frame);
+                if (value != null) return value;
+            }
+
+            Body body = function.body;
+            if (interpreter.tiers != null) {
+                Body promoted = interpreter.tiers.enter(function);
+                if (promoted != null) body = promoted;
+            }
+
+            function.captureParameters(frame);
+            Completion completion = body.run(interpreter, frame, function.upvalues);
 
-        try {
-            // We use a custom exception to handle return values.
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue){
-            if (isInitializer){
-                return closure.getAt(0, "this");
+            if (completion == Completion.TAIL_CALL) {
+                function = interpreter.takeTailCallee();
+                frame = interpreter.takeTailCallFrame();
+                receiver = interpreter.takeTailCallReceiver();
+                continue;
             }
-            return returnValue.value;
+
+            Object value = completion == Completion.RETURN ? interpreter.takeReturnValue() : null;
+
+            if (function.type == FunctionType.INITIALIZER) {
+                return receiver;
+            }
+            return value;
         }
-        if (isInitializer) {
-            return closure.getAt(0, "this");
+    }
+
+    // The arguments are passed in the frame, so the ones that closures capture are moved into cells.
+    private void captureParameters(Object[] frame) {
+        for (int slot : declaration.capturedParameters) {
+            frame[slot] = new Cell(frame[slot]);
         }
-        return null;
+    }
+
+    // The Optimizer may rebuild a declaration, but it keeps its name token, so the token identifies it.
+    boolean isDeclaredBy(Stmt.Function declaration) {
+        return this.declaration.name == declaration.name;
+    }
+
+    Stmt.Function getDeclaration() {
+        return declaration;
+    }
+
+    // Whether the function is a plain one, not a method, which the JvmCompiler can compile.
+    boolean isPlainFunction() {
+        return type == FunctionType.FUNCTION;
+    }
+
+    LoxInstance getReceiver() {
+        return receiver;
     }
 
     @Override
@@ -48,8 +189,6 @@ public class LoxFunction implements LoxCallable {
     }
 
     public LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, upvalues, type, body, instance);
     }
 }
@@ -1,21 +1,23 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
 
     private final LoxClass klass;
-    private final Map<String, Object> fields;
+    private Shape shape;
+    private Object[] fields;
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
-        fields = new HashMap<>();
+        this.shape = klass.getRootShape();
+        this.fields = new Object[klass.getFieldCountHint()];
     }
 
     public Object get(Token name){
-        if (fields.containsKey(name.lexeme())){
-            return fields.get(name.lexeme());
+        int slot = shape.slotOf(name.lexeme());
+        if (slot != -1){
+            return fields[slot];
         }
 
         LoxFunction method = klass.findMethod(name.lexeme());
@@ -23,11 +25,43 @@ public class LoxInstance {
             return method.bind(this);
         }
 
-        throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.'");
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
     }
 
     public void set(Token name, Object value) {
-        fields.put(name.lexeme(), value);
+        int slot = shape.slotOf(name.lexeme());
+        if (slot == -1) {
+            addField(shape.withField(name.lexeme()), value);
+        } else {
+            fields[slot] = value;
+        }
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    public LoxClass getKlass() {
+        return klass;
+    }
+
+    public Object getField(int slot) {
+        return fields[slot];
+    }
+
+    public void setField(int slot, Object value) {
+        fields[slot] = value;
+    }
+
+    // Moves the instance to the next shape, whose last slot is the new field.
+    public void addField(Shape next, Object value) {
+        int slot = next.size() - 1;
+        if (slot == fields.length) {
+            fields = Arrays.copyOf(fields, next.size());
+        }
+        shape = next;
+        fields[slot] = value;
+        klass.growFieldCountHint(next.size());
     }
 
     @Override
@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * An expression compiled by the {@link NodeCompiler}. Everything the interpreter decides
+ * each time it visits an expression, such as the operator or where a variable lives,
+ * has been decided when the node was made, so executing it only does the work.
+ */
+@FunctionalInterface
+interface Node {
+    Object execute(Frame frame);
+}
@@ -0,0 +1,707 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a resolved list of statements into a tree of nodes and runs it.
+ * <p>
+ * Each node is a lambda linked directly to the nodes of its operands. The decisions the
+ * interpreter makes on every visit, which operator a binary expression applies, where a
+ * variable lives and how many arguments a call passes, are made once here by choosing the
+ * lambda. The nodes run on the interpreter's runtime: its globals, functions, classes and
+ * instances, so the two can be compared on the same programs. Functions declared by compiled
+ * code run their bodies as nodes too, through their {@link LoxFunction.Body}.
+ */
+public class NodeCompiler implements Expr.Visitor<Node>, Stmt.Visitor<StmtNode> {
+
+    private static final Cell[] NO_UPVALUES = new Cell[0];
+
+    private final Environment globals;
+    // Top-level code keeps its frame from one statement list to the next, as in the interpreter.
+    private final Frame topLevel;
+    // Whether the code being compiled runs in the top-level frame, which grows as it declares locals.
+    private boolean atTopLevel = true;
+    // The operator sites that specialize themselves, kept to report what they specialized to.
+    private final List<BinaryNode> binarySites = new ArrayList<>();
+
+    // Calls a callee that has already been evaluated, with the arguments of one call site.
+    @FunctionalInterface
+    private interface Caller {
+        Object call(Frame frame, Object callee);
+    }
+
+    // Stores a value to a variable, either declaring it or assigning it.
+    @FunctionalInterface
+    private interface Store {
+        void store(Frame frame, Object value);
+    }
+
+    public NodeCompiler(Interpreter interpreter) {
+        this.globals = interpreter.globals;
+        this.topLevel = new Frame(interpreter, new Object[0], NO_UPVALUES);
+    }
+
+    public void interpret(List<Stmt> statements) {
+        binarySites.clear();
+        StmtNode[] nodes = compileAll(statements);
+        try {
+            for (StmtNode node : nodes) {
+                if (node.execute(topLevel) != Completion.NORMAL) break;
+            }
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    // One line for each operator site of the last statement list run, with the specialization it has now.
+    public List<String> getSpecializations() {
+        List<String> lines = new ArrayList<>(binarySites.size());
+        for (BinaryNode site : binarySites) {
+            lines.add(site.describe());
+        }
+        return lines;
+    }
+
+    private Node compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private StmtNode compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Node[] compileExpressions(List<Expr> expressions) {
+        Node[] nodes = new Node[expressions.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(expressions.get(i));
+        }
+        return nodes;
+    }
+
+    private StmtNode[] compileAll(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        return nodes;
+    }
+
+    private static Completion executeAll(StmtNode[] statements, Frame frame) {
+        for (StmtNode statement : statements) {
+            Completion completion = statement.execute(frame);
+            if (completion != Completion.NORMAL) return completion;
+        }
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr) {
+        Node value = compile(expr.value);
+        Token name = expr.name;
+        int slot = expr.slot;
+        return switch (expr.kind) {
+            // The value is evaluated before the variable is found, as it may grow the top-level frame.
+            case Resolver.FRAME -> frame -> {
+                Object result = value.execute(frame);
+                frame.locals[slot] = result;
+                return result;
+            };
+            case Resolver.CELL -> frame -> {
+                Object result = value.execute(frame);
+                ((Cell) frame.locals[slot]).value = result;
+                return result;
+            };
+            case Resolver.UPVALUE -> frame -> {
+                Object result = value.execute(frame);
+                frame.upvalues[slot].value = result;
+                return result;
+            };
+            case Resolver.UNINITIALIZED -> value;
+            default -> frame -> {
+                Object result = value.execute(frame);
+                globals.assign(name, slot, result);
+                return result;
+            };
+        };
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+
+        return switch (operator.type()) {
+            case PLUS, MINUS, STAR, SLASH, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+                BinaryNode site = new BinaryNode(operator, left, right);
+                binarySites.add(site);
+                yield site;
+            }
+            case EQUAL_EQUAL -> frame -> Interpreter.isEqual(left.execute(frame), right.execute(frame));
+            case BANG_EQUAL -> frame -> !Interpreter.isEqual(left.execute(frame), right.execute(frame));
+            default -> frame -> {
+                left.execute(frame);
+                right.execute(frame);
+                return null;
+            };
+        };
+    }
+
+    @Override
+    public Node visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get get) {
+            return invokeMethod(expr, get);
+        }
+        if (expr.callee instanceof Expr.Super superExpr) {
+            return invokeSuperMethod(expr, superExpr);
+        }
+
+        Node callee = compile(expr.callee);
+        Caller caller = caller(expr, compileExpressions(expr.arguments));
+        return frame -> caller.call(frame, callee.execute(frame));
+    }
+
+    // Calls through the fixed-arity entry points, for up to three arguments, as the interpreter does.
+    private static Caller caller(Expr.Call expr, Node[] arguments) {
+        switch (arguments.length) {
+            case 0:
+                return (frame, callee) -> Interpreter.checkCallable(expr, callee, 0).call0(frame.interpreter);
+            case 1: {
+                Node first = arguments[0];
+                return (frame, callee) -> {
+                    Object a = first.execute(frame);
+                    return Interpreter.checkCallable(expr, callee, 1).call1(frame.interpreter, a);
+                };
+            }
+            case 2: {
+                Node first = arguments[0];
+                Node second = arguments[1];
+                return (frame, callee) -> {
+                    Object a = first.execute(frame);
+                    Object b = second.execute(frame);
+                    return Interpreter.checkCallable(expr, callee, 2).call2(frame.interpreter, a, b);
+                };
+            }
+            case 3: {
+                Node first = arguments[0];
+                Node second = arguments[1];
+                Node third = arguments[2];
+                return (frame, callee) -> {
+                    Object a = first.execute(frame);
+                    Object b = second.execute(frame);
+                    Object c = third.execute(frame);
+                    return Interpreter.checkCallable(expr, callee, 3).call3(frame.interpreter, a, b, c);
+                };
+            }
+            default:
+                return (frame, callee) -> {
+                    Object[] values = new Object[arguments.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = arguments[i].execute(frame);
+                    }
+                    return Interpreter.checkCallable(expr, callee, values.length).call(frame.interpreter, values);
+                };
+        }
+    }
+
+    // A call of the form obj.method(args) runs the method with obj as 'this', without binding it.
+    private Node invokeMethod(Expr.Call expr, Expr.Get get) {
+        Node object = compile(get.object);
+        Node[] arguments = compileExpressions(expr.arguments);
+        Caller caller = caller(expr, arguments);
+        InlineCache cache = get.cache;
+        Token name = get.name;
+
+        return frame -> {
+            if (!(object.execute(frame) instanceof LoxInstance instance)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+
+            LoxFunction method = cache.getMethod(instance, name);
+            if (method == null) {
+                // A field holding a callable, or an undefined property.
+                return caller.call(frame, cache.get(instance, name));
+            }
+            return method.execute(frame.interpreter, prepareFrame(frame, expr, arguments, method, instance), instance);
+        };
+    }
+
+    private Node invokeSuperMethod(Expr.Call expr, Expr.Super superExpr) {
+        Node superclass = variable(superExpr.keyword, superExpr.kind, superExpr.slot);
+        Node receiver = variable(superExpr.keyword, superExpr.thisKind, superExpr.thisSlot);
+        Node[] arguments = compileExpressions(expr.arguments);
+
+        return frame -> {
+            LoxFunction method = Interpreter.findSuperMethod((LoxClass) superclass.execute(frame), superExpr);
+            LoxInstance instance = (LoxInstance) receiver.execute(frame);
+            return method.execute(frame.interpreter, prepareFrame(frame, expr, arguments, method, instance), instance);
+        };
+    }
+
+    // Arguments are evaluated straight into the callee's frame, after 'this' for methods.
+    private static Object[] prepareFrame(Frame frame, Expr.Call expr, Node[] arguments,
+                                         LoxFunction function, LoxInstance receiver) {
+        Object[] callFrame = function.newFrame(receiver);
+        int offset = function.parameterOffset();
+        int arity = function.arity();
+        for (int i = 0; i < arguments.length; i++) {
+            Object value = arguments[i].execute(frame);
+            if (i < arity) callFrame[offset + i] = value;
+        }
+
+        Interpreter.checkArity(expr, function, arguments.length);
+        return callFrame;
+    }
+
+    @Override
+    public Node visitGetExpr(Expr.Get expr) {
+        Node object = compile(expr.object);
+        InlineCache cache = expr.cache;
+        Token name = expr.name;
+
+        return frame -> {
+            if (!(object.execute(frame) instanceof LoxInstance instance)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+            return cache.get(instance, name);
+        };
+    }
+
+    // A grouping only matters to the parser.
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    // The inlined body runs in this frame, unless the global it was inlined from has been reassigned.
+    @Override
+    public Node visitInlineExpr(Expr.Inline expr) {
+        Node callee = compile(expr.call.callee);
+        Node[] arguments = compileExpressions(expr.call.arguments);
+        Caller caller = caller(expr.call, arguments);
+        StmtNode[] body = compileAll(expr.body);
+        int[] slots = expr.slots;
+        Stmt.Function function = expr.function;
+        boolean grows = atTopLevel;
+
+        return frame -> {
+            Object value = callee.execute(frame);
+            if (!(value instanceof LoxFunction target) || !target.isDeclaredBy(function)) {
+                return caller.call(frame, value);
+            }
+
+            for (int i = 0; i < arguments.length; i++) {
+                Object argument = arguments[i].execute(frame);
+                if (grows) grow(frame, slots[i]);
+                frame.locals[slots[i]] = argument;
+            }
+            for (StmtNode statement : body) {
+                if (statement.execute(frame) == Completion.RETURN) return frame.interpreter.takeReturnValue();
+            }
+            return null;
+        };
+    }
+
+    // Nil and callables aren't kept, as in the interpreter.
+    @Override
+    public Node visitInvariantExpr(Expr.Invariant expr) {
+        Node cached = variable(expr.name, expr.kind, expr.slot);
+        Store store = assignment(expr.name, expr.kind, expr.slot);
+        Node expression = compile(expr.expression);
+
+        return frame -> {
+            Object value = cached.execute(frame);
+            if (value != null) return value;
+
+            value = expression.execute(frame);
+            if (!(value instanceof LoxCallable)) store.store(frame, value);
+            return value;
+        };
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return frame -> value;
+    }
+
+    @Override
+    public Node visitLogicalExpr(Expr.Logical expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+
+        if (expr.operator.type() == TokenType.OR) {
+            return frame -> {
+                Object value = left.execute(frame);
+                return Interpreter.isTruthy(value) ? value : right.execute(frame);
+            };
+        }
+        return frame -> {
+            Object value = left.execute(frame);
+            return Interpreter.isTruthy(value) ? right.execute(frame) : value;
+        };
+    }
+
+    @Override
+    public Node visitSetExpr(Expr.Set expr) {
+        Node object = compile(expr.object);
+        Node value = compile(expr.value);
+        InlineCache cache = expr.cache;
+        Token name = expr.name;
+
+        return frame -> {
+            if (!(object.execute(frame) instanceof LoxInstance instance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object result = value.execute(frame);
+            cache.set(instance, name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Node visitSuperExpr(Expr.Super expr) {
+        Node superclass = variable(expr.keyword, expr.kind, expr.slot);
+        Node receiver = variable(expr.keyword, expr.thisKind, expr.thisSlot);
+
+        return frame -> {
+            LoxClass klass = (LoxClass) superclass.execute(frame);
+            LoxInstance instance = (LoxInstance) receiver.execute(frame);
+            return Interpreter.findSuperMethod(klass, expr).bind(instance);
+        };
+    }
+
+    @Override
+    public Node visitThisExpr(Expr.This expr) {
+        return variable(expr.keyword, expr.kind, expr.slot);
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+
+        return switch (operator.type()) {
+            case BANG -> frame -> !Interpreter.isTruthy(right.execute(frame));
+            case MINUS -> frame -> {
+                if (right.execute(frame) instanceof Double value) return -value;
+                throw new RuntimeError(operator, "Operand must be a number");
+            };
+            default -> frame -> {
+                right.execute(frame);
+                return null;
+            };
+        };
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        return variable(expr.name, expr.kind, expr.slot);
+    }
+
+    private Node variable(Token name, int kind, int slot) {
+        return switch (kind) {
+            case Resolver.FRAME -> frame -> frame.locals[slot];
+            case Resolver.CELL -> frame -> ((Cell) frame.locals[slot]).value;
+            case Resolver.UPVALUE -> frame -> frame.upvalues[slot].value;
+            case Resolver.UNINITIALIZED -> frame -> null;
+            default -> frame -> globals.get(name, slot);
+        };
+    }
+
+    private Store assignment(Token name, int kind, int slot) {
+        return switch (kind) {
+            case Resolver.FRAME -> (frame, value) -> frame.locals[slot] = value;
+            case Resolver.CELL -> (frame, value) -> ((Cell) frame.locals[slot]).value = value;
+            case Resolver.UPVALUE -> (frame, value) -> frame.upvalues[slot].value = value;
+            case Resolver.UNINITIALIZED -> (frame, value) -> { };
+            default -> (frame, value) -> globals.assign(name, slot, value);
+        };
+    }
+
+    // Each time a captured local is declared it gets a new cell, as in the interpreter.
+    private Store declaration(int kind, int slot) {
+        boolean grows = atTopLevel;
+        return switch (kind) {
+            case Resolver.GLOBAL -> (frame, value) -> globals.define(slot, value);
+            case Resolver.CELL -> (frame, value) -> {
+                if (grows) grow(frame, slot);
+                frame.locals[slot] = new Cell(value);
+            };
+            default -> (frame, value) -> {
+                if (grows) grow(frame, slot);
+                frame.locals[slot] = value;
+            };
+        };
+    }
+
+    // Top-level code is resolved a statement list at a time, so its frame grows as needed.
+    private static void grow(Frame frame, int slot) {
+        if (slot >= frame.locals.length) {
+            frame.locals = Arrays.copyOf(frame.locals, slot + 1);
+        }
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        // The block's locals have frame slots of their own, so it runs in place.
+        StmtNode[] statements = compileAll(stmt.statements);
+        return frame -> executeAll(statements, frame);
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        Node superclass = stmt.superClass != null ? compile(stmt.superClass) : null;
+        Store declareClass = declaration(stmt.kind, stmt.slot);
+        Store declareSuper = stmt.superClass != null ? declaration(stmt.superKind, stmt.superSlot) : null;
+        Store assignClass = assignment(stmt.name, stmt.kind, stmt.slot);
+
+        int count = stmt.methods.size();
+        Stmt.Function[] declarations = stmt.methods.toArray(new Stmt.Function[0]);
+        FunctionType[] types = new FunctionType[count];
+        LoxFunction.Body[] bodies = new LoxFunction.Body[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = declarations[i].name.lexeme().equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            bodies[i] = compileBody(declarations[i]);
+        }
+
+        return frame -> {
+            Object superValue = null;
+            if (superclass != null) {
+                superValue = superclass.execute(frame);
+                if (!(superValue instanceof LoxClass)) {
+                    throw new RuntimeError(stmt.superClass.name, "Superclass must be a class.");
+                }
+            }
+
+            // The class is declared first, so methods that refer to it can capture it.
+            declareClass.store(frame, null);
+            if (declareSuper != null) declareSuper.store(frame, superValue);
+
+            Map<String, LoxFunction> methods = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                Stmt.Function method = declarations[i];
+                methods.put(method.name.lexeme(),
+                        new LoxFunction(method, captureUpvalues(frame, method), types[i], bodies[i]));
+            }
+
+            LoxClass klass = new LoxClass(stmt.name.lexeme(), (LoxClass) superValue, methods);
+            assignClass.store(frame, klass);
+            return Completion.NORMAL;
+        };
+    }
+
+    // Compiles a function's body once, for every closure of it to share.
+    LoxFunction.Body compileBody(Stmt.Function function) {
+        boolean enclosing = atTopLevel;
+        atTopLevel = false;
+        StmtNode[] body = compileAll(function.body);
+        atTopLevel = enclosing;
+
+        return (interpreter, frame, upvalues) -> executeAll(body, new Frame(interpreter, frame, upvalues));
+    }
+
+    /**
+     * Compiles a loop the interpreter is running, to run the rest of it in the interpreter's
+     * frame from its next check of the condition. The loop may be in top-level code, whose
+     * frame grows, so its declarations make sure the frame has room.
+     */
+    StmtNode compileLoop(Stmt.While loop) {
+        boolean enclosing = atTopLevel;
+        atTopLevel = true;
+        StmtNode node = visitWhileStmt(loop);
+        atTopLevel = enclosing;
+        return node;
+    }
+
+    // A for loop picks up after its increment, so its initializer is left out.
+    StmtNode compileLoop(Stmt.For loop) {
+        boolean enclosing = atTopLevel;
+        atTopLevel = true;
+        StmtNode node = visitForStmt(new Stmt.For(null, loop.condition, loop.increment, loop.body));
+        atTopLevel = enclosing;
+        return node;
+    }
+
+    // Collects the cells a new closure of the function captures, from the frame or the closure running it.
+    private static Cell[] captureUpvalues(Frame frame, Stmt.Function function) {
+        int[] indexes = function.upvalueIndexes;
+        if (indexes.length == 0) return NO_UPVALUES;
+
+        Cell[] captured = new Cell[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            captured[i] = function.upvalueIsLocal[i] ? (Cell) frame.locals[indexes[i]] : frame.upvalues[indexes[i]];
+        }
+        return captured;
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        Node expression = compile(stmt.expression);
+        return frame -> {
+            expression.execute(frame);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitForStmt(Stmt.For stmt) {
+        StmtNode initializer = stmt.initializer != null ? compile(stmt.initializer) : frame -> Completion.NORMAL;
+        Node condition = compile(stmt.condition);
+        Node increment = stmt.increment != null ? compile(stmt.increment) : frame -> null;
+        StmtNode body = compile(stmt.body);
+
+        return frame -> {
+            initializer.execute(frame);
+            while (Interpreter.isTruthy(condition.execute(frame))) {
+                Completion completion = body.execute(frame);
+                if (completion != Completion.NORMAL) return completion;
+
+                increment.execute(frame);
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        Store declare = declaration(stmt.kind, stmt.slot);
+        Store assign = assignment(stmt.name, stmt.kind, stmt.slot);
+        LoxFunction.Body body = compileBody(stmt);
+
+        return frame -> {
+            // Declared before the closure is created, so a local function can capture itself.
+            declare.store(frame, null);
+            assign.store(frame, new LoxFunction(stmt, captureUpvalues(frame, stmt), FunctionType.FUNCTION, body));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        Node condition = compile(stmt.condition);
+        StmtNode thenBranch = compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            return frame -> Interpreter.isTruthy(condition.execute(frame))
+                    ? thenBranch.execute(frame)
+                    : Completion.NORMAL;
+        }
+
+        StmtNode elseBranch = compile(stmt.elseBranch);
+        return frame -> Interpreter.isTruthy(condition.execute(frame))
+                ? thenBranch.execute(frame)
+                : elseBranch.execute(frame);
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        Node expression = compile(stmt.expression);
+        return frame -> {
+            System.out.println(Interpreter.stringify(expression.execute(frame)));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            return tailCall((Expr.Call) stmt.value);
+        }
+        if (stmt.value == null) {
+            return frame -> frame.interpreter.returnWith(null);
+        }
+
+        Node value = compile(stmt.value);
+        return frame -> frame.interpreter.returnWith(value.execute(frame));
+    }
+
+    /**
+     * A call in tail position to a Lox function leaves the function and its frame to the
+     * calling LoxFunction, which runs it in a loop, as the interpreter's tail calls do.
+     */
+    private StmtNode tailCall(Expr.Call call) {
+        Node[] arguments = compileExpressions(call.arguments);
+        Caller caller = caller(call, arguments);
+
+        if (call.callee instanceof Expr.Get get) {
+            Node object = compile(get.object);
+            InlineCache cache = get.cache;
+            Token name = get.name;
+
+            return frame -> {
+                if (!(object.execute(frame) instanceof LoxInstance instance)) {
+                    throw new RuntimeError(name, "Only instances have properties.");
+                }
+
+                LoxFunction method = cache.getMethod(instance, name);
+                if (method != null) {
+                    Object[] callFrame = prepareFrame(frame, call, arguments, method, instance);
+                    return frame.interpreter.prepareTailCall(method, callFrame, instance);
+                }
+                return frame.interpreter.returnWith(caller.call(frame, cache.get(instance, name)));
+            };
+        }
+
+        if (call.callee instanceof Expr.Super superExpr) {
+            Node superclass = variable(superExpr.keyword, superExpr.kind, superExpr.slot);
+            Node receiver = variable(superExpr.keyword, superExpr.thisKind, superExpr.thisSlot);
+
+            return frame -> {
+                LoxFunction method = Interpreter.findSuperMethod((LoxClass) superclass.execute(frame), superExpr);
+                LoxInstance instance = (LoxInstance) receiver.execute(frame);
+                Object[] callFrame = prepareFrame(frame, call, arguments, method, instance);
+                return frame.interpreter.prepareTailCall(method, callFrame, instance);
+            };
+        }
+
+        Node callee = compile(call.callee);
+        return frame -> {
+            Object value = callee.execute(frame);
+            if (value instanceof LoxFunction function) {
+                LoxInstance receiver = function.getReceiver();
+                Object[] callFrame = prepareFrame(frame, call, arguments, function, receiver);
+                return frame.interpreter.prepareTailCall(function, callFrame, receiver);
+            }
+            return frame.interpreter.returnWith(caller.call(frame, value));
+        };
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        Store declare = declaration(stmt.kind, stmt.slot);
+        if (stmt.initializer == null) {
+            return frame -> {
+                declare.store(frame, null);
+                return Completion.NORMAL;
+            };
+        }
+
+        Node initializer = compile(stmt.initializer);
+        return frame -> {
+            declare.store(frame, initializer.execute(frame));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        Node condition = compile(stmt.condition);
+        StmtNode body = compile(stmt.body);
+
+        return frame -> {
+            while (Interpreter.isTruthy(condition.execute(frame))) {
+                Completion completion = body.execute(frame);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        };
+    }
+}
@@ -0,0 +1,354 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simplifies the resolved AST before it is run.
+ * <p>
+ * Operators whose operands are all literals are folded into a literal, groupings are dropped,
+ * an if statement with a literal condition is replaced by the branch it takes, and loops whose
+ * condition is literally falsey are removed. An operation that would fail at run time,
+ * such as {@code 1 + "a"}, is left alone so that it still reports its error when it runs.
+ * <p>
+ * Nodes are immutable, so a node with a simplified child is rebuilt, and the fields the
+ * Resolver filled in are copied over. Nodes that don't change are returned as they are.
+ * A statement that does nothing is returned as null, and dropped from its list.
+ */
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    // The result of an operation on literals that can't be folded, because it fails at run time.
+    private static final Object NOT_CONSTANT = new Object();
+
+    public List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if (result != null) optimized.add(result);
+            changed |= result != statement;
+        }
+        return changed ? optimized : statements;
+    }
+
+    private Stmt optimize(Stmt statement) {
+        return statement.accept(this);
+    }
+
+    // A statement that must stay in place, such as the body of a loop, becomes an empty block
+    // if there is nothing left of it.
+    private Stmt optimizeBody(Stmt statement) {
+        Stmt result = optimize(statement);
+        return result != null ? result : new Stmt.Block(List.of());
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.kind = expr.kind;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal a && right instanceof Expr.Literal b) {
+            Object folded = fold(expr.operator.type(), a.value, b.value);
+            if (folded != NOT_CONSTANT) return new Expr.Literal(folded);
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    private static Object fold(TokenType operator, Object left, Object right) {
+        if (left instanceof Double a && right instanceof Double b) {
+            switch (operator) {
+                case MINUS: return a - b;
+                case SLASH: return a / b;
+                case STAR: return a * b;
+                case PLUS: return a + b;
+                case GREATER: return a > b;
+                case GREATER_EQUAL: return a >= b;
+                case LESS: return a < b;
+                case LESS_EQUAL: return a <= b;
+            }
+        }
+
+        switch (operator) {
+            case PLUS:
+                if (left instanceof String a && right instanceof String b) return a + b;
+                return NOT_CONSTANT;
+            case EQUAL_EQUAL:
+                return Interpreter.isEqual(left, right);
+            case BANG_EQUAL:
+                return !Interpreter.isEqual(left, right);
+            default:
+                return NOT_CONSTANT;
+        }
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = optimizeAll(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments) return expr;
+
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    private List<Expr> optimizeAll(List<Expr> expressions) {
+        List<Expr> optimized = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for (Expr expr : expressions) {
+            Expr result = optimize(expr);
+            optimized.add(result);
+            changed |= result != expr;
+        }
+        return changed ? optimized : expressions;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        Expr.Call call = (Expr.Call) optimize(expr.call);
+        List<Stmt> body = optimize(expr.body);
+        if (call == expr.call && body == expr.body) return expr;
+
+        Expr.Inline inline = new Expr.Inline(call, expr.function, expr.params, body);
+        inline.slots = expr.slots;
+        return inline;
+    }
+
+    // An invariant that folds to a literal needs no temporary.
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        Expr expression = optimize(expr.expression);
+        if (expression instanceof Expr.Literal) return expression;
+        if (expression == expr.expression) return expr;
+
+        Expr.Invariant invariant = new Expr.Invariant(expr.name, expression);
+        invariant.kind = expr.kind;
+        invariant.slot = expr.slot;
+        return invariant;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // 'and' and 'or' produce one of their operands, so a literal left operand decides which.
+        if (left instanceof Expr.Literal literal) {
+            boolean truthy = Interpreter.isTruthy(literal.value);
+            if (expr.operator.type() == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal literal) {
+            switch (expr.operator.type()) {
+                case BANG:
+                    return new Expr.Literal(!Interpreter.isTruthy(literal.value));
+                case MINUS:
+                    if (literal.value instanceof Double number) return new Expr.Literal(-number);
+                    break;
+            }
+        }
+
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimize(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        boolean changed = false;
+        for (Stmt.Function method : stmt.methods) {
+            Stmt.Function result = (Stmt.Function) optimize(method);
+            methods.add(result);
+            changed |= result != method;
+        }
+        if (!changed) return stmt;
+
+        Stmt.Class klass = new Stmt.Class(stmt.name, stmt.superClass, methods);
+        klass.kind = stmt.kind;
+        klass.slot = stmt.slot;
+        klass.superKind = stmt.superKind;
+        klass.superSlot = stmt.superSlot;
+        return klass;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        // An expression statement whose value is a literal has nothing left to do.
+        if (expression instanceof Expr.Literal) return null;
+        if (expression == stmt.expression) return stmt;
+
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        Stmt initializer = stmt.initializer != null ? optimize(stmt.initializer) : null;
+        Expr condition = optimize(stmt.condition);
+
+        // Only the initializer runs. It keeps a block around it, as its variable is local to the loop.
+        if (condition instanceof Expr.Literal literal && !Interpreter.isTruthy(literal.value)) {
+            return initializer != null ? new Stmt.Block(List.of(initializer)) : null;
+        }
+
+        Expr increment = stmt.increment != null ? optimize(stmt.increment) : null;
+        Stmt body = optimizeBody(stmt.body);
+        if (initializer == stmt.initializer && condition == stmt.condition
+                && increment == stmt.increment && body == stmt.body) {
+            return stmt;
+        }
+        return new Stmt.For(initializer, condition, increment, body);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = optimize(stmt.body);
+        if (body == stmt.body) return stmt;
+
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body);
+        function.kind = stmt.kind;
+        function.slot = stmt.slot;
+        function.frameSize = stmt.frameSize;
+        function.capturedParameters = stmt.capturedParameters;
+        function.upvalueIndexes = stmt.upvalueIndexes;
+        function.upvalueIsLocal = stmt.upvalueIsLocal;
+        return function;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (condition instanceof Expr.Literal literal) {
+            if (Interpreter.isTruthy(literal.value)) return optimize(stmt.thenBranch);
+            return stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        }
+
+        Stmt thenBranch = optimizeBody(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+
+        Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+        result.tailCall = stmt.tailCall;
+        return result;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.kind = stmt.kind;
+        var.slot = stmt.slot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal literal && !Interpreter.isTruthy(literal.value)) {
+            return null;
+        }
+
+        Stmt body = optimizeBody(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+
+        return new Stmt.While(condition, body);
+    }
+}
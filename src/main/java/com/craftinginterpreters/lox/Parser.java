@@ -1,7 +1,6 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import static com.craftinginterpreters.lox.TokenType.*;
@@ -144,20 +143,11 @@ public class Parser {
 
         // read the body of the for loop
         Stmt body = statement();
-        if (increment != null) {
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        }
 
         if (condition == null)
             condition = new Expr.Literal(true);
 
-        body = new Stmt.While(condition, body);
-
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-
-        return body;
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     private Stmt whileStatement() {
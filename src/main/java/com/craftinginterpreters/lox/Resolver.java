@@ -1,5 +1,6 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,8 +12,19 @@ import java.util.Stack;
  * The resolver runs statically over the AST and records where each variable is defined.
  * <p>
  * Whenever a variable is used or assigned to it runs back though the scopes to find where
- * the variable was defined. The number of 'hops back' is recorded with that particular expression
- * instance and is passed to the interpreter.
+ * the variable was defined, and records on the expression node where the interpreter will find it.
+ * <p>
+ * Locals live in the frame of the function call that declares them, an array with one slot
+ * per local. A local that an inner function refers to is captured: its frame slot holds a
+ * {@link Cell} instead of the value, which the closure shares. Inside the inner function the
+ * variable is an upvalue, an index into the flat array of cells the closure was created with.
+ * So every variable is one or two array accesses away however deeply functions are nested,
+ * and a closure only keeps alive the variables it actually uses.
+ * Whether a local is captured isn't known until the end of its scope, so the locations
+ * of locals are filled in once the whole program has been resolved.
+ * <p>
+ * Any other name is a global. Globals are late bound, so they aren't checked here, but each
+ * name is given a slot in the interpreter's table of globals, which is kept across runs.
  * <p>
  * This has two advantages:
  * - the interpreter does not need to iterate back though
@@ -24,22 +36,94 @@ import java.util.Stack;
  */
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
-    private final Interpreter interpreter;
-    private final Stack<HashMap<String, Boolean>> scopes;
+    // The kinds of variable that a use or declaration is recorded with.
+    static final int GLOBAL = -1;
+    // A local that lives directly in a slot of the current frame.
+    static final int FRAME = 0;
+    // A captured local, whose frame slot holds a cell.
+    static final int CELL = 1;
+    // A variable of an enclosing function, held in the closure's upvalues.
+    static final int UPVALUE = 2;
+    // A local used in its own initializer, before its declaration has run. That is reported as
+    // an error, but the program still runs, so reading it gives nil and assigning it does nothing.
+    static final int UNINITIALIZED = 3;
+
+    private final Environment globals;
+    private final Stack<Scope> scopes;
     private FunctionType currentFunction;
     private ClassType currentClass;
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // The function being resolved. Top-level code has a frame of its own as well.
+    private Frame currentFrame;
+    // Fills in the location of every local use and declaration, once captures are known.
+    private final List<Runnable> placements = new ArrayList<>();
+
+    // Receives the location found for a variable.
+    private interface Placement {
+        void place(int kind, int slot);
+    }
+
+    private static class Frame {
+        final Frame enclosing;
+        // The next free slot, and the most slots the function has used.
+        int nextSlot;
+        int size;
+        // The variables the function's closure captures. For each one the closure takes the cell
+        // from a frame slot of the enclosing call, or from the enclosing closure's upvalues.
+        final List<Local> upvalues = new ArrayList<>();
+        final List<Integer> upvalueIndexes = new ArrayList<>();
+        final List<Boolean> upvalueIsLocal = new ArrayList<>();
+
+        Frame(Frame enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private static class Scope {
+        final Frame frame;
+        final int firstSlot;
+        final Map<String, Local> locals = new HashMap<>();
+        final List<Local> declared = new ArrayList<>();
+
+        Scope(Frame frame) {
+            this.frame = frame;
+            this.firstSlot = frame.nextSlot;
+        }
+    }
+
+    private static class Local {
+        final Frame frame;
+        final int slot;
+        boolean defined;
+        boolean captured;
+
+        Local(Frame frame, int slot, boolean defined) {
+            this.frame = frame;
+            this.slot = slot;
+            this.defined = defined;
+        }
+    }
+
+    public Resolver(Environment globals) {
+        this.globals = globals;
         scopes = new Stack<>();
         currentFunction = FunctionType.NONE;
         currentClass = ClassType.NONE;
+        currentFrame = new Frame(null);
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        if (!scopes.isEmpty() && isDeclaredButNotDefined(expr.name)) {
+            expr.kind = UNINITIALIZED;
+            return null;
+        }
+
+        resolveLocal(expr.name.lexeme(), (kind, slot) -> {
+            expr.kind = kind;
+            expr.slot = slot;
+        });
         return null;
     }
 
@@ -71,6 +155,44 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        resolve(expr.call.callee);
+
+        // The copied body runs in the caller's frame, in a scope of its own. Its parameters
+        // can't be captured, as the Inliner doesn't copy bodies that declare functions.
+        // The arguments are resolved in the scope too, so calls inlined into them get frame
+        // slots after the parameters, which are stored to as each argument is evaluated.
+        beginScope();
+        expr.slots = new int[expr.params.size()];
+        for (int i = 0; i < expr.params.size(); i++) {
+            int index = i;
+            declare(expr.params.get(i), (kind, slot) -> expr.slots[index] = slot);
+            define(expr.params.get(i));
+        }
+        for (Expr argument : expr.call.arguments) {
+            resolve(argument);
+        }
+
+        FunctionType enclosingFunction = currentFunction;
+        currentFunction = FunctionType.INLINE;
+        resolveStatements(expr.body);
+        currentFunction = enclosingFunction;
+
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        resolve(expr.expression);
+        resolveLocal(expr.name.lexeme(), (kind, slot) -> {
+            expr.kind = kind;
+            expr.slot = slot;
+        });
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
         return null;
@@ -98,7 +220,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(expr.keyword, "Can't use 'super' in a class with not superclass.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr.keyword.lexeme(), (kind, slot) -> {
+            expr.kind = kind;
+            expr.slot = slot;
+        });
+        resolveLocal("this", (kind, slot) -> {
+            expr.thisKind = kind;
+            expr.thisSlot = slot;
+        });
         return null;
     }
 
@@ -107,10 +236,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (currentClass == ClassType.NONE) {
             Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
-            return null;
         }
 
-        resolveLocal(expr, expr.keyword);
+        // Outside a class this resolves to a global slot of its own, which is never defined.
+        resolveLocal(expr.keyword.lexeme(), (kind, slot) -> {
+            expr.kind = kind;
+            expr.slot = slot;
+        });
         return null;
     }
 
@@ -122,27 +254,69 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme()) == Boolean.FALSE) {
+        if (!scopes.isEmpty() && isDeclaredButNotDefined(expr.name)) {
             Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            expr.kind = UNINITIALIZED;
+            return null;
         }
 
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr.name.lexeme(), (kind, slot) -> {
+            expr.kind = kind;
+            expr.slot = slot;
+        });
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private boolean isDeclaredButNotDefined(Token name) {
+        Local local = scopes.peek().locals.get(name.lexeme());
+        return local != null && !local.defined;
+    }
+
+    // Finds the local that a name refers to, or else the slot of the global.
+    private void resolveLocal(String name, Placement placement) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme())) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            Local local = scopes.get(i).locals.get(name);
+            if (local == null) continue;
+
+            if (local.frame == currentFrame) {
+                place(local, placement);
+            } else {
+                placement.place(UPVALUE, resolveUpvalue(currentFrame, local));
             }
+            return;
         }
+
+        placement.place(GLOBAL, globals.slotOf(name));
+    }
+
+    // Adds the local to the upvalues of the function, and of every function between it
+    // and the one that declares the local, so each closure can take the cell from the closure
+    // around it when it is created. Returns the index of the upvalue.
+    private static int resolveUpvalue(Frame frame, Local local) {
+        int index = frame.upvalues.indexOf(local);
+        if (index != -1) return index;
+
+        local.captured = true;
+        if (local.frame == frame.enclosing) {
+            frame.upvalueIndexes.add(local.slot);
+            frame.upvalueIsLocal.add(true);
+        } else {
+            frame.upvalueIndexes.add(resolveUpvalue(frame.enclosing, local));
+            frame.upvalueIsLocal.add(false);
+        }
+        frame.upvalues.add(local);
+        return frame.upvalues.size() - 1;
+    }
+
+    // A local of the current function is a cell if any closure captures it.
+    private void place(Local local, Placement placement) {
+        placements.add(() -> placement.place(local.captured ? CELL : FRAME, local.slot));
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
-        resolve(stmt.statements);
+        resolveStatements(stmt.statements);
         endScope();
         return null;
     }
@@ -153,7 +327,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt.name, (kind, slot) -> {
+            stmt.kind = kind;
+            stmt.slot = slot;
+        });
         define(stmt.name);
 
         if (stmt.superClass != null && stmt.name.lexeme().equals(stmt.superClass.name.lexeme())) {
@@ -165,16 +342,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(stmt.superClass);
         }
 
+        // 'super' is a hidden local around the methods, which they capture.
         if (stmt.superClass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            place(declareImplicit("super"), (kind, slot) -> {
+                stmt.superKind = kind;
+                stmt.superSlot = slot;
+            });
         }
 
-        // each class declaration has its own implicit scope
-        // so that you can refer to this from within methods.
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
 
             FunctionType declaration = method.name.lexeme().equals("init")
@@ -184,8 +360,6 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
-        endScope();
-
         if (stmt.superClass != null) {
             endScope();
         }
@@ -196,14 +370,26 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<>());
+        scopes.push(new Scope(currentFrame));
     }
 
-    private void endScope() {
-        scopes.pop();
+    // The scope's frame slots are free again for the code that follows it.
+    private Scope endScope() {
+        Scope scope = scopes.pop();
+        scope.frame.nextSlot = scope.firstSlot;
+        return scope;
     }
 
     public void resolve(List<Stmt> statements) {
+        resolveStatements(statements);
+
+        for (Runnable placement : placements) {
+            placement.run();
+        }
+        placements.clear();
+    }
+
+    private void resolveStatements(List<Stmt> statements) {
         for (Stmt statement : statements) {
             resolve(statement);
         }
@@ -226,10 +412,28 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // A variable declared in the initializer lives in a scope around the whole loop.
+        beginScope();
+
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        resolve(stmt.condition);
+        if (stmt.increment != null) resolve(stmt.increment);
+        resolve(stmt.body);
+
+        endScope();
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name, (kind, slot) -> {
+            stmt.kind = kind;
+            stmt.slot = slot;
+        });
         define(stmt.name);
+
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
     }
@@ -237,17 +441,50 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        currentFrame = new Frame(currentFrame);
 
         beginScope();
+        // Methods keep 'this' in the first slot of their own frame,
+        // so calling a method doesn't need an extra scope to hold it.
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            declareImplicit("this");
+        }
         for (Token param : function.params) {
-            declare(param);
+            declare(param, null);
             define(param);
         }
-        resolve(function.body);
-        endScope();
+        resolveStatements(function.body);
+        Scope scope = endScope();
+
+        // The arguments (after 'this') are passed in the frame.
+        // The captured ones are moved into cells when the call starts.
+        int parameterCount = function.params.size() + (type == FunctionType.FUNCTION ? 0 : 1);
+        List<Integer> capturedParameters = new ArrayList<>();
+        for (Local local : scope.declared.subList(0, parameterCount)) {
+            if (local.captured) capturedParameters.add(local.slot);
+        }
+
+        Frame frame = currentFrame;
+        function.frameSize = frame.size;
+        function.capturedParameters = toIntArray(capturedParameters);
+        function.upvalueIndexes = toIntArray(frame.upvalueIndexes);
+        function.upvalueIsLocal = new boolean[frame.upvalueIsLocal.size()];
+        for (int i = 0; i < function.upvalueIsLocal.length; i++) {
+            function.upvalueIsLocal[i] = frame.upvalueIsLocal.get(i);
+        }
+
+        currentFrame = frame.enclosing;
         currentFunction = enclosingFunction;
     }
 
+    private static int[] toIntArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
         resolve(stmt.condition);
@@ -275,13 +512,24 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             }
 
             resolve(stmt.value);
+
+            // Returning the result of a call can reuse the caller's Java frame.
+            // Initializers always return 'this', so their calls are never in tail position,
+            // and neither are those of an inlined body, which returns to the expression it replaced.
+            if (stmt.value instanceof Expr.Call
+                    && (currentFunction == FunctionType.FUNCTION || currentFunction == FunctionType.METHOD)) {
+                stmt.tailCall = true;
+            }
         }
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, (kind, slot) -> {
+            stmt.kind = kind;
+            stmt.slot = slot;
+        });
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -289,19 +537,42 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
-    // Adds the variable to the innermost scope.
-    private void declare(Token name) {
-        if (scopes.isEmpty()) return;
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme())) {
+    // Adds a variable to the innermost scope, or gives a global its slot.
+    private void declare(Token name, Placement placement) {
+        if (scopes.isEmpty()) {
+            placement.place(GLOBAL, globals.slotOf(name.lexeme()));
+            return;
+        }
+
+        // A variable declared again in the same scope is an error, but the program still runs,
+        // and the declaration reuses the variable that is already there, and its slot.
+        Scope scope = scopes.peek();
+        Local local = scope.locals.get(name.lexeme());
+        if (local != null) {
             Lox.error(name, "Already a variable with this name in this scope.");
+        } else {
+            local = addLocal(scope, name.lexeme(), false);
         }
-        scope.put(name.lexeme(), false);
+        if (placement != null) place(local, placement);
+    }
+
+    // Declares a variable that the interpreter defines itself, such as 'this'.
+    private Local declareImplicit(String name) {
+        return addLocal(scopes.peek(), name, true);
+    }
+
+    private Local addLocal(Scope scope, String name, boolean defined) {
+        Frame frame = scope.frame;
+        Local local = new Local(frame, frame.nextSlot++, defined);
+        frame.size = Math.max(frame.size, frame.nextSlot);
+        scope.locals.put(name, local);
+        scope.declared.add(local);
+        return local;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme(), true);
+        scopes.peek().locals.get(name.lexeme()).defined = true;
     }
 
     @Override
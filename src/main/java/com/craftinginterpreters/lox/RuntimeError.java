@@ -3,14 +3,27 @@ package com.craftinginterpreters.lox;
 public class RuntimeError extends RuntimeException{
 
     private final Token token;
+    private final int line;
 
 
     public RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+        this.line = token.line();
+    }
+
+    // Used by the VM, which only knows the line of the failing instruction.
+    public RuntimeError(int line, String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
     }
 
     public Token getToken() {
         return token;
     }
+
+    public int getLine() {
+        return line;
+    }
 }
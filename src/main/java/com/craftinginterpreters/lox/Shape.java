@@ -0,0 +1,49 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The layout of an instance's fields, also known as a hidden class.
+ * <p>
+ * A shape maps each field name to the slot that holds its value in the instance.
+ * Every class owns a root shape with no fields. Setting a new field on an instance moves
+ * it along a transition to a child shape with one more slot. Instances that add the same
+ * fields in the same order end up sharing the same shape, so the name to slot table is
+ * stored once per layout instead of once per instance.
+ */
+public class Shape {
+
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions;
+
+    public Shape() {
+        this.slots = Map.of();
+        this.transitions = new HashMap<>();
+    }
+
+    private Shape(Map<String, Integer> slots) {
+        this.slots = slots;
+        this.transitions = new HashMap<>();
+    }
+
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name, slots.size());
+            next = new Shape(nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
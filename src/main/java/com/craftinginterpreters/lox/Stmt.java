@@ -7,6 +7,7 @@ abstract class Stmt{
     R visitBlockStmt(Block stmt);
     R visitClassStmt(Class stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitForStmt(For stmt);
     R visitFunctionStmt(Function stmt);
     R visitIfStmt(If stmt);
     R visitPrintStmt(Print stmt);
@@ -41,6 +42,11 @@ abstract class Stmt{
     final Token name;
     final Expr.Variable superClass;
     final List<Stmt.Function> methods;
+
+    int kind = Resolver.GLOBAL;
+    int slot;
+    int superKind;
+    int superSlot;
   }
  static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -54,6 +60,27 @@ abstract class Stmt{
 
     final Expr expression;
   }
+ static class For extends Stmt {
+    For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+      this.initializer = initializer;
+      this.condition = condition;
+      this.increment = increment;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+
+    final Stmt initializer;
+    final Expr condition;
+    final Expr increment;
+    final Stmt body;
+
+    int backEdges;
+    StmtNode promoted;
+  }
  static class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
       this.name = name;
@@ -69,6 +96,17 @@ abstract class Stmt{
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+
+    int kind = Resolver.GLOBAL;
+    int slot;
+    int frameSize;
+    int[] capturedParameters;
+    int[] upvalueIndexes;
+    boolean[] upvalueIsLocal;
+    int calls;
+    CompiledFunction compiled;
+    TieredExecution.Tier tier = TieredExecution.Tier.INTERPRETER;
+    LoxFunction.Body promoted;
   }
  static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -111,6 +149,8 @@ abstract class Stmt{
 
     final Token keyword;
     final Expr value;
+
+    boolean tailCall;
   }
  static class Var extends Stmt {
     Var(Token name, Expr initializer) {
@@ -125,6 +165,9 @@ abstract class Stmt{
 
     final Token name;
     final Expr initializer;
+
+    int kind = Resolver.GLOBAL;
+    int slot;
   }
  static class While extends Stmt {
     While(Expr condition, Stmt body) {
@@ -139,6 +182,9 @@ abstract class Stmt{
 
     final Expr condition;
     final Stmt body;
+
+    int backEdges;
+    StmtNode promoted;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * A statement compiled by the {@link NodeCompiler}, which completes the way the
+ * interpreter's statements do.
+ */
+@FunctionalInterface
+interface StmtNode {
+    Completion execute(Frame frame);
+}
@@ -0,0 +1,177 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs each function and loop in the tier it has earned by how hot it is.
+ * <p>
+ * Code starts in the tree walking interpreter, which has nothing to compile before it runs,
+ * so short scripts start at once. Each function declaration counts its calls, and each loop
+ * counts its back edges, the jumps from the end of its body back to its condition:
+ * <ul>
+ * <li>A function called {@code callThreshold} times is compiled to nodes by the {@link NodeCompiler},
+ * and every closure of it runs them from its next call on.</li>
+ * <li>A plain function called {@code bytecodeThreshold} times is compiled to JVM bytecode by the
+ * {@link JvmCompiler}, if it can be. The nodes run the calls the bytecode gives up on, and once
+ * the bytecode is invalid the function goes back to its nodes.</li>
+ * <li>A loop that takes {@code backEdgeThreshold} back edges is compiled to nodes while it runs:
+ * at its next back edge the interpreter hands its frame to the nodes, which run the rest of the
+ * loop. Later runs of the loop switch to them at their first back edge.</li>
+ * </ul>
+ * With tracing on, each promotion is reported on stderr as it happens.
+ */
+public class TieredExecution {
+
+    public static final int DEFAULT_CALL_THRESHOLD = 100;
+    public static final int DEFAULT_BACK_EDGE_THRESHOLD = 1000;
+
+    public enum Tier {
+        INTERPRETER,
+        NODES,
+        BYTECODE;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final NodeCompiler nodes;
+    private final JvmCompiler jit;
+    private final int callThreshold;
+    private final int bytecodeThreshold;
+    private final int backEdgeThreshold;
+    private final boolean trace;
+    // The functions called so far, in the order of their first calls, to report their tiers.
+    private final List<Stmt.Function> functions = new ArrayList<>();
+
+    public TieredExecution(Interpreter interpreter, int callThreshold, int bytecodeThreshold,
+                           int backEdgeThreshold, boolean trace) {
+        this.nodes = new NodeCompiler(interpreter);
+        this.jit = new JvmCompiler(interpreter.globals, bytecodeThreshold);
+        this.callThreshold = callThreshold;
+        this.bytecodeThreshold = bytecodeThreshold;
+        this.backEdgeThreshold = backEdgeThreshold;
+        this.trace = trace;
+    }
+
+    /**
+     * Counts a call of the function and promotes it if that made it hot enough. Returns the
+     * body the function's tier runs it with, or null while it is still interpreted.
+     */
+    LoxFunction.Body enter(LoxFunction function) {
+        Stmt.Function declaration = function.getDeclaration();
+        int calls = ++declaration.calls;
+        if (calls == 1) functions.add(declaration);
+        if (isSettled(function, declaration)) return declaration.promoted;
+
+        if (declaration.tier == Tier.INTERPRETER && calls >= callThreshold) {
+            declaration.promoted = nodes.compileBody(declaration);
+            promote(declaration, Tier.NODES);
+        }
+        if (declaration.tier == Tier.NODES && function.isPlainFunction() && calls >= bytecodeThreshold) {
+            compileBytecode(declaration);
+        }
+        return declaration.promoted;
+    }
+
+    // Whether the function has gone as far up the tiers as it can.
+    private static boolean isSettled(LoxFunction function, Stmt.Function declaration) {
+        return switch (declaration.tier) {
+            case INTERPRETER -> false;
+            case NODES -> !function.isPlainFunction()
+                    || (declaration.compiled != null && !declaration.compiled.isValid());
+            case BYTECODE -> true;
+        };
+    }
+
+    private void compileBytecode(Stmt.Function declaration) {
+        CompiledFunction compiled = jit.compiled(declaration);
+        if (!compiled.isValid()) {
+            report(declaration.name.lexeme() + " can't be compiled to " + Tier.BYTECODE);
+            return;
+        }
+
+        LoxFunction.Body fallback = declaration.promoted;
+        declaration.promoted = (interpreter, frame, upvalues) -> {
+            Object value = compiled.run(frame);
+            if (value != null) return interpreter.returnWith(value);
+
+            if (!compiled.isValid() && declaration.tier == Tier.BYTECODE) {
+                declaration.promoted = fallback;
+                declaration.tier = Tier.NODES;
+                report(declaration.name.lexeme() + ": " + Tier.BYTECODE + " -> " + Tier.NODES
+                        + ", the compiled code gave up after " + calls(declaration.calls));
+            }
+            return fallback.run(interpreter, frame, upvalues);
+        };
+        promote(declaration, Tier.BYTECODE);
+    }
+
+    private void promote(Stmt.Function declaration, Tier tier) {
+        report(declaration.name.lexeme() + ": " + declaration.tier + " -> " + tier
+                + " after " + calls(declaration.calls));
+        declaration.tier = tier;
+    }
+
+    private static String calls(int count) {
+        return count == 1 ? "1 call" : count + " calls";
+    }
+
+    /**
+     * Counts a back edge of a loop the interpreter is running. Returns the nodes that run the
+     * rest of the loop, from its condition, once it is hot, or null while it stays interpreted.
+     */
+    StmtNode backEdge(Stmt.While loop) {
+        if (loop.promoted != null) return loop.promoted;
+        if (++loop.backEdges < backEdgeThreshold) return null;
+
+        loop.promoted = nodes.compileLoop(loop);
+        reportLoop("while", loop.condition, loop.backEdges);
+        return loop.promoted;
+    }
+
+    // The back edge of a for loop comes after its increment.
+    StmtNode backEdge(Stmt.For loop) {
+        if (loop.promoted != null) return loop.promoted;
+        if (++loop.backEdges < backEdgeThreshold) return null;
+
+        loop.promoted = nodes.compileLoop(loop);
+        reportLoop("for", loop.condition, loop.backEdges);
+        return loop.promoted;
+    }
+
+    private void reportLoop(String keyword, Expr condition, int backEdges) {
+        int line = line(condition);
+        report(keyword + " loop" + (line > 0 ? " at line " + line : "") + ": " + Tier.INTERPRETER
+                + " -> " + Tier.NODES + " after " + backEdges + (backEdges == 1 ? " back edge" : " back edges"));
+    }
+
+    // The line of a loop's condition, from the first token it has, or zero if it is a literal.
+    private static int line(Expr expr) {
+        if (expr instanceof Expr.Binary binary) return line(binary.left);
+        if (expr instanceof Expr.Logical logical) return line(logical.left);
+        if (expr instanceof Expr.Grouping grouping) return line(grouping.expression);
+        if (expr instanceof Expr.Unary unary) return unary.operator.line();
+        if (expr instanceof Expr.Variable variable) return variable.name.line();
+        if (expr instanceof Expr.Assign assign) return assign.name.line();
+        if (expr instanceof Expr.Call call) return call.paren.line();
+        if (expr instanceof Expr.Get get) return get.name.line();
+        if (expr instanceof Expr.This thisExpr) return thisExpr.keyword.line();
+        return 0;
+    }
+
+    private void report(String message) {
+        if (trace) System.err.println("[tiers] " + message);
+    }
+
+    // One line for each function called so far, with the tier it is in and how many times it was called.
+    public List<String> getTiers() {
+        List<String> lines = new ArrayList<>(functions.size());
+        for (Stmt.Function function : functions) {
+            lines.add(function.name.lexeme() + ": " + function.tier + ", " + calls(function.calls));
+        }
+        return lines;
+    }
+}
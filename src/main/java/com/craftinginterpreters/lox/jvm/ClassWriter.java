@@ -0,0 +1,422 @@
+package com.craftinginterpreters.lox.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes class files with static fields and static methods, enough for compiled Lox functions.
+ * <p>
+ * The classes have version 49, the last one the JVM verifies by type inference, so methods
+ * don't need the stack map frames that later versions require at every branch target.
+ * Each method's maximum stack depth is tracked as its instructions are added.
+ */
+public class ClassWriter {
+
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int VERSION = 49;
+
+    public static final int ACONST_NULL = 0x01;
+    public static final int ICONST_0 = 0x03;
+    public static final int ICONST_1 = 0x04;
+    public static final int DCONST_0 = 0x0e;
+    public static final int ALOAD = 0x19;
+    public static final int DLOAD = 0x18;
+    public static final int AALOAD = 0x32;
+    public static final int DSTORE = 0x39;
+    public static final int POP = 0x57;
+    public static final int POP2 = 0x58;
+    public static final int DUP = 0x59;
+    public static final int DUP2 = 0x5c;
+    public static final int DADD = 0x63;
+    public static final int DSUB = 0x67;
+    public static final int DMUL = 0x6b;
+    public static final int DDIV = 0x6f;
+    public static final int DNEG = 0x77;
+    public static final int IXOR = 0x82;
+    public static final int DCMPL = 0x97;
+    public static final int DCMPG = 0x98;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9a;
+    public static final int IFLT = 0x9b;
+    public static final int IFGE = 0x9c;
+    public static final int IFGT = 0x9d;
+    public static final int IFLE = 0x9e;
+    public static final int IF_ICMPEQ = 0x9f;
+    public static final int IF_ICMPNE = 0xa0;
+    public static final int GOTO = 0xa7;
+    public static final int DRETURN = 0xaf;
+    public static final int ARETURN = 0xb0;
+    public static final int GETSTATIC = 0xb2;
+    public static final int INVOKEVIRTUAL = 0xb6;
+    public static final int INVOKESTATIC = 0xb8;
+    public static final int ATHROW = 0xbf;
+    public static final int CHECKCAST = 0xc0;
+
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int WIDE = 0xc4;
+
+    private final String name;
+    private final ConstantPool pool = new ConstantPool();
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    // The name is the internal one, with '/' between the parts of the package.
+    public ClassWriter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void addField(int access, String fieldName, String descriptor) {
+        fields.add(member(access, fieldName, descriptor, null));
+    }
+
+    public Code addMethod(int access, String methodName, String descriptor) {
+        return new Code(access, methodName, descriptor);
+    }
+
+    public byte[] toByteArray() {
+        try {
+            int thisClass = pool.classRef(name);
+            int superClass = pool.classRef("java/lang/Object");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            pool.write(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            writeAll(out, fields);
+            writeAll(out, methods);
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeAll(DataOutputStream out, List<byte[]> members) throws IOException {
+        out.writeShort(members.size());
+        for (byte[] member : members) {
+            out.write(member);
+        }
+    }
+
+    private byte[] member(int access, String memberName, String descriptor, byte[] codeAttribute) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(access);
+            out.writeShort(pool.utf8(memberName));
+            out.writeShort(pool.utf8(descriptor));
+            if (codeAttribute == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(pool.utf8("Code"));
+                out.writeInt(codeAttribute.length);
+                out.write(codeAttribute);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // How many stack slots a value of the type in a descriptor takes.
+    private static int size(char type) {
+        return switch (type) {
+            case 'V' -> 0;
+            case 'D', 'J' -> 2;
+            default -> 1;
+        };
+    }
+
+    // The stack slots the arguments of a method descriptor take, less those of its result.
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            // An array is a single reference, whatever its elements are.
+            slots += descriptor.charAt(i) == '[' ? 1 : size(descriptor.charAt(i));
+            while (descriptor.charAt(i) == '[') i++;
+            if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            i++;
+        }
+        return slots;
+    }
+
+    /**
+     * A place in a method's code that jumps can target. The stack depth is the one of
+     * the first jump to it, or of the code that runs into it.
+     */
+    public static class Label {
+        private int offset = -1;
+        private int depth = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    /**
+     * The code of one method. It is added to the class when it is finished.
+     */
+    public class Code {
+
+        private final int access;
+        private final String methodName;
+        private final String descriptor;
+        private byte[] code = new byte[64];
+        private int length;
+        private int depth;
+        private int maxDepth;
+        // Whether the code being added can be reached: not after a jump, return or throw.
+        private boolean reachable = true;
+        private final List<Label> labels = new ArrayList<>();
+
+        private Code(int access, String methodName, String descriptor) {
+            this.access = access;
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public void op(int opcode, int stackChange) {
+            emit(opcode);
+            stack(stackChange);
+            if (opcode == ATHROW || opcode == DRETURN || opcode == ARETURN) reachable = false;
+        }
+
+        public void local(int opcode, int index) {
+            int change = switch (opcode) {
+                case DLOAD -> 2;
+                case ALOAD -> 1;
+                default -> -2;
+            };
+            if (index > 255) {
+                emit(WIDE);
+                emit(opcode);
+                emitShort(index);
+            } else {
+                emit(opcode);
+                emit(index);
+            }
+            stack(change);
+        }
+
+        public void constant(int value) {
+            if (value >= -1 && value <= 5) {
+                emit(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                emit(BIPUSH);
+                emit(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                emit(SIPUSH);
+                emitShort(value);
+            } else {
+                int index = pool.integer(value);
+                if (index > 255) {
+                    emit(LDC_W);
+                    emitShort(index);
+                } else {
+                    emit(LDC);
+                    emit(index);
+                }
+            }
+            stack(1);
+        }
+
+        public void constant(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                emit(DCONST_0);
+            } else {
+                emit(LDC2_W);
+                emitShort(pool.doubleValue(value));
+            }
+            stack(2);
+        }
+
+        public void field(int opcode, String owner, String fieldName, String fieldDescriptor) {
+            emit(opcode);
+            emitShort(pool.member(9, owner, fieldName, fieldDescriptor));
+            stack(size(fieldDescriptor.charAt(0)));
+        }
+
+        public void invoke(int opcode, String owner, String name, String methodDescriptor) {
+            emit(opcode);
+            emitShort(pool.member(10, owner, name, methodDescriptor));
+            int receiver = opcode == INVOKESTATIC ? 0 : 1;
+            char result = methodDescriptor.charAt(methodDescriptor.indexOf(')') + 1);
+            stack(size(result) - argumentSlots(methodDescriptor) - receiver);
+        }
+
+        public void type(int opcode, String className) {
+            emit(opcode);
+            emitShort(pool.classRef(className));
+        }
+
+        public void jump(int opcode, Label label) {
+            int change = switch (opcode) {
+                case GOTO -> 0;
+                case IF_ICMPEQ, IF_ICMPNE -> -2;
+                default -> -1;
+            };
+            stack(change);
+            if (label.depth == -1) label.depth = depth;
+            if (!labels.contains(label)) labels.add(label);
+
+            label.jumps.add(length);
+            emit(opcode);
+            emitShort(0);
+            if (opcode == GOTO) reachable = false;
+        }
+
+        public void place(Label label) {
+            if (reachable && label.depth == -1) label.depth = depth;
+            if (!labels.contains(label)) labels.add(label);
+
+            label.offset = length;
+            depth = Math.max(label.depth, 0);
+            reachable = true;
+        }
+
+        // Adds the method to the class, with room for the given number of local slots.
+        public void finish(int maxLocals) {
+            for (Label label : labels) {
+                for (int jump : label.jumps) {
+                    int offset = label.offset - jump;
+                    code[jump + 1] = (byte) (offset >> 8);
+                    code[jump + 2] = (byte) offset;
+                }
+            }
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeShort(maxDepth);
+                out.writeShort(maxLocals);
+                out.writeInt(length);
+                out.write(code, 0, length);
+                out.writeShort(0);
+                out.writeShort(0);
+                methods.add(member(access, methodName, descriptor, bytes.toByteArray()));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void stack(int change) {
+            depth += change;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void emit(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void emitShort(int value) {
+            emit(value >> 8);
+            emit(value);
+        }
+    }
+
+    private static class ConstantPool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return add("utf8 " + value, 1, () -> out.writeUTF(value));
+        }
+
+        int integer(int value) {
+            return add("int " + value, 1, () -> out.writeInt(value));
+        }
+
+        // Doubles take two entries of the pool.
+        int doubleValue(double value) {
+            return add("double " + Double.doubleToRawLongBits(value), 2,
+                    () -> out.writeLong(Double.doubleToRawLongBits(value)));
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return add("class " + name, 1, () -> out.writeShort(nameIndex));
+        }
+
+        // A field reference for tag 9, a method reference for tag 10.
+        int member(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = add("nat " + name + " " + descriptor, 1, () -> {
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return add(tag + " " + owner + "." + name + descriptor, 1, () -> {
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int add(String key, int entries, Entry entry) {
+            Integer index = indexes.get(key);
+            if (index != null) return index;
+
+            try {
+                out.writeByte(tagOf(key));
+                entry.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = count;
+            count += entries;
+            indexes.put(key, index);
+            return index;
+        }
+
+        private static int tagOf(String key) {
+            return switch (key.substring(0, key.indexOf(' '))) {
+                case "utf8" -> 1;
+                case "int" -> 3;
+                case "double" -> 6;
+                case "class" -> 7;
+                case "nat" -> 12;
+                default -> Integer.parseInt(key.substring(0, key.indexOf(' ')));
+            };
+        }
+
+        void write(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            target.write(bytes.toByteArray());
+        }
+
+        private interface Entry {
+            void write() throws IOException;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A sequence of bytecode together with its constant pool and line table.
+ * <p>
+ * The line table is run-length encoded: a new entry is only added when the
+ * source line changes, so straight-line code from one line costs a single entry.
+ */
+public class Chunk {
+
+    byte[] code;
+    int count;
+    Object[] constants;
+    int constantCount;
+    private final Map<Object, Integer> constantIndex;
+
+    private int[] lineOffsets;
+    private int[] lines;
+    private int lineCount;
+
+    public Chunk() {
+        code = new byte[16];
+        constants = new Object[8];
+        constantIndex = new HashMap<>();
+        lineOffsets = new int[4];
+        lines = new int[4];
+    }
+
+    public void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+        }
+        code[count] = (byte) value;
+
+        if (lineCount == 0 || lines[lineCount - 1] != line) {
+            if (lineCount == lines.length) {
+                lineOffsets = Arrays.copyOf(lineOffsets, lineCount * 2);
+                lines = Arrays.copyOf(lines, lineCount * 2);
+            }
+            lineOffsets[lineCount] = count;
+            lines[lineCount] = line;
+            lineCount++;
+        }
+        count++;
+    }
+
+    public void patch(int offset, int value) {
+        code[offset] = (byte) value;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int addConstant(Object value) {
+        // Numbers and strings are values, so identical ones can share a slot.
+        boolean shareable = value instanceof Double || value instanceof String;
+        if (shareable) {
+            Integer existing = constantIndex.get(value);
+            if (existing != null) return existing;
+            constantIndex.put(value, constantCount);
+        }
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+
+    public int getLine(int offset) {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineOffsets[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return lines[low];
+    }
+}
@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox.vm;
+
+public class ObjBoundMethod {
+
+    final Object receiver;
+    final ObjClosure method;
+
+    ObjBoundMethod(Object receiver, ObjClosure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ObjClass {
+
+    final String name;
+    final Map<String, ObjClosure> methods;
+    ObjClosure initializer;
+
+    ObjClass(String name) {
+        this.name = name;
+        this.methods = new HashMap<>();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox.vm;
+
+/**
+ * A compiled function: its bytecode plus what the VM needs to call it.
+ * The top level script is compiled into a function without a name.
+ */
+public class ObjFunction {
+
+    public final String name;
+    public final Chunk chunk;
+    public int arity;
+    public int upvalueCount;
+
+    public ObjFunction(String name) {
+        this.name = name;
+        this.chunk = new Chunk();
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
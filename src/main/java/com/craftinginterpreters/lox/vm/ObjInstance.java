@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ObjInstance {
+
+    final ObjClass klass;
+    final Map<String, Object> fields;
+
+    ObjInstance(ObjClass klass) {
+        this.klass = klass;
+        this.fields = new HashMap<>();
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
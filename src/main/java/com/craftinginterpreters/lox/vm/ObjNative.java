@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox.vm;
+
+/**
+ * A function implemented in Java, such as clock.
+ */
+public class ObjNative {
+
+    interface NativeFunction {
+        Object call(Object[] arguments);
+    }
+
+    final int arity;
+    final NativeFunction function;
+
+    ObjNative(int arity, NativeFunction function) {
+        this.arity = arity;
+        this.function = function;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
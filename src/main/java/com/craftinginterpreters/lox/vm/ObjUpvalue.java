@@ -0,0 +1,22 @@
+package com.craftinginterpreters.lox.vm;
+
+/**
+ * A variable captured by a closure.
+ * <p>
+ * While the variable is still on the stack the upvalue is 'open' and refers to
+ * its stack slot. When the variable goes out of scope the value is moved
+ * into the upvalue itself and the upvalue is 'closed'.
+ */
+class ObjUpvalue {
+
+    final int slot;
+    Object closed;
+    boolean isOpen;
+    ObjUpvalue next;
+
+    ObjUpvalue(int slot, ObjUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+        this.isOpen = true;
+    }
+}
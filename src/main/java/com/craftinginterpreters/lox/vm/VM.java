@@ -0,0 +1,620 @@
+package com.craftinginterpreters.lox.vm;
+
+import com.craftinginterpreters.lox.Lox;
+import com.craftinginterpreters.lox.RuntimeError;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A stack based virtual machine that executes the bytecode produced by the BytecodeCompiler.
+ * <p>
+ * Numbers are kept unboxed on the stack: a slot holding a number contains the
+ * NUMBER marker in the value stack and the actual value in the parallel numbers
+ * array. Numbers are only boxed when they leave the stack, for example when they are
+ * stored in a global, a field or a closed upvalue.
+ * <p>
+ * Globals live in a table indexed by slot. The compiler asks the VM for the slot of each
+ * global name, so the table outlives a single script and globals defined on one line of
+ * the REPL keep their slot on the next. A slot whose global hasn't been defined yet
+ * holds UNDEFINED.
+ */
+public class VM {
+
+    private static final int FRAMES_MAX = 1 << 16;
+    private static final Object NUMBER = new Object();
+    private static final Object UNDEFINED = new Object();
+
+    private Object[] stack;
+    private double[] numbers;
+    private int stackTop;
+
+    private CallFrame[] frames;
+    private int frameCount;
+
+    private ObjUpvalue openUpvalues;
+    private final Map<String, Integer> globalSlots;
+    private String[] globalNames;
+    private Object[] globals;
+
+    private static class CallFrame {
+        ObjClosure closure;
+        int ip;
+        int base;
+    }
+
+    public VM() {
+        stack = new Object[256];
+        numbers = new double[256];
+        frames = new CallFrame[64];
+        globalSlots = new HashMap<>();
+        globalNames = new String[16];
+        globals = new Object[16];
+
+        globals[globalSlot("clock")] = new ObjNative(0, arguments -> (double) System.currentTimeMillis() / 1000.0);
+    }
+
+    // The slot of the global with the given name, which is added if it is new.
+    public int globalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        if (slot != null) return slot;
+
+        slot = globalSlots.size();
+        globalSlots.put(name, slot);
+        if (slot == globals.length) {
+            globalNames = Arrays.copyOf(globalNames, slot * 2);
+            globals = Arrays.copyOf(globals, slot * 2);
+        }
+        globalNames[slot] = name;
+        globals[slot] = UNDEFINED;
+        return slot;
+    }
+
+    public void interpret(ObjFunction script) {
+        ObjClosure closure = new ObjClosure(script);
+        push(closure);
+        try {
+            call(closure, 0);
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            resetStack();
+        }
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, 0, stackTop, null);
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        while (true) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT: {
+                    push(constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                }
+                case OpCode.NIL:
+                    push(null);
+                    break;
+                case OpCode.TRUE:
+                    push(Boolean.TRUE);
+                    break;
+                case OpCode.FALSE:
+                    push(Boolean.FALSE);
+                    break;
+                case OpCode.POP:
+                    stack[--stackTop] = null;
+                    break;
+                case OpCode.GET_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    ensureCapacity();
+                    stack[stackTop] = stack[slot];
+                    numbers[stackTop] = numbers[slot];
+                    stackTop++;
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    stack[slot] = stack[stackTop - 1];
+                    numbers[slot] = numbers[stackTop - 1];
+                    break;
+                }
+                case OpCode.GET_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    ip += 2;
+                    Object value = globals[slot];
+                    if (value == UNDEFINED) {
+                        frame.ip = ip;
+                        throw error("Undefined variable '" + globalNames[slot] + "'.");
+                    }
+                    push(value);
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    globals[readShort(code, ip)] = pop();
+                    ip += 2;
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    ip += 2;
+                    if (globals[slot] == UNDEFINED) {
+                        frame.ip = ip;
+                        throw error("Undefined variable '" + globalNames[slot] + "'.");
+                    }
+                    globals[slot] = peek(0);
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isOpen) {
+                        ensureCapacity();
+                        stack[stackTop] = stack[upvalue.slot];
+                        numbers[stackTop] = numbers[upvalue.slot];
+                        stackTop++;
+                    } else {
+                        push(upvalue.closed);
+                    }
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isOpen) {
+                        stack[upvalue.slot] = stack[stackTop - 1];
+                        numbers[upvalue.slot] = numbers[stackTop - 1];
+                    } else {
+                        upvalue.closed = peek(0);
+                    }
+                    break;
+                }
+                case OpCode.GET_PROPERTY: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    frame.ip = ip;
+                    if (!(stack[stackTop - 1] instanceof ObjInstance instance)) {
+                        throw error("Only instances have properties.");
+                    }
+                    Object value = instance.fields.get(name);
+                    if (value != null || instance.fields.containsKey(name)) {
+                        pop();
+                        push(value);
+                        break;
+                    }
+                    bindMethod(instance.klass, name);
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    if (!(stack[stackTop - 2] instanceof ObjInstance instance)) {
+                        frame.ip = ip;
+                        throw error("Only instances have fields.");
+                    }
+                    Object value = pop();
+                    instance.fields.put(name, value);
+                    pop();
+                    push(value);
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    frame.ip = ip;
+                    ObjClass superclass = (ObjClass) pop();
+                    bindMethod(superclass, name);
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    boolean result = valuesEqual(stackTop - 2, stackTop - 1);
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = result;
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    boolean result = !valuesEqual(stackTop - 2, stackTop - 1);
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = result;
+                    break;
+                }
+                case OpCode.GREATER: {
+                    checkNumberOperands(frame, ip);
+                    boolean result = numbers[stackTop - 2] > numbers[stackTop - 1];
+                    stackTop--;
+                    stack[stackTop - 1] = result;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    checkNumberOperands(frame, ip);
+                    boolean result = numbers[stackTop - 2] >= numbers[stackTop - 1];
+                    stackTop--;
+                    stack[stackTop - 1] = result;
+                    break;
+                }
+                case OpCode.LESS: {
+                    checkNumberOperands(frame, ip);
+                    boolean result = numbers[stackTop - 2] < numbers[stackTop - 1];
+                    stackTop--;
+                    stack[stackTop - 1] = result;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    checkNumberOperands(frame, ip);
+                    boolean result = numbers[stackTop - 2] <= numbers[stackTop - 1];
+                    stackTop--;
+                    stack[stackTop - 1] = result;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object b = stack[stackTop - 1];
+                    Object a = stack[stackTop - 2];
+                    if (a == NUMBER && b == NUMBER) {
+                        numbers[stackTop - 2] += numbers[stackTop - 1];
+                        stack[--stackTop] = null;
+                    } else if (a instanceof String left && b instanceof String right) {
+                        stackTop -= 2;
+                        push(left + right);
+                    } else {
+                        frame.ip = ip;
+                        throw error("Operands must be two numbers or two strings");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    checkNumberOperands(frame, ip);
+                    numbers[stackTop - 2] -= numbers[stackTop - 1];
+                    stack[--stackTop] = null;
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    checkNumberOperands(frame, ip);
+                    numbers[stackTop - 2] *= numbers[stackTop - 1];
+                    stack[--stackTop] = null;
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    checkNumberOperands(frame, ip);
+                    numbers[stackTop - 2] /= numbers[stackTop - 1];
+                    stack[--stackTop] = null;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[stackTop - 1] = isFalsey(stack[stackTop - 1]);
+                    break;
+                case OpCode.NEGATE: {
+                    if (stack[stackTop - 1] != NUMBER) {
+                        frame.ip = ip;
+                        throw error("Operand must be a number");
+                    }
+                    numbers[stackTop - 1] = -numbers[stackTop - 1];
+                    break;
+                }
+                case OpCode.PRINT:
+                    System.out.println(stringify(pop()));
+                    break;
+                case OpCode.JUMP: {
+                    ip += 2 + readShort(code, ip);
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    int offset = readShort(code, ip);
+                    ip += 2;
+                    if (isFalsey(stack[stackTop - 1])) ip += offset;
+                    break;
+                }
+                case OpCode.LOOP: {
+                    int offset = readShort(code, ip);
+                    ip += 2 - offset;
+                    break;
+                }
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    callValue(stack[stackTop - 1 - argCount], argCount);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.INVOKE: {
+                    String method = (String) constants[readShort(code, ip)];
+                    int argCount = code[ip + 2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+                    invoke(method, argCount);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.SUPER_INVOKE: {
+                    String method = (String) constants[readShort(code, ip)];
+                    int argCount = code[ip + 2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+                    ObjClass superclass = (ObjClass) pop();
+                    invokeFromClass(superclass, method, argCount);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    ObjFunction function = (ObjFunction) constants[readShort(code, ip)];
+                    ip += 2;
+                    ObjClosure closure = new ObjClosure(function);
+                    push(closure);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal
+                                ? captureUpvalue(base + index)
+                                : frame.closure.upvalues[index];
+                    }
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(stackTop - 1);
+                    stack[--stackTop] = null;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[stackTop - 1];
+                    double number = numbers[stackTop - 1];
+                    closeUpvalues(base);
+                    frameCount--;
+                    Arrays.fill(stack, base, stackTop, null);
+                    if (frameCount == 0) {
+                        stackTop = 0;
+                        return;
+                    }
+
+                    stackTop = base;
+                    stack[stackTop] = result;
+                    numbers[stackTop] = number;
+                    stackTop++;
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLASS: {
+                    push(new ObjClass((String) constants[readShort(code, ip)]));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.INHERIT: {
+                    if (!(peek(1) instanceof ObjClass superclass)) {
+                        frame.ip = ip;
+                        throw error("Superclass must be a class.");
+                    }
+                    ObjClass subclass = (ObjClass) peek(0);
+                    subclass.methods.putAll(superclass.methods);
+                    subclass.initializer = superclass.initializer;
+                    pop();
+                    break;
+                }
+                case OpCode.METHOD: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    ObjClosure method = (ObjClosure) peek(0);
+                    ObjClass klass = (ObjClass) peek(1);
+                    klass.methods.put(name, method);
+                    if (name.equals("init")) klass.initializer = method;
+                    pop();
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof ObjClosure closure) {
+            call(closure, argCount);
+        } else if (callee instanceof ObjBoundMethod bound) {
+            stack[stackTop - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+        } else if (callee instanceof ObjClass klass) {
+            stack[stackTop - argCount - 1] = new ObjInstance(klass);
+            if (klass.initializer != null) {
+                call(klass.initializer, argCount);
+            } else if (argCount != 0) {
+                throw error("Expected 0 arguments but got " + argCount);
+            }
+        } else if (callee instanceof ObjNative nativeFunction) {
+            if (argCount != nativeFunction.arity) {
+                throw error("Expected " + nativeFunction.arity + " arguments but got " + argCount);
+            }
+            Object[] arguments = new Object[argCount];
+            for (int i = 0; i < argCount; i++) {
+                arguments[i] = valueAt(stackTop - argCount + i);
+            }
+            Object result = nativeFunction.function.call(arguments);
+            Arrays.fill(stack, stackTop - argCount - 1, stackTop, null);
+            stackTop -= argCount + 1;
+            push(result);
+        } else {
+            throw error("Can only call functions and classes");
+        }
+    }
+
+    private void invoke(String name, int argCount) {
+        if (!(peek(argCount) instanceof ObjInstance instance)) {
+            throw error("Only instances have properties.");
+        }
+
+        Object field = instance.fields.get(name);
+        if (field != null || instance.fields.containsKey(name)) {
+            stack[stackTop - argCount - 1] = field;
+            callValue(field, argCount);
+            return;
+        }
+
+        invokeFromClass(instance.klass, name, argCount);
+    }
+
+    private void invokeFromClass(ObjClass klass, String name, int argCount) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw error("Undefined property '" + name + "'.");
+        }
+        call(method, argCount);
+    }
+
+    private void call(ObjClosure closure, int argCount) {
+        if (argCount != closure.function.arity) {
+            throw error("Expected " + closure.function.arity + " arguments but got " + argCount);
+        }
+        if (frameCount == FRAMES_MAX) {
+            throw error("Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = stackTop - argCount - 1;
+    }
+
+    private void bindMethod(ObjClass klass, String name) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw error("Undefined property '" + name + "'.");
+        }
+        ObjBoundMethod bound = new ObjBoundMethod(pop(), method);
+        push(bound);
+    }
+
+    private ObjUpvalue captureUpvalue(int slot) {
+        ObjUpvalue previous = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        ObjUpvalue created = new ObjUpvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            ObjUpvalue upvalue = openUpvalues;
+            upvalue.closed = valueAt(upvalue.slot);
+            upvalue.isOpen = false;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void checkNumberOperands(CallFrame frame, int ip) {
+        if (stack[stackTop - 1] == NUMBER && stack[stackTop - 2] == NUMBER) return;
+        frame.ip = ip;
+        throw error("Operands must be numbers");
+    }
+
+    private static boolean isFalsey(Object value) {
+        return value == null || (value instanceof Boolean bool && !bool);
+    }
+
+    // Same semantics as Object.equals on the boxed values, without boxing numbers.
+    private boolean valuesEqual(int left, int right) {
+        Object a = stack[left];
+        Object b = stack[right];
+        if (a == NUMBER || b == NUMBER) {
+            return a == b && Double.doubleToLongBits(numbers[left]) == Double.doubleToLongBits(numbers[right]);
+        }
+        if (a == null) return b == null;
+        return a.equals(b);
+    }
+
+    private void ensureCapacity() {
+        if (stackTop == stack.length) {
+            stack = Arrays.copyOf(stack, stackTop * 2);
+            numbers = Arrays.copyOf(numbers, stackTop * 2);
+        }
+    }
+
+    private void push(Object value) {
+        ensureCapacity();
+        if (value instanceof Double number) {
+            stack[stackTop] = NUMBER;
+            numbers[stackTop] = number;
+        } else {
+            stack[stackTop] = value;
+        }
+        stackTop++;
+    }
+
+    private Object pop() {
+        Object value = valueAt(--stackTop);
+        stack[stackTop] = null;
+        return value;
+    }
+
+    private Object peek(int distance) {
+        return valueAt(stackTop - 1 - distance);
+    }
+
+    private Object valueAt(int slot) {
+        Object value = stack[slot];
+        if (value == NUMBER) return numbers[slot];
+        return value;
+    }
+
+    private RuntimeError error(String message) {
+        CallFrame frame = frames[frameCount - 1];
+        Chunk chunk = frame.closure.function.chunk;
+        return new RuntimeError(chunk.getLine(frame.ip - 1), message);
+    }
+
+    private String stringify(Object object) {
+        if (object == null) return "nil";
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+        return object.toString();
+    }
+}
@@ -12,30 +12,35 @@ public class GenerateAst {
 
         String outputDir = (args.length > 0) ? args[0] : System.getProperty("user.dir");
 
+        // An optional third section lists mutable fields that are filled in by later passes,
+        // such as the kind of variable and the slot the Resolver finds for it.
         List<String> expressions = Arrays.asList(
-                "Assign   : Token name, Expr value",
+                "Assign   : Token name, Expr value : int kind = Resolver.GLOBAL, int slot",
                 "Binary   : Expr left, Token operator, Expr right",
                 "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Get      : Expr object, Token name : InlineCache cache = new InlineCache()",
                 "Grouping : Expr expression",
+                "Inline   : Expr.Call call, Stmt.Function function, List<Token> params, List<Stmt> body : int[] slots",
+                "Invariant : Token name, Expr expression : int kind = Resolver.GLOBAL, int slot",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
+                "Set      : Expr object, Token name, Expr value : InlineCache cache = new InlineCache()",
+                "Super    : Token keyword, Token method : int kind = Resolver.GLOBAL, int slot, int thisKind = Resolver.GLOBAL, int thisSlot, LoxClass superclass, LoxFunction target",
+                "This     : Token keyword : int kind = Resolver.GLOBAL, int slot",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name");
+                "Variable : Token name : int kind = Resolver.GLOBAL, int slot");
 
         List<String> statements = Arrays.asList(
                 "Block      : List<Stmt> statements",
-                "Class      : Token name, Expr.Variable superClass, List<Stmt.Function> methods",
+                "Class      : Token name, Expr.Variable superClass, List<Stmt.Function> methods : int kind = Resolver.GLOBAL, int slot, int superKind, int superSlot",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                "For        : Stmt initializer, Expr condition, Expr increment, Stmt body : int backEdges, StmtNode promoted",
+                "Function   : Token name, List<Token> params, List<Stmt> body : int kind = Resolver.GLOBAL, int slot, int frameSize, int[] capturedParameters, int[] upvalueIndexes, boolean[] upvalueIsLocal, int calls, CompiledFunction compiled, TieredExecution.Tier tier = TieredExecution.Tier.INTERPRETER, LoxFunction.Body promoted",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
-                "While      : Expr condition, Stmt body");
+                "Return     : Token keyword, Expr value : boolean tailCall",
+                "Var        : Token name, Expr initializer : int kind = Resolver.GLOBAL, int slot",
+                "While      : Expr condition, Stmt body : int backEdges, StmtNode promoted");
 
         defineAst(outputDir, "Stmt", statements);
         defineAst(outputDir, "Expr", expressions);
@@ -57,9 +62,11 @@ public class GenerateAst {
 
         // The AST subclasses
         for (String type : types) {
-            String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] parts = type.split(":");
+            String className = parts[0].trim();
+            String fields = parts[1].trim();
+            String mutableFields = (parts.length > 2) ? parts[2].trim() : null;
+            defineType(writer, baseName, className, fields, mutableFields);
         }
 
         writer.println();
@@ -82,7 +89,8 @@ public class GenerateAst {
         writer.println("  }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String mutableFieldList) {
         writer.println(" static class " + className + " extends " + baseName + " {");
 
         // Constructor.
@@ -110,6 +118,13 @@ public class GenerateAst {
             writer.println("    final " + field + ";");
         }
 
+        if (mutableFieldList != null) {
+            writer.println();
+            for (String field : mutableFieldList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
+
         writer.println("  }");
     }
 
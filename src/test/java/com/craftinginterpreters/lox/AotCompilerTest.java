@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Compiles programs ahead of time into jars, runs them with {@code java -jar} and checks that
+ * they print the same output as the interpreter, errors included.
+ */
+class AotCompilerTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print fib(15);",
+            "fun counter() { var c = 0; fun inc() { c = c + 1; return c; } return inc; } var a = counter(); a(); print a();",
+            "for (var i = 0; i < 3; i = i + 1) { fun f() { return i; } print f(); }",
+            "class A { init(x) { this.x = x; } get() { return this.x; } } "
+                    + "class B < A { init(x) { super.init(x * 2); } get() { return super.get() + 1; } } "
+                    + "var b = B(5); print b.get(); print b.init(1).x; var m = b.get; print m(); print b;",
+            "fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); } print count(100000, 0);",
+            "var s = \"a\"; s = s + \"b\"; print s; print s == \"ab\"; print -0; print 0 / 0; print nil or \"x\";",
+            "var i = 0; while (true) { i = i + 1; if (i > 3) break; } print i; print \"x\" - 1;",
+            "class A {} print A().missing;",
+            "fun f(a) { return a; } print f(1, 2);",
+            "var x = 1; { var x = x; print x; } { var y = (y = 2) + 1; fun f() { return y; } print f(); } print x;",
+            "fun f(a) { var a = a + 1; var c = c; fun g() { return c; } return g() == nil and a; } print f(5);",
+            "{ var b = 1; var b = b + 1; fun k() { return b; } fun k() { return b * 2; } print k(); }"
+    })
+    public void testCompiledProgramMatchesInterpreter(String source) throws IOException, InterruptedException {
+        Assertions.assertThat(runCompiled(Programs.resolve(source, new Interpreter()))).isEqualTo(Programs.run(source));
+    }
+
+    @Test
+    public void testLargeProgramsCompile() throws IOException, InterruptedException {
+        StringBuilder topLevel = new StringBuilder();
+        StringBuilder function = new StringBuilder("fun big(n) { var s = 0; ");
+        for (int i = 0; i < 3000; i++) {
+            topLevel.append("var a").append(i).append(" = ").append(i).append("; print a").append(i).append(" + 1;\n");
+            function.append("var b").append(i).append(" = n + ").append(i).append("; if (b").append(i)
+                    .append(" > 100000) return b").append(i).append("; s = s + b").append(i).append(";\n");
+        }
+        function.append("fun last() { return b0 + b2999; } return s + last(); } print big(1); print big(100000);");
+
+        for (String source : List.of(topLevel.toString(), function.toString())) {
+            Assertions.assertThat(runCompiled(Programs.resolve(source, new Interpreter()))).isEqualTo(Programs.run(source));
+        }
+    }
+
+    @Test
+    public void testJarLeavesOutTheFrontEnd() throws IOException {
+        List<Stmt> statements = Programs.resolve("class A { get() { return 1; } } fun f() { var a = A(); return a.get; } "
+                + "print f()();", new Interpreter());
+        Path jar = Files.createTempDirectory("aot").resolve("script.jar");
+        new AotCompiler().compile(statements, jar);
+
+        List<String> entries;
+        try (JarFile file = new JarFile(jar.toFile())) {
+            entries = file.stream().map(JarEntry::getName).toList();
+        }
+
+        Assertions.assertThat(entries.toString()).contains("lox/Interpreter.class", "lox/LoxClass.class");
+        Assertions.assertThat(entries.toString()).doesNotContain("lox/Lox.class", "lox/Parser.class",
+                "lox/Resolver.class", "lox/Inliner.class", "scanner/", "tool/", "vm/");
+    }
+
+    private String runCompiled(List<Stmt> statements) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("aot");
+        Path jar = directory.resolve("script.jar");
+        new AotCompiler().compile(statements, jar);
+
+        Path java = Path.of(System.getProperty("java.home"), "bin", "java");
+        Process process = new ProcessBuilder(java.toString(), "-Xss8m", "-jar", jar.toString())
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        process.waitFor();
+        return output;
+    }
+}
@@ -0,0 +1,110 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores programs in a cache file, loads them back into a fresh interpreter and checks that
+ * they print the same output as the programs that were stored, and that a cache that doesn't
+ * match its script isn't loaded.
+ */
+class AstCacheTest {
+
+    private static final int INLINE_THRESHOLD = Inliner.DEFAULT_THRESHOLD;
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print fib(15);",
+            "fun counter() { var c = 0; fun inc() { c = c + 1; return c; } return inc; } "
+                    + "var a = counter(); a(); var b = counter(); print a() + b();",
+            "class A { init(x) { this.x = x; } get() { return this.x; } } "
+                    + "class B < A { init(x) { super.init(x * 2); } get() { return super.get() + 1; } } "
+                    + "var b = B(5); print b.get(); var m = b.get; print m(); print b;",
+            "fun sq(x) { return x * x; } var s = 0; for (var i = 0; i < 10; i = i + 1) s = s + sq(i); print s;",
+            "var n = 3; var s = 0; for (var i = 0; i < 5; i = i + 1) { var k = n * 2; s = s + k + i; } print s;",
+            "var fs = nil; for (var i = 0; i < 5; i = i + 1) { var j = i; fun f() { return j; } fs = f; } print fs();",
+            "fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); } print count(100000, 0);",
+            "var s = \"a\\u00e9\"; s = s + \"b\"; print s; print -0; print 1.25; print nil or true; print !false;",
+            "print clock() > 0; var x; { var y = x; print y; } print \"x\" - 1;"
+    })
+    public void testCachedProgramMatchesStoredProgram(String source) throws IOException {
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Programs.prepare(source, interpreter);
+        String expected = Programs.captureOutput(() -> interpreter.interpret(statements));
+
+        Path file = cacheFile();
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        Interpreter storing = new Interpreter();
+        new AstCache(storing.globals, INLINE_THRESHOLD).store(file, bytes, Programs.prepare(source, storing));
+
+        Interpreter fresh = new Interpreter();
+        List<Stmt> cached = new AstCache(fresh.globals, INLINE_THRESHOLD).load(file, bytes);
+        Assertions.assertThat(cached).isNotNull();
+        Assertions.assertThat(Programs.captureOutput(() -> fresh.interpret(cached))).isEqualTo(expected);
+    }
+
+    @Test
+    public void testStaleCacheIsNotLoaded() throws IOException {
+        Path file = store("print 1;");
+        AstCache cache = new AstCache(new Interpreter().globals, INLINE_THRESHOLD);
+
+        Assertions.assertThat(cache.load(file, "print 2;".getBytes(StandardCharsets.UTF_8))).isNull();
+        Assertions.assertThat(new AstCache(new Interpreter().globals, INLINE_THRESHOLD + 1)
+                .load(file, "print 1;".getBytes(StandardCharsets.UTF_8))).isNull();
+        Assertions.assertThat(cache.load(file, "print 1;".getBytes(StandardCharsets.UTF_8))).isNotNull();
+    }
+
+    @Test
+    public void testCorruptCacheIsNotLoaded() throws IOException {
+        String source = "fun f(a) { return a + 1; } print f(1);";
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        AstCache cache = new AstCache(new Interpreter().globals, INLINE_THRESHOLD);
+
+        Path file = store(source);
+        byte[] contents = Files.readAllBytes(file);
+        contents[contents.length - 3] ^= 0x55;
+        Files.write(file, contents);
+        Assertions.assertThat(cache.load(file, bytes)).isNull();
+
+        file = store(source);
+        contents = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(contents, contents.length / 2));
+        Assertions.assertThat(cache.load(file, bytes)).isNull();
+    }
+
+    @Test
+    public void testMissingCacheIsNotLoaded() throws IOException {
+        Path file = cacheFile();
+
+        Assertions.assertThat(new AstCache(new Interpreter().globals, INLINE_THRESHOLD)
+                .load(file, "print 1;".getBytes(StandardCharsets.UTF_8))).isNull();
+    }
+
+    @Test
+    public void testCacheFileIsNextToScript() {
+        Assertions.assertThat(AstCache.cacheFile(Path.of("scripts", "fib.lox")))
+                .isEqualTo(Path.of("scripts", "fib.loxc"));
+        Assertions.assertThat(AstCache.cacheFile(Path.of("fib"))).isEqualTo(Path.of("fib.loxc"));
+    }
+
+    private Path store(String source) throws IOException {
+        Path file = cacheFile();
+        Interpreter interpreter = new Interpreter();
+        new AstCache(interpreter.globals, INLINE_THRESHOLD)
+                .store(file, source.getBytes(StandardCharsets.UTF_8), Programs.prepare(source, interpreter));
+        return file;
+    }
+
+    private static Path cacheFile() throws IOException {
+        return AstCache.cacheFile(Files.createTempDirectory("loxc").resolve("script.lox"));
+    }
+}
@@ -27,6 +27,7 @@ public class Deparser implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             if (
             !(statement instanceof Stmt.If)
             && !(statement instanceof Stmt.While)
+            && !(statement instanceof Stmt.For)
             && !(statement instanceof Stmt.Function)
 
             ) {
@@ -71,6 +72,17 @@ public class Deparser implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public String visitInlineExpr(Expr.Inline expr) {
+        return visitCallExpr(expr.call);
+    }
+
+    @Override
+    public String visitInvariantExpr(Expr.Invariant expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
     @Override
     public String visitGroupingExpr(Expr.Grouping expr) {
         tokens.add(new Token(LEFT_PAREN, "(", null, 0));
@@ -174,6 +186,26 @@ public class Deparser implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        tokens.add(new Token(FOR, "for", null, 0));
+        tokens.add(new Token(LEFT_PAREN, "(", null, 0));
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        }
+        tokens.add(new Token(SEMICOLON, ";", null, 0));
+        stmt.condition.accept(this);
+        tokens.add(new Token(SEMICOLON, ";", null, 0));
+        if (stmt.increment != null) {
+            stmt.increment.accept(this);
+        }
+        tokens.add(new Token(RIGHT_PAREN, ")", null, 0));
+        tokens.add(new Token(LEFT_BRACE, "{", null, 0));
+        stmt.body.accept(this);
+        tokens.add(new Token(RIGHT_BRACE, "}", null, 0));
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         tokens.add(new Token(FUN, "fun", null, 0));
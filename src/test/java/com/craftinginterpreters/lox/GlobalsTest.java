@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Runs programs that use global variables, whose names the Resolver interns to slots of
+ * the global table, and checks what they print.
+ */
+class GlobalsTest {
+
+    @Test
+    public void testThisOutsideClassIsUndefined() {
+        Assertions.assertThat(Programs.run("print this;"))
+                .isEqualTo("Undefined variable 'this'.\n[line 1]\n");
+        Assertions.assertThat(Programs.run("fun f() { return this; }\nprint f();"))
+                .isEqualTo("Undefined variable 'this'.\n[line 1]\n");
+    }
+
+    @Test
+    public void testReplRedefinesGlobals() {
+        Assertions.assertThat(repl(
+                "var a = 1; fun show() { print a; }",
+                "show(); var a = \"two\"; show();",
+                "a = 3; show();",
+                "fun show() { print a + 1; } show();"))
+                .isEqualTo("1\ntwo\n3\n4\n");
+    }
+
+    @Test
+    public void testReadingUndefinedGlobal() {
+        Assertions.assertThat(Programs.run("print missing;"))
+                .isEqualTo("Undefined variable 'missing'.\n[line 1]\n");
+        Assertions.assertThat(Programs.run("fun f() { return later; }\nprint f();\nvar later = 1;"))
+                .isEqualTo("Undefined variable 'later'.\n[line 1]\n");
+        Assertions.assertThat(Programs.run("fun f() { return later; } var later = \"ok\"; print f(); var a; print a;"))
+                .isEqualTo("ok\nnil\n");
+    }
+
+    @Test
+    public void testAssigningUndeclaredGlobal() {
+        Assertions.assertThat(Programs.run("print 1;\nmissing = 2;\nprint 3;"))
+                .isEqualTo("1\nUndefined variable 'missing'.\n[line 2]\n");
+        Assertions.assertThat(repl("missing = 1;", "print missing;", "var missing = 2; print missing;"))
+                .isEqualTo("Undefined variable 'missing'.\n[line 1]\n"
+                        + "Undefined variable 'missing'.\n[line 1]\n2\n");
+    }
+
+    // Runs each line in turn on the same interpreter, as the REPL does.
+    private static String repl(String... lines) {
+        Interpreter interpreter = new Interpreter();
+        StringBuilder output = new StringBuilder();
+        for (String line : lines) {
+            List<Stmt> statements = Programs.prepare(line, interpreter);
+            output.append(Programs.captureOutput(() -> interpreter.interpret(statements)));
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,147 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives single inline caches through their monomorphic, polymorphic and megamorphic
+ * states and checks that property gets and sets find the same values as full lookups,
+ * including after instances have moved to new shapes.
+ */
+class InlineCacheTest {
+
+    private final Interpreter interpreter = new Interpreter();
+
+    @Test
+    public void testMonomorphicSiteHitsItsEntry() {
+        LoxClass klass = define("class A { m() { return 1; } }", "A");
+        LoxInstance first = instance(klass, "x");
+        LoxInstance second = instance(klass, "x");
+        second.set(name("x"), 2.0);
+        InlineCache cache = new InlineCache();
+
+        Assertions.assertThat(cache.get(first, name("x"))).isEqualTo(0.0);
+        Assertions.assertThat(cache.get(second, name("x"))).isEqualTo(2.0);
+        Assertions.assertThat(cache.size()).isEqualTo(1);
+        Assertions.assertThat(cache.isMegamorphic()).isFalse();
+
+        InlineCache methods = new InlineCache();
+        Assertions.assertThat(methods.getMethod(first, name("m")) == klass.findMethod("m")).isTrue();
+        Assertions.assertThat(methods.get(second, name("m"))).isInstanceOf(LoxFunction.class);
+        Assertions.assertThat(methods.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPolymorphicSiteKeepsAnEntryPerShape() {
+        LoxClass klass = define("class A {}", "A");
+        LoxInstance xy = instance(klass, "x", "y");
+        LoxInstance yx = instance(klass, "y", "x");
+        LoxInstance x = instance(klass, "x");
+        InlineCache cache = new InlineCache();
+
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertThat(cache.get(xy, name("x"))).isEqualTo(0.0);
+            Assertions.assertThat(cache.get(yx, name("x"))).isEqualTo(1.0);
+            Assertions.assertThat(cache.get(x, name("x"))).isEqualTo(0.0);
+        }
+
+        Assertions.assertThat(cache.size()).isEqualTo(3);
+        Assertions.assertThat(cache.isMegamorphic()).isFalse();
+    }
+
+    @Test
+    public void testMegamorphicSiteFallsBackToFullLookups() {
+        List<LoxInstance> instances = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            LoxInstance instance = new LoxInstance(define("class C" + i + " {}", "C" + i));
+            instance.set(name("x"), (double) i);
+            instances.add(instance);
+        }
+        InlineCache cache = new InlineCache();
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < instances.size(); i++) {
+                Assertions.assertThat(cache.get(instances.get(i), name("x"))).isEqualTo((double) i);
+            }
+        }
+        Assertions.assertThat(cache.isMegamorphic()).isTrue();
+
+        InlineCache setter = new InlineCache();
+        for (int i = 0; i < instances.size(); i++) {
+            setter.set(instances.get(i), name("y"), (double) -i);
+        }
+        Assertions.assertThat(setter.isMegamorphic()).isTrue();
+        for (int i = 0; i < instances.size(); i++) {
+            Assertions.assertThat(instances.get(i).get(name("y"))).isEqualTo((double) -i);
+        }
+    }
+
+    @Test
+    public void testFieldAddedAfterWarmUpIsSeen() {
+        LoxClass klass = define("class A { m() { return 1; } }", "A");
+        LoxInstance instance = instance(klass, "x");
+        InlineCache fields = new InlineCache();
+        InlineCache methods = new InlineCache();
+        fields.get(instance, name("x"));
+        methods.get(instance, name("m"));
+
+        instance.set(name("y"), 5.0);
+        instance.set(name("m"), 7.0);
+
+        Assertions.assertThat(fields.get(instance, name("x"))).isEqualTo(0.0);
+        Assertions.assertThat(fields.size()).isEqualTo(2);
+        Assertions.assertThat(methods.get(instance, name("m"))).isEqualTo(7.0);
+        Assertions.assertThat(methods.getMethod(instance, name("m"))).isNull();
+    }
+
+    @Test
+    public void testCachedTransitionAddsField() {
+        LoxClass klass = define("class A {}", "A");
+        InlineCache setter = new InlineCache();
+        LoxInstance first = new LoxInstance(klass);
+        LoxInstance second = new LoxInstance(klass);
+
+        setter.set(first, name("x"), 1.0);
+        setter.set(second, name("x"), 2.0);
+        setter.set(second, name("x"), 3.0);
+
+        Assertions.assertThat(first.getShape() == second.getShape()).isTrue();
+        Assertions.assertThat(first.get(name("x"))).isEqualTo(1.0);
+        Assertions.assertThat(second.get(name("x"))).isEqualTo(3.0);
+        Assertions.assertThat(setter.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testPropertySitesInPrograms() {
+        String output = Programs.run("class A { init() { this.v = 1; } get() { return this.v; } } "
+                + "class B { init() { this.w = 0; this.v = 2; } get() { return this.v * 10; } } "
+                + "var s = 0; "
+                + "for (var i = 0; i < 12; i = i + 1) { "
+                + "  var o = A(); if (i > 3) o = B(); if (i > 7) o.extra = i; if (i == 11) o.get = 100; "
+                + "  if (i < 11) s = s + o.get() + o.v; else s = s + o.get; } print s;");
+
+        Assertions.assertThat(output).isEqualTo("262\n");
+    }
+
+    private LoxClass define(String source, String name) {
+        List<Stmt> statements = Programs.resolve(source, interpreter);
+        interpreter.interpret(statements);
+        return (LoxClass) interpreter.globals.peek(interpreter.globals.slotOf(name));
+    }
+
+    // Makes an instance whose fields are set to their index, in the given order.
+    private static LoxInstance instance(LoxClass klass, String... fields) {
+        LoxInstance instance = new LoxInstance(klass);
+        for (int i = 0; i < fields.length; i++) {
+            instance.set(name(fields[i]), (double) i);
+        }
+        return instance;
+    }
+
+    private static Token name(String lexeme) {
+        return new Token(TokenType.IDENTIFIER, lexeme, null, 1);
+    }
+}
@@ -0,0 +1,108 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class InlinerTest {
+
+    @Test
+    public void testInlinesSmallFunctions() {
+        String dump = dump("fun square(x) { return x * x; } print square(3);");
+
+        Assertions.assertThat(dump).endsWith("(print (inline square ((x$1 3.0)) (return (* x$1 x$1))))");
+    }
+
+    @Test
+    public void testLeavesRecursiveAndLargeFunctions() {
+        String recursive = dump("fun f(n) { if (n < 1) return 0; return f(n - 1); } print f(3);");
+        String large = new AstPrinter().print(new Inliner(2).inline(Programs.parse("fun g(x) { return x * x; } print g(3);")));
+
+        Assertions.assertThat(recursive).doesNotContain("inline");
+        Assertions.assertThat(large).doesNotContain("inline");
+    }
+
+    @Test
+    public void testLeavesCallsWhereAGlobalIsShadowed() {
+        String dump = dump("fun scaled(x) { return x * scale; } var scale = 2; { var scale = 3; print scaled(1); }");
+
+        Assertions.assertThat(dump).doesNotContain("inline");
+    }
+
+    @Test
+    public void testLocalIsInScopeInItsOwnInitializer() {
+        String source = "fun sq(x) { return x * x; } fun nothing() { var e = e; return e; } "
+                + "print nothing(); { var sq = sq(3); print sq; }";
+
+        Assertions.assertThat(dump(source)).contains("(block (var sq (call sq 3.0))");
+        Assertions.assertThat(run(source, Inliner.DEFAULT_THRESHOLD))
+                .isEqualTo("nil\nCan only call functions and classes\n[line 1]\n");
+    }
+
+    @Test
+    public void testLeavesReturnedCalls() {
+        String dump = dump("fun sq(x) { return x * x; } fun f(x) { return sq(x); } fun g(x) { return sq(x) + 1; }");
+
+        Assertions.assertThat(dump).contains("(fun f (x) (return (call sq x)))");
+        Assertions.assertThat(dump).contains("(fun g (x) (return (+ (inline sq");
+    }
+
+    @Test
+    public void testLeavesMutuallyRecursiveFunctions() {
+        String dump = dump("fun even(n) { if (n == 0) return true; return odd(n - 1); } "
+                + "fun odd(n) { if (n == 0) return false; return even(n - 1); } print even(3) or odd(3);");
+
+        Assertions.assertThat(dump).doesNotContain("inline");
+    }
+
+    @Test
+    public void testMutualRecursionKeepsItsTailCalls() {
+        String source = "fun even(n) { if (n == 0) return true; return odd(n - 1); } "
+                + "fun odd(n) { if (n == 0) return false; return even(n - 1); } print even(100001);";
+
+        Assertions.assertThat(run(source, Inliner.DEFAULT_THRESHOLD)).isEqualTo("false\n");
+    }
+
+    @Test
+    public void testLimitsNestedCopies() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 23; i++) {
+            source.append("fun f").append(i).append("(x) { return f").append(i + 1).append("(x) + f")
+                    .append(i + 1).append("(x); } ");
+        }
+        source.append("fun f23(x) { return x; } print f0(1);");
+
+        // Each of the 24 functions and the top-level statement grows by at most its limit.
+        String dump = dump(source.toString());
+        int copies = dump.split("\\(inline ", -1).length - 1;
+
+        Assertions.assertThat(copies).isBetween(1, Inliner.GROWTH_LIMIT * Inliner.DEFAULT_THRESHOLD * 25);
+        Assertions.assertThat(run(source.toString(), Inliner.DEFAULT_THRESHOLD)).isEqualTo("8388608\n");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "fun max(a, b) { if (a > b) return a; return b; } print max(1, 2); print max(4, 3);",
+            "fun square(x) { return x * x; } fun f() { var x = 2; return square(x) + square(square(x)); } print f();",
+            "fun inc(x) { x = x + 1; } print inc(1);",
+            "fun sum(n) { var t = 0; for (var i = 0; i < n; i = i + 1) t = t + i; return t; } print sum(5);",
+            "fun id(x) { return x; } var keep = id; id = clock; print keep(1); id = keep; print id(2);",
+            "fun even(n) { if (n == 0) return true; return odd(n - 1); } fun odd(n) { if (n == 0) return false; return even(n - 1); } print even(7);",
+            "fun two(a, b) { return a + b; } print two(1);"
+    })
+    public void testInlinedProgramsBehaveTheSame(String source) {
+        String plain = run(source, 0);
+        String inlined = run(source, Inliner.DEFAULT_THRESHOLD);
+
+        Assertions.assertThat(inlined).isEqualTo(plain);
+    }
+
+    private String dump(String source) {
+        return new AstPrinter().print(new Inliner(Inliner.DEFAULT_THRESHOLD).inline(Programs.parse(source)));
+    }
+
+    private String run(String source, int threshold) {
+        return Programs.run(new Inliner(threshold).inline(Programs.parse(source)));
+    }
+}
@@ -0,0 +1,83 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+/**
+ * Runs the same programs with and without functions compiled to JVM bytecode, compiling
+ * them on their first call, and checks that they print the same output.
+ */
+class JvmCompilerTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print fib(15);",
+            "fun add(a, b) { return a + b; } print add(1, 2); print add(\"a\", \"b\"); print add(3, 4);",
+            "fun pick(n) { if (n > 3) return n; } print pick(5); print pick(1); print pick(7);",
+            "var k = 10; fun times(n) { return n * k; } print times(2); k = 3; print times(2); k = nil; print times(2);",
+            "fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); } print count(100000, 0);",
+            "fun nan(x) { return x / 0 * 0; } var z = nan(1); print z == z; print nan(1) < 1; print nan(1) >= 1;",
+            "fun same(a, b) { return a == b; } print same(0, -0); print same(1, 1); print same(true, true);",
+            "fun sum(n) { var s = 0; for (var i = 0; i < n; i = i + 1) if (i < 3 or i > 7) s = s + i; return s; } print sum(10);",
+            "fun sq(x) { return x * x; } fun both(a, b) { return sq(a) + sq(b); } print both(3, 4); sq = nil; print both(1, 2);",
+            "fun show(x) { print x; return x; } print show(1) + show(2);",
+            "fun f(a) { return a; } print f(1, 2);"
+    })
+    public void testCompiledFunctionsMatchInterpreter(String source) {
+        String interpreted = run(source, null);
+        String compiled = run(source, 1);
+
+        Assertions.assertThat(compiled).isEqualTo(interpreted);
+    }
+
+    @Test
+    public void testHotFunctionIsCompiled() {
+        run("fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print fib(10);", 10);
+        Stmt.Function fib = firstFunction();
+
+        Assertions.assertThat(fib.calls).isEqualTo(10);
+        Assertions.assertThat(fib.compiled.isValid()).isTrue();
+    }
+
+    @Test
+    public void testTypeSurpriseFallsBackToInterpreter() {
+        // Arguments of other types are left to the interpreter before the compiled code runs.
+        run("fun add(a, b) { return a + b; } print add(1, 2); print add(\"a\", \"b\");", 1);
+        Assertions.assertThat(firstFunction().compiled.isValid()).isTrue();
+
+        // A global of another type is only found by the compiled code, which gives up on it.
+        run("var x = 1; fun add(a) { return a + x; } print add(1); x = \"b\"; print add(1);", 1);
+        Assertions.assertThat(firstFunction().compiled.isValid()).isFalse();
+    }
+
+    @Test
+    public void testFunctionWithEffectsIsNotCompiled() {
+        run("fun show(x) { print x; return x; } show(1);", 1);
+
+        Assertions.assertThat(firstFunction().compiled).isEqualTo(CompiledFunction.NOT_COMPILABLE);
+    }
+
+    private List<Stmt> statements;
+
+    // The first function the program last run declares.
+    private Stmt.Function firstFunction() {
+        return (Stmt.Function) statements.stream()
+                .filter(statement -> statement instanceof Stmt.Function)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private String run(String source, Integer threshold) {
+        Interpreter interpreter = new Interpreter();
+        statements = Programs.resolve(source, interpreter);
+        if (threshold != null) {
+            interpreter.jit = new JvmCompiler(interpreter.globals, threshold);
+        }
+
+        return Programs.captureOutput(() -> interpreter.interpret(statements));
+    }
+}
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs programs whose locals the Resolver puts in frame slots and cells, and checks what
+ * they print, including programs with resolution errors that still run.
+ */
+class LocalsTest {
+
+    @Test
+    public void testLocalReadInItsOwnInitializerIsNil() {
+        Assertions.assertThat(Programs.run("var x = 1;\n{ var x = x; }\nprint \"after\";"))
+                .isEqualTo("after\n");
+        Assertions.assertThat(Programs.run("var x = 1; { var x = x; print x; } print x;"))
+                .isEqualTo("nil\n1\n");
+        Assertions.assertThat(Programs.run("fun f() { var c = c; fun g() { return c; } return g; } print f()();"))
+                .isEqualTo("nil\n");
+        Assertions.assertThat(Programs.run("{ var a = 1; fun f() { return a; } } { var b = b; print b; }"))
+                .isEqualTo("nil\n");
+        Assertions.assertThat(Programs.run("{ var d = (d = 2) + 1; fun f() { return d; } print f(); }"))
+                .isEqualTo("3\n");
+    }
+
+    @Test
+    public void testLocalDeclaredAgainReusesItsSlot() {
+        Assertions.assertThat(Programs.run("fun f(a) { var a = a + 1; return a; } print f(5);"))
+                .isEqualTo("6\n");
+        Assertions.assertThat(Programs.run("{ var b = 1; var b = b + 1; print b; }"))
+                .isEqualTo("2\n");
+        Assertions.assertThat(Programs.run("{ fun k() { return 1; } fun k() { return 2; } print k(); }"))
+                .isEqualTo("2\n");
+    }
+
+    @Test
+    public void testClosuresCaptureTheVariablesOfTheirIteration() {
+        Assertions.assertThat(Programs.run("var fs = nil; var gs = nil; "
+                + "for (var i = 0; i < 3; i = i + 1) { var j = i; fun f() { return j; } fun g() { return i; } "
+                + "if (i == 0) fs = f; if (i == 1) gs = g; } print fs(); print gs();"))
+                .isEqualTo("0\n3\n");
+        Assertions.assertThat(Programs.run("var c = nil; var k = 0; "
+                + "while (k < 3) { var v = k * 10; fun f() { return v; } if (k == 1) c = f; k = k + 1; } print c();"))
+                .isEqualTo("10\n");
+    }
+
+    @Test
+    public void testInnerClosureAssignsVariablesOfTwoEnclosingFunctions() {
+        Assertions.assertThat(Programs.run("fun outer() { var a = 1; "
+                + "fun middle() { var b = 10; fun inner() { a = a + 1; b = b + 10; return a + b; } return inner; } "
+                + "var m1 = middle(); var m2 = middle(); print m1(); print m1(); print m2(); print a; "
+                + "fun show() { return a; } return show; } print outer()();"))
+                .isEqualTo("22\n33\n24\n4\n4\n");
+        Assertions.assertThat(Programs.run("var get = nil; "
+                + "{ var n = 0; fun inc() { n = n + 1; return n; } fun read() { return n; } inc(); inc(); get = read; } "
+                + "print get();"))
+                .isEqualTo("2\n");
+    }
+}
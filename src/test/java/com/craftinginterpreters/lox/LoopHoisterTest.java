@@ -0,0 +1,60 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+class LoopHoisterTest {
+
+    @Test
+    public void testHoistsInvariantExpressions() {
+        LoopHoister hoister = new LoopHoister();
+        String dump = new AstPrinter().print(hoister.hoist(Programs.parse(
+                "var a = 1; var b = 2; var t = 0; while (t < 10) t = t + a * b;")));
+
+        Assertions.assertThat(dump).endsWith(
+                "(block (var invariant$1) (while (< t 10.0) (; (= t (+ t (invariant invariant$1 (* a b)))))))");
+        Assertions.assertThat(hoister.getReport()).isEqualTo(List.of("[line 1] hoisted out of loop: (* a b)"));
+    }
+
+    @Test
+    public void testLeavesExpressionsTheLoopChanges() {
+        String assigned = dump("var a = 1; var t = 0; while (t < 10) { t = t + a * 2; a = a + 1; }");
+        String called = dump("var a = 1; fun f() {} var t = 0; while (t < 10) { t = t + a * 2; f(); }");
+        String set = dump("class C {} var c = C(); c.v = 1; for (var i = 0; i < 3; i = i + 1) { print c.v; c.v = i; }");
+
+        Assertions.assertThat(assigned).doesNotContain("invariant");
+        Assertions.assertThat(called).doesNotContain("invariant");
+        Assertions.assertThat(set).doesNotContain("invariant");
+    }
+
+    @Test
+    public void testKeepsLocalsInvariantAcrossCalls() {
+        String dump = dump("fun f(a) { var t = 0; while (t < 10) { t = t + a * 2; clock(); } return t; }");
+
+        Assertions.assertThat(dump).contains("(invariant invariant$1 (* a 2.0))");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "var a = 3; var t = 0; for (var i = 0; i < 4; i = i + 1) t = t + a * a; print t;",
+            "fun f() { var x = 1; fun g() { x = x + 1; } var t = 0; for (var i = 0; i < 3; i = i + 1) { t = t + x * 2; g(); } return t; } print f();",
+            "class C { m() { return 1; } } var c = C(); for (var i = 0; i < 2; i = i + 1) print c.m == c.m;",
+            "var u; for (var i = 0; i < 2; i = i + 1) print u == nil;",
+            "for (var i = 0; i < 2; i = i + 1) { var k = i * 2; for (var j = 0; j < 2; j = j + 1) print k + 1; }",
+            "var s = \"a\"; for (var i = 0; i < 3; i = i + 1) { print s + \"b\"; if (i == 1) print s - 1; }"
+    })
+    public void testHoistedProgramsBehaveTheSame(String source) {
+        String plain = Programs.run(source);
+        String hoisted = Programs.run(new LoopHoister().hoist(Programs.parse(source)));
+
+        Assertions.assertThat(hoisted).isEqualTo(plain);
+    }
+
+    private String dump(String source) {
+        return new AstPrinter().print(new LoopHoister().hoist(Programs.parse(source)));
+    }
+}
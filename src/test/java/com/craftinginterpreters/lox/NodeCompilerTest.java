@@ -0,0 +1,66 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+/**
+ * Runs the same programs through the tree walking interpreter and the
+ * compiled nodes and checks that they print the same output.
+ */
+class NodeCompilerTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "print 1 + 2 * 3 - 4 / 2; print \"a\" + \"b\"; print !nil; print 1 == 1; print nil != false;",
+            "print true and \"yes\"; print false or \"no\"; print nil and 1; print 1 < 2; print 2 <= 1;",
+            "var a = 1; while (a < 10) { print a; a = a + 1; } for (var i = 0; i < 3; i = i + 1) print i;",
+            "fun fib(n) { if (n <= 1) return n; return fib(n - 2) + fib(n - 1); } print fib(15);",
+            "fun count(n) { if (n == 0) return \"done\"; return count(n - 1); } print count(100000);",
+            "fun makeCounter() { var i = 0; fun count() { i = i + 1; print i; } return count; } var c = makeCounter(); c(); c();",
+            "var f; for (var i = 0; i < 3; i = i + 1) { var j = i; fun g() { print j; } if (j == 1) f = g; } f();",
+            "class A { init(n) { this.n = n; } get() { return this.n; } } class B < A { get() { return super.get() * 2; } } print B(4).get(); print B(1).init(3).n;",
+            "class Box {} fun show(x) { print \"got \" + x; } var box = Box(); box.f = show; box.f(\"it\"); print box;",
+            "fun four(a, b, c, d) { return a + b + c + d; } print four(1, 2, 3, 4); print clock() > 0;",
+            "fun square(x) { return x * x; } var t = 0; for (var i = 0; i < 4; i = i + 1) t = t + square(i) * t + 1; print t;",
+            "var a = 1; print a + nil;",
+            "fun f(a) { return a; } print f(1, 2);",
+            "print undefined;",
+            "var x = 1; { var x = x; print x; } { var y = (y = 2) + 1; fun f() { return y; } print f(); } print x;",
+            "fun f(a) { var a = a + 1; var c = c; fun g() { return c; } return g() == nil and a; } print f(5);"
+    })
+    public void testNodesMatchInterpreter(String source) {
+        String interpreted = run(source, false);
+        String compiled = run(source, true);
+
+        Assertions.assertThat(compiled).isEqualTo(interpreted);
+    }
+
+    @Test
+    public void testOperatorSitesSpecializeToTheTypesTheySee() {
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Programs.resolve(
+                "fun add(a, b) { return a + b; }\nprint add(1, 2) < add(3, 4);\nprint add(\"a\", \"b\");", interpreter);
+        NodeCompiler compiler = new NodeCompiler(interpreter);
+
+        Programs.captureOutput(() -> compiler.interpret(statements));
+
+        Assertions.assertThat(compiler.getSpecializations()).isEqualTo(List.of(
+                "[line 1] + Generic (2 rewrites)",
+                "[line 2] < NumberLess (1 rewrite)"));
+    }
+
+    private String run(String source, boolean compile) {
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = new Inliner(Inliner.DEFAULT_THRESHOLD).inline(Programs.parse(source));
+        List<Stmt> program = Programs.resolve(new LoopHoister().hoist(statements), interpreter);
+
+        if (compile) {
+            return Programs.captureOutput(() -> new NodeCompiler(interpreter).interpret(program));
+        }
+        return Programs.captureOutput(() -> interpreter.interpret(program));
+    }
+}
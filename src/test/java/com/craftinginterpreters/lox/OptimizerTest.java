@@ -0,0 +1,67 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+class OptimizerTest {
+
+    @Test
+    public void testFoldsConstantExpressions() {
+        Assertions.assertThat(optimizedExpression("60 * 60 * 24;")).isEqualTo("86400.0");
+        Assertions.assertThat(optimizedExpression("-(1);")).isEqualTo("-1.0");
+        Assertions.assertThat(optimizedExpression("\"a\" + \"b\";")).isEqualTo("ab");
+        Assertions.assertThat(optimizedExpression("!true;")).isEqualTo("false");
+        Assertions.assertThat(optimizedExpression("-\"a\" * (2 + 3);")).isEqualTo("(* (- a) 5.0)");
+    }
+
+    @Test
+    public void testKeepsOperationsThatFail() {
+        Assertions.assertThat(optimizedExpression("1 + \"a\";")).isEqualTo("(+ 1.0 a)");
+        Assertions.assertThat(optimizedExpression("-\"a\";")).isEqualTo("(- a)");
+    }
+
+    @Test
+    public void testRemovesDeadStatements() {
+        List<Stmt> statements = optimize("if (false) print 1; while (false) print 2; print 3;");
+
+        Assertions.assertThat(statements).hasSize(1);
+        Assertions.assertThat(statements.get(0)).isInstanceOf(Stmt.Print.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "print 1 + 2 * 3 - 4 / 2; print (1 < 2) == !false;",
+            "if (1 > 2) print \"then\"; else print \"else\"; print nil or \"default\"; print 0 and \"zero\";",
+            "fun f(n) { if (true) return n * (60 * 60); } print f(2);",
+            "for (var i = 0; false; i = i + 1) print i; var i = \"after\"; print i;",
+            "var a = 1; { var b = a + (2 * 3); fun g() { return b + 1; } print g(); }",
+            "print \"a\" + 1;"
+    })
+    public void testOptimizedProgramsBehaveTheSame(String source) {
+        String plain = run(source, false);
+        String optimized = run(source, true);
+
+        Assertions.assertThat(optimized).isEqualTo(plain);
+    }
+
+    private String optimizedExpression(String source) {
+        Stmt.Expression statement = (Stmt.Expression) Programs.parse(source).get(0);
+        return new AstPrinter().print(statement.expression.accept(new Optimizer()));
+    }
+
+    private List<Stmt> optimize(String source) {
+        return new Optimizer().optimize(Programs.resolve(source, new Interpreter()));
+    }
+
+    private String run(String source, boolean optimize) {
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Programs.resolve(source, interpreter);
+        List<Stmt> program = optimize ? new Optimizer().optimize(statements) : statements;
+
+        return Programs.captureOutput(() -> interpreter.interpret(program));
+    }
+}
@@ -0,0 +1,65 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.lox.scanner.Scanner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Parses, resolves and runs Lox programs for the tests, capturing what they print.
+ */
+final class Programs {
+
+    private Programs() {
+    }
+
+    static List<Stmt> parse(String source) {
+        return new Parser(Scanner.scanTokens(source)).parse();
+    }
+
+    // Resolves statements against the globals of the interpreter that will run them.
+    static List<Stmt> resolve(List<Stmt> statements, Interpreter interpreter) {
+        new Resolver(interpreter.globals).resolve(statements);
+        return statements;
+    }
+
+    static List<Stmt> resolve(String source, Interpreter interpreter) {
+        return resolve(parse(source), interpreter);
+    }
+
+    // Runs the passes the Lox runner runs before executing a program, with their default settings.
+    static List<Stmt> prepare(String source, Interpreter interpreter) {
+        List<Stmt> statements = new Inliner(Inliner.DEFAULT_THRESHOLD).inline(parse(source));
+        statements = new LoopHoister().hoist(statements);
+        resolve(statements, interpreter);
+        return new Optimizer().optimize(statements);
+    }
+
+    // Resolves parsed statements for a new interpreter, and returns what running them prints.
+    static String run(List<Stmt> statements) {
+        Interpreter interpreter = new Interpreter();
+        resolve(statements, interpreter);
+        return captureOutput(() -> interpreter.interpret(statements));
+    }
+
+    static String run(String source) {
+        return run(parse(source));
+    }
+
+    // Returns what the code prints, to stdout and stderr, where runtime errors are reported.
+    static String captureOutput(Runnable runnable) {
+        PrintStream original = System.out;
+        PrintStream originalErr = System.err;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+        System.setErr(new PrintStream(output));
+        try {
+            runnable.run();
+        } finally {
+            System.setOut(original);
+            System.setErr(originalErr);
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+/**
+ * Checks that setting fields moves instances along shape transitions, and that instances
+ * which add the same fields in the same order share their shapes.
+ */
+class ShapeTest {
+
+    @Test
+    public void testNewFieldTransitionsToChildShape() {
+        LoxInstance instance = new LoxInstance(new LoxClass("A", null, Map.of()));
+        Shape root = instance.getShape();
+
+        instance.set(name("x"), 1.0);
+        Shape withX = instance.getShape();
+        instance.set(name("y"), 2.0);
+        Shape withXY = instance.getShape();
+
+        Assertions.assertThat(root.size()).isEqualTo(0);
+        Assertions.assertThat(withX.size()).isEqualTo(1);
+        Assertions.assertThat(withXY.size()).isEqualTo(2);
+        Assertions.assertThat(withXY.slotOf("x")).isEqualTo(0);
+        Assertions.assertThat(withXY.slotOf("y")).isEqualTo(1);
+        Assertions.assertThat(root.slotOf("x")).isEqualTo(-1);
+        Assertions.assertThat(withX.slotOf("y")).isEqualTo(-1);
+        Assertions.assertThat(instance.get(name("x"))).isEqualTo(1.0);
+        Assertions.assertThat(instance.get(name("y"))).isEqualTo(2.0);
+    }
+
+    @Test
+    public void testExistingFieldKeepsShape() {
+        LoxInstance instance = new LoxInstance(new LoxClass("A", null, Map.of()));
+        instance.set(name("x"), 1.0);
+        Shape shape = instance.getShape();
+
+        instance.set(name("x"), 2.0);
+
+        Assertions.assertThat(instance.getShape() == shape).isTrue();
+        Assertions.assertThat(instance.get(name("x"))).isEqualTo(2.0);
+    }
+
+    @Test
+    public void testSameFieldOrderSharesShape() {
+        LoxClass klass = new LoxClass("A", null, Map.of());
+        LoxInstance first = new LoxInstance(klass);
+        LoxInstance second = new LoxInstance(klass);
+        LoxInstance reversed = new LoxInstance(klass);
+
+        Assertions.assertThat(first.getShape() == second.getShape()).isTrue();
+
+        first.set(name("x"), 1.0);
+        first.set(name("y"), 2.0);
+        second.set(name("x"), 3.0);
+        second.set(name("y"), 4.0);
+        reversed.set(name("y"), 5.0);
+        reversed.set(name("x"), 6.0);
+
+        Assertions.assertThat(first.getShape() == second.getShape()).isTrue();
+        Assertions.assertThat(first.getShape() == reversed.getShape()).isFalse();
+        Assertions.assertThat(reversed.getShape().slotOf("y")).isEqualTo(0);
+        Assertions.assertThat(second.get(name("y"))).isEqualTo(4.0);
+        Assertions.assertThat(reversed.get(name("x"))).isEqualTo(6.0);
+    }
+
+    @Test
+    public void testClassesDoNotShareShapes() {
+        LoxInstance a = new LoxInstance(new LoxClass("A", null, Map.of()));
+        LoxInstance b = new LoxInstance(new LoxClass("B", null, Map.of()));
+
+        a.set(name("x"), 1.0);
+        b.set(name("x"), 1.0);
+
+        Assertions.assertThat(a.getShape() == b.getShape()).isFalse();
+    }
+
+    @Test
+    public void testProgramsSeeFieldsThroughSharedShapes() {
+        String output = Programs.run("class P { init(x, y) { this.x = x; this.y = y; } sum() { return this.x + this.y; } } "
+                + "var a = P(1, 2); var b = P(3, 4); b.z = 5; a.y = 10; "
+                + "print a.sum(); print b.sum() + b.z; var c = P(\"a\", \"b\"); print c.sum();");
+
+        Assertions.assertThat(output).isEqualTo("11\n12\nab\n");
+    }
+
+    private static Token name(String lexeme) {
+        return new Token(TokenType.IDENTIFIER, lexeme, null, 1);
+    }
+}
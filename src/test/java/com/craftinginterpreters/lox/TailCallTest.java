@@ -0,0 +1,53 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Runs deeply tail recursive programs through the passes the Lox runner uses by default,
+ * the Inliner included, and checks that they finish without overflowing the Java stack.
+ */
+class TailCallTest {
+
+    @Test
+    public void testSelfRecursion() {
+        Assertions.assertThat(run("fun count(n) { if (n == 0) return \"done\"; return count(n - 1); } "
+                + "print count(200000);")).isEqualTo("done\n");
+        Assertions.assertThat(run("fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); } "
+                + "print count(200000, 0);")).isEqualTo("200000\n");
+    }
+
+    @Test
+    public void testMutualRecursion() {
+        Assertions.assertThat(run("fun even(n) { if (n == 0) return true; return odd(n - 1); } "
+                + "fun odd(n) { if (n == 0) return false; return even(n - 1); } print even(100001);"))
+                .isEqualTo("false\n");
+        Assertions.assertThat(run("fun a(n) { if (n == 0) return \"a\"; return b(n - 1); } fun b(n) { return c(n); } "
+                + "fun c(n) { if (n == 0) return \"c\"; return a(n - 1); } print a(200001);"))
+                .isEqualTo("c\n");
+    }
+
+    @Test
+    public void testInlinedArgumentKeepsTailCall() {
+        Assertions.assertThat(run("fun dec(n) { return n - 1; } "
+                + "fun loop(n) { if (n == 0) return \"done\"; return loop(dec(n)); } print loop(200000);"))
+                .isEqualTo("done\n");
+    }
+
+    @Test
+    public void testMethodAndClosureRecursion() {
+        Assertions.assertThat(run("class Counter { down(n) { if (n == 0) return this; return this.down(n - 1); } } "
+                + "print Counter().down(200000);")).isEqualTo("Counter instance\n");
+        Assertions.assertThat(run("fun outer() { var hits = 0; "
+                + "fun go(n) { if (n == 0) return hits; hits = hits + 1; return go(n - 1); } "
+                + "return go(200000); } print outer();")).isEqualTo("200000\n");
+    }
+
+    private String run(String source) {
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Programs.prepare(source, interpreter);
+        return Programs.captureOutput(() -> interpreter.interpret(statements));
+    }
+}
@@ -0,0 +1,105 @@
+package com.craftinginterpreters.lox;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+/**
+ * Runs the same programs with and without tiered execution, promoting functions and loops
+ * as early as it can, and checks that they print the same output.
+ */
+class TieredExecutionTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print fib(15);",
+            "fun counter() { var c = 0; fun inc() { c = c + 1; return c; } return inc; } "
+                    + "var a = counter(); a(); a(); var b = counter(); print a() + b();",
+            "class A { init(x) { this.x = x; } get() { return this.x; } } var s = 0; "
+                    + "for (var i = 0; i < 10; i = i + 1) s = s + A(i).get(); print s;",
+            "var i = 0; while (i < 10) { var j = i * 2; i = i + 1; } print i; { var k = 0; while (k < 5) { var m = k; k = m + 1; } print k; }",
+            "var fs = nil; for (var i = 0; i < 5; i = i + 1) { var j = i; fun f() { return j; } fs = f; } print fs();",
+            "fun add(a, b) { return a + b; } print add(1, 2); print add(3, 4); print add(\"a\", \"b\"); print add(5, 6);",
+            "fun loop(n) { var s = 0; while (n > 0) { s = s + n; n = n - 1; } return s; } print loop(10); print loop(20);",
+            "fun count(n, acc) { if (n == 0) return acc; return count(n - 1, acc + 1); } print count(100000, 0);",
+            "var i = 0; while (i < 5) { i = i + 1; if (i == 3) print nil + i; }"
+    })
+    public void testTieredProgramMatchesInterpreter(String source) {
+        String interpreted = run(source);
+        String tiered = runTiered(source, 1, 2, 1, false);
+
+        Assertions.assertThat(tiered).isEqualTo(interpreted);
+    }
+
+    @Test
+    public void testHotFunctionIsPromoted() {
+        String source = "fun sq(x) { return x * x; } var s = 0; for (var i = 0; i < 20; i = i + 1) s = s + sq(i); print s;";
+
+        runTiered(source, 5, 10, 1000, false);
+        Assertions.assertThat(firstFunction().tier).isEqualTo(TieredExecution.Tier.BYTECODE);
+
+        runTiered(source, 5, 100, 1000, false);
+        Assertions.assertThat(firstFunction().tier).isEqualTo(TieredExecution.Tier.NODES);
+
+        runTiered(source, 100, 100, 1000, false);
+        Assertions.assertThat(firstFunction().tier).isEqualTo(TieredExecution.Tier.INTERPRETER);
+    }
+
+    @Test
+    public void testMethodStopsAtNodes() {
+        runTiered("class A { get() { return 1; } } var a = A(); for (var i = 0; i < 5; i = i + 1) a.get();",
+                1, 1, 1000, false);
+
+        Stmt.Function get = ((Stmt.Class) statements.get(0)).methods.get(0);
+        Assertions.assertThat(get.tier).isEqualTo(TieredExecution.Tier.NODES);
+    }
+
+    @Test
+    public void testHotLoopIsPromoted() {
+        String output = runTiered("var s = 0; for (var i = 0; i < 10; i = i + 1) s = s + i; print s;", 100, 100, 3, false);
+
+        Stmt.For loop = (Stmt.For) statements.get(1);
+        Assertions.assertThat(output).isEqualTo("45\n");
+        Assertions.assertThat(loop.backEdges).isEqualTo(3);
+        Assertions.assertThat(loop.promoted).isNotNull();
+    }
+
+    @Test
+    public void testPromotionsAreTraced() {
+        String output = runTiered("fun sq(x) { return x * x; } sq(1); sq(2);", 2, 100, 1000, true);
+
+        Assertions.assertThat(output).isEqualTo("[tiers] sq: interpreter -> nodes after 2 calls\n");
+        Assertions.assertThat(interpreter.tiers.getTiers()).isEqualTo(List.of("sq: nodes, 2 calls"));
+    }
+
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+
+    // The first function the program last run declares.
+    private Stmt.Function firstFunction() {
+        return (Stmt.Function) statements.stream()
+                .filter(statement -> statement instanceof Stmt.Function)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private String run(String source) {
+        interpreter = new Interpreter();
+        return interpret(source);
+    }
+
+    private String runTiered(String source, int callThreshold, int bytecodeThreshold, int backEdgeThreshold,
+                             boolean trace) {
+        interpreter = new Interpreter();
+        interpreter.tiers = new TieredExecution(interpreter, callThreshold, bytecodeThreshold, backEdgeThreshold, trace);
+        return interpret(source);
+    }
+
+    private String interpret(String source) {
+        statements = Programs.resolve(source, interpreter);
+        return Programs.captureOutput(() -> interpreter.interpret(statements));
+    }
+}
@@ -0,0 +1,85 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.lox.vm.VM;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+/**
+ * Runs the same programs through the tree walking interpreter and the
+ * bytecode VM and checks that they print the same output.
+ */
+class VMTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "print 1 + 2 * 3 - 4 / 2;",
+            "print \"a\" + \"b\"; print !nil; print 1 == 1; print nil != false;",
+            "var a = 1; while (a < 10) { print a; a = a + 1; }",
+            "for (var a = 1; a < 10; a = a + 1) { print a; }",
+            "print true and \"yes\"; print false or \"no\"; print nil and 1;",
+            "fun fib(n) { if (n <= 1) return n; return fib(n - 2) + fib(n - 1); } for (var i = 0; i < 20; i = i + 1) { print fib(i); }",
+            "fun makeCounter() { var i = 0; fun count() { i = i + 1; print i; } return count; } var counter = makeCounter(); counter(); counter();",
+            "var a = \"global\"; { fun showA() { print a; } showA(); var a = \"block\"; showA(); }",
+            "var f; for (var i = 0; i < 3; i = i + 1) { var j = i; fun g() { print j; } if (j == 1) f = g; } f();",
+            "class Person { sayName() { print this.name; } } var jane = Person(); jane.name = \"Jane\"; var method = jane.sayName; method();",
+            "class Foo { init() { print this; } } var foo = Foo(); print foo.init();",
+            "class A { method() { print \"A method\"; } } class B < A { method() { print \"B method\"; } test() { super.method(); } } class C < B {} C().test();",
+            "class Thing { getCallback() { fun localFunction() { print this; } return localFunction; } } var callback = Thing().getCallback(); callback();",
+            "class Box {} fun notMethod(argument) { print \"called function with \" + argument; } var box = Box(); box.function = notMethod; box.function(\"argument\");",
+            "fun add(a, b) { print a + b; } print add;",
+            "class A {} var a = A(); print a.missing;",
+            "class A {} A().nope();",
+            "class A {} class B < A { m() { return super.nope; } } B().m();"
+    })
+    public void testVmMatchesInterpreter(String source) {
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Programs.resolve(source, interpreter);
+
+        String interpreted = Programs.captureOutput(() -> interpreter.interpret(statements));
+        VM vm = new VM();
+        String compiled = Programs.captureOutput(() -> vm.interpret(new BytecodeCompiler(vm).compile(statements)));
+
+        Assertions.assertThat(compiled).isEqualTo(interpreted);
+    }
+
+    @Test
+    public void testUndefinedPropertyMessage() {
+        String source = "class A {}\nvar a = A();\nprint a.missing;";
+        String expected = "Undefined property 'missing'.\n[line 3]\n";
+
+        Assertions.assertThat(run(source, false)).isEqualTo(expected);
+        Assertions.assertThat(run(source, true)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testGlobalsKeepTheirSlotsAcrossScripts() {
+        VM vm = new VM();
+        StringBuilder output = new StringBuilder();
+        for (String line : new String[] {
+                "var a = 1; fun show() { print a; }",
+                "show(); var a = \"two\"; show();",
+                "a = 3; show(); print missing;",
+                "missing = 1;",
+                "var missing = 2; print missing; print clock() > 0;"}) {
+            List<Stmt> statements = Programs.resolve(line, new Interpreter());
+            output.append(Programs.captureOutput(() -> vm.interpret(new BytecodeCompiler(vm).compile(statements))));
+        }
+
+        Assertions.assertThat(output.toString()).isEqualTo("1\ntwo\n3\nUndefined variable 'missing'.\n[line 1]\n"
+                + "Undefined variable 'missing'.\n[line 1]\n2\ntrue\n");
+    }
+
+    private String run(String source, boolean vm) {
+        Interpreter interpreter = new Interpreter();
+        List<Stmt> statements = Programs.resolve(source, interpreter);
+        if (vm) {
+            VM machine = new VM();
+            return Programs.captureOutput(() -> machine.interpret(new BytecodeCompiler(machine).compile(statements)));
+        }
+        return Programs.captureOutput(() -> interpreter.interpret(statements));
+    }
+}